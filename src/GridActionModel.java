@@ -0,0 +1,292 @@
+/**
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2014 Kyle Hollins Wray, University of Massachusetts
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of
+ *  this software and associated documentation files (the "Software"), to deal in
+ *  the Software without restriction, including without limitation the rights to
+ *  use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ *  the Software, and to permit persons to whom the Software is furnished to do so,
+ *  subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ *  FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ *  IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *  CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.Arrays;
+
+
+/**
+ * The actions of a grid world, as a table of outcomes: each action moves by one of its (dx, dy)
+ * offsets, each with a kind which GridMarkovParameters gives the probability of (certain, forward,
+ * or deviate). A move off the grid or into an obstacle stays in place instead. The outcomes are
+ * stored in flat arrays, with the outcomes of action a at [offsets[a], offsets[a + 1]), so that
+ * GridMarkov builds every action in one loop.
+ */
+public class GridActionModel {
+
+	/** An outcome with probability one. It must be the only outcome of its action. */
+	public static final int CERTAIN = 0;
+
+	/** An outcome with the forward probability. */
+	public static final int FORWARD = 1;
+
+	/** An outcome with the deviate probability. */
+	public static final int DEVIATE = 2;
+
+	/** The name of the model. */
+	private String name;
+
+	/** The number of actions. */
+	private int m;
+
+	/** The outcomes of action a are at [offsets[a], offsets[a + 1]). */
+	private int offsets[];
+
+	/** The x offset of each outcome. */
+	private int dx[];
+
+	/** The y offset of each outcome. */
+	private int dy[];
+
+	/** The kind of each outcome. */
+	private int kinds[];
+
+	/**
+	 * The constructor for the GridActionModel class, with no actions.
+	 * @param	name	The name of the model.
+	 */
+	public GridActionModel(String name) {
+		this.name = name;
+		this.m = 0;
+		this.offsets = new int[] {0};
+		this.dx = new int[0];
+		this.dy = new int[0];
+		this.kinds = new int[0];
+	}
+
+	/**
+	 * Create the four actions LEFT, UP, RIGHT, and DOWN, which move forward or deviate to either side.
+	 * @param	stay	Also add a STAY action, which certainly stays in place.
+	 * @return	The action model.
+	 */
+	public static GridActionModel createFourConnected(boolean stay) {
+		GridActionModel model = new GridActionModel(stay ? "4-connected+stay" : "4-connected");
+		model.addMove(-1, 0, 0, -1, 0, 1);		// LEFT, deviating UP or DOWN.
+		model.addMove(0, -1, -1, 0, 1, 0);		// UP, deviating LEFT or RIGHT.
+		model.addMove(1, 0, 0, -1, 0, 1);		// RIGHT, deviating UP or DOWN.
+		model.addMove(0, 1, -1, 0, 1, 0);		// DOWN, deviating LEFT or RIGHT.
+		if (stay) {
+			model.addStay();
+		}
+		return model;
+	}
+
+	/**
+	 * Create the eight king moves: LEFT, UP, RIGHT, DOWN, then UP-LEFT, UP-RIGHT, DOWN-RIGHT, and
+	 * DOWN-LEFT. Each moves forward or deviates to the direction 45 degrees to either side.
+	 * @param	stay	Also add a STAY action, which certainly stays in place.
+	 * @return	The action model.
+	 */
+	public static GridActionModel createEightConnected(boolean stay) {
+		GridActionModel model = new GridActionModel(stay ? "8-connected+stay" : "8-connected");
+		model.addMove(-1, 0, -1, -1, -1, 1);	// LEFT, deviating UP-LEFT or DOWN-LEFT.
+		model.addMove(0, -1, -1, -1, 1, -1);	// UP, deviating UP-LEFT or UP-RIGHT.
+		model.addMove(1, 0, 1, -1, 1, 1);		// RIGHT, deviating UP-RIGHT or DOWN-RIGHT.
+		model.addMove(0, 1, -1, 1, 1, 1);		// DOWN, deviating DOWN-LEFT or DOWN-RIGHT.
+		model.addMove(-1, -1, -1, 0, 0, -1);	// UP-LEFT, deviating LEFT or UP.
+		model.addMove(1, -1, 0, -1, 1, 0);		// UP-RIGHT, deviating UP or RIGHT.
+		model.addMove(1, 1, 1, 0, 0, 1);		// DOWN-RIGHT, deviating RIGHT or DOWN.
+		model.addMove(-1, 1, 0, 1, -1, 0);		// DOWN-LEFT, deviating DOWN or LEFT.
+		if (stay) {
+			model.addStay();
+		}
+		return model;
+	}
+
+	/**
+	 * Add an action which moves forward or deviates to one of two sides.
+	 * @param	fx	The x offset of moving forward.
+	 * @param	fy	The y offset of moving forward.
+	 * @param	ax	The x offset of the first deviation.
+	 * @param	ay	The y offset of the first deviation.
+	 * @param	bx	The x offset of the second deviation.
+	 * @param	by	The y offset of the second deviation.
+	 * @return	The index of the action.
+	 */
+	public int addMove(int fx, int fy, int ax, int ay, int bx, int by) {
+		return addAction(new int[] {fx, ax, bx}, new int[] {fy, ay, by}, new int[] {FORWARD, DEVIATE, DEVIATE});
+	}
+
+	/**
+	 * Add an action which certainly stays in place.
+	 * @return	The index of the action.
+	 */
+	public int addStay() {
+		return addAction(new int[] {0}, new int[] {0}, new int[] {CERTAIN});
+	}
+
+	/**
+	 * Add an action with any outcomes. The probabilities of its outcomes should sum to one under
+	 * the parameters the model is created with.
+	 * @param	actionDx	The x offset of each outcome.
+	 * @param	actionDy	The y offset of each outcome.
+	 * @param	actionKinds	The kind of each outcome: CERTAIN, FORWARD, or DEVIATE.
+	 * @return	The index of the action, or -1 if the outcomes are invalid.
+	 */
+	public int addAction(int actionDx[], int actionDy[], int actionKinds[]) {
+		int k = actionKinds.length;
+		if (k == 0 || k > Byte.MAX_VALUE || actionDx.length != k || actionDy.length != k) {
+			System.out.println("Invalid outcomes for an action of '" + name + "'.");
+			return -1;
+		}
+		for (int i = 0; i < k; i++) {
+			if (actionKinds[i] < CERTAIN || actionKinds[i] > DEVIATE || (actionKinds[i] == CERTAIN && k > 1)) {
+				System.out.println("Invalid outcome kind for an action of '" + name + "'.");
+				return -1;
+			}
+		}
+
+		int start = dx.length;
+		dx = Arrays.copyOf(dx, start + k);
+		dy = Arrays.copyOf(dy, start + k);
+		kinds = Arrays.copyOf(kinds, start + k);
+		System.arraycopy(actionDx, 0, dx, start, k);
+		System.arraycopy(actionDy, 0, dy, start, k);
+		System.arraycopy(actionKinds, 0, kinds, start, k);
+
+		offsets = Arrays.copyOf(offsets, m + 2);
+		offsets[m + 1] = start + k;
+		m++;
+
+		return m - 1;
+	}
+
+	/**
+	 * Get the name of the model.
+	 * @return	The name.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Get the number of actions.
+	 * @return	The number of actions.
+	 */
+	public int getNumActions() {
+		return m;
+	}
+
+	/**
+	 * Get the largest number of outcomes of any action, i.e., the successor slots it needs.
+	 * @return	The largest number of outcomes.
+	 */
+	public int getMaxOutcomes() {
+		int maxOutcomes = 1;
+		for (int a = 0; a < m; a++) {
+			maxOutcomes = Math.max(maxOutcomes, offsets[a + 1] - offsets[a]);
+		}
+		return maxOutcomes;
+	}
+
+	/**
+	 * Get where the outcomes of each action start; the outcomes of action a are at
+	 * [offsets[a], offsets[a + 1]).
+	 * @return	The offsets, one per action plus one.
+	 */
+	public int[] getOffsets() {
+		return offsets;
+	}
+
+	/**
+	 * Get the x offset of each outcome.
+	 * @return	The x offsets.
+	 */
+	public int[] getDx() {
+		return dx;
+	}
+
+	/**
+	 * Get the y offset of each outcome.
+	 * @return	The y offsets.
+	 */
+	public int[] getDy() {
+		return dy;
+	}
+
+	/**
+	 * Get the kind of each outcome.
+	 * @return	The kinds: CERTAIN, FORWARD, or DEVIATE.
+	 */
+	public int[] getKinds() {
+		return kinds;
+	}
+
+	/**
+	 * Get the table as an array of numbers, e.g., for hashing: the number of actions, then the
+	 * number of outcomes of each action followed by its dx, dy, and kind of each outcome.
+	 * @return	The table.
+	 */
+	public int[] toArray() {
+		int table[] = new int[1 + m + 3 * kinds.length];
+		int j = 0;
+		table[j++] = m;
+		for (int a = 0; a < m; a++) {
+			table[j++] = offsets[a + 1] - offsets[a];
+			for (int k = offsets[a]; k < offsets[a + 1]; k++) {
+				table[j++] = dx[k];
+				table[j++] = dy[k];
+				table[j++] = kinds[k];
+			}
+		}
+		return table;
+	}
+
+	/**
+	 * Create an action model from the table of toArray, e.g., as saved with a model.
+	 * @param	name	The name of the model.
+	 * @param	table	The table.
+	 * @return	The action model, or null if the table is invalid.
+	 */
+	public static GridActionModel fromArray(String name, int table[]) {
+		GridActionModel model = new GridActionModel(name);
+
+		int j = 0;
+		int numActions = (table.length > 0 ? table[j++] : -1);
+		for (int a = 0; a < numActions; a++) {
+			int k = (j < table.length ? table[j++] : -1);
+			if (k < 0 || k > (table.length - j) / 3) {
+				break;
+			}
+
+			int actionDx[] = new int[k];
+			int actionDy[] = new int[k];
+			int actionKinds[] = new int[k];
+			for (int i = 0; i < k; i++) {
+				actionDx[i] = table[j++];
+				actionDy[i] = table[j++];
+				actionKinds[i] = table[j++];
+			}
+			if (model.addAction(actionDx, actionDy, actionKinds) < 0) {
+				break;
+			}
+		}
+
+		if (numActions <= 0 || model.m != numActions || j != table.length) {
+			System.out.println("Invalid table for the action model '" + name + "'.");
+			return null;
+		}
+
+		return model;
+	}
+
+}
@@ -0,0 +1,293 @@
+/**
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2014 Kyle Hollins Wray, University of Massachusetts
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of
+ *  this software and associated documentation files (the "Software"), to deal in
+ *  the Software without restriction, including without limitation the rights to
+ *  use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ *  the Software, and to permit persons to whom the Software is furnished to do so,
+ *  subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ *  FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ *  IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *  CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.Arrays;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+
+/**
+ * An anytime solver which runs value iteration on a background thread, so that the result can be
+ * watched while it converges and stopped once it is good enough. After a sweep, at most once per
+ * publish interval (and once more at the end), it publishes an immutable snapshot of the values
+ * and policy of every cell. Publishing only copies the values and hands the snapshot to the
+ * listeners, so listeners must return quickly, e.g., by storing it and requesting a repaint.
+ */
+public class GridAnytimeSolver implements Runnable {
+
+	/** The default minimum time between snapshots, in milliseconds. */
+	public static final long DEFAULT_PUBLISH_INTERVAL = 100;
+
+	/** A listener which is handed each snapshot, on the solver thread. */
+	public static interface Listener {
+		public void snapshotPublished(Snapshot snapshot);
+	}
+
+	/** The values and policy of every cell at some point of solving. It is never modified. */
+	public static class Snapshot {
+		/** The width of the grid. */
+		public int width;
+
+		/** The height of the grid. */
+		public int height;
+
+		/** The value of each cell (y * width + x), or NaN for pruned cells. */
+		public double values[];
+
+		/** The action of each cell, or -1 for pruned cells. */
+		public int policy[];
+
+		/** The smallest and largest values, for normalizing. */
+		public double minValue;
+		public double maxValue;
+
+		/** The forward direction of each action, for drawing the policy. */
+		public int actionDx[];
+		public int actionDy[];
+
+		/** The number of sweeps so far. */
+		public int iterations;
+
+		/** The residual of the last sweep. */
+		public double residual;
+
+		/** True if this is the last snapshot: solving converged or was stopped. */
+		public boolean done;
+	}
+
+	/** The model to solve. */
+	private GridMarkov model;
+
+	/** The solver, which only the solver thread touches. */
+	private GridValueIteration solver;
+
+	/** The discount factor. */
+	private double gamma;
+
+	/** The convergence criterion on the residual. */
+	private double convergenceCriterion;
+
+	/** The minimum time between snapshots, in milliseconds. */
+	private long publishInterval;
+
+	/** The listeners of the snapshots. */
+	private CopyOnWriteArrayList<Listener> listeners;
+
+	/** The latest snapshot, or null if none has been published yet. */
+	private volatile Snapshot snapshot;
+
+	/** Set to ask the solver thread to stop after its current sweep. */
+	private volatile boolean stopRequested;
+
+	/** The solver thread, or null if it was never started. */
+	private Thread thread;
+
+	/**
+	 * The constructor for the GridAnytimeSolver class.
+	 * @param	model	The model, created from a grid, to solve.
+	 */
+	public GridAnytimeSolver(GridMarkov model) {
+		this.model = model;
+		this.solver = new GridValueIteration(model);
+		this.gamma = model.getDiscountFactor();
+		this.convergenceCriterion = 0.0;
+		this.publishInterval = DEFAULT_PUBLISH_INTERVAL;
+		this.listeners = new CopyOnWriteArrayList<Listener>();
+		this.snapshot = null;
+		this.stopRequested = false;
+		this.thread = null;
+	}
+
+	/**
+	 * Set the minimum time between snapshots.
+	 * @param	publishInterval		The interval in milliseconds.
+	 */
+	public void setPublishInterval(long publishInterval) {
+		this.publishInterval = publishInterval;
+	}
+
+	/**
+	 * Add a listener of the snapshots.
+	 * @param	listener	The listener.
+	 */
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Remove a listener of the snapshots.
+	 * @param	listener	The listener.
+	 */
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Start solving on a background (daemon) thread. A solver can only be started once.
+	 * @param	gamma		The discount factor on [0, 1].
+	 * @param	epsilon		The tolerance for convergence.
+	 */
+	public synchronized void start(double gamma, double epsilon) {
+		if (thread != null) {
+			return;
+		}
+
+		this.gamma = gamma;
+		this.convergenceCriterion = epsilon;
+		if (gamma < 1.0) {
+			this.convergenceCriterion *= (1.0 - gamma) / gamma;
+		}
+
+		thread = new Thread(this, "GridAnytimeSolver");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Ask the solver to stop after its current sweep. This does not wait for it.
+	 */
+	public void stop() {
+		stopRequested = true;
+	}
+
+	/**
+	 * Check if the solver thread is still running.
+	 * @return	True or false.
+	 */
+	public synchronized boolean isRunning() {
+		return (thread != null && thread.isAlive());
+	}
+
+	/**
+	 * Wait for the solver thread to finish.
+	 * @throws	InterruptedException	If interrupted while waiting.
+	 */
+	public void join() throws InterruptedException {
+		Thread t;
+		synchronized (this) {
+			t = thread;
+		}
+		if (t != null) {
+			t.join();
+		}
+	}
+
+	/**
+	 * Get the latest snapshot.
+	 * @return	The snapshot, or null if none has been published yet.
+	 */
+	public Snapshot getSnapshot() {
+		return snapshot;
+	}
+
+	@Override
+	public void run() {
+		long lastPublish = System.nanoTime();
+		int iterations = 0;
+		double residual = Double.POSITIVE_INFINITY;
+
+		while (!stopRequested && residual > convergenceCriterion) {
+			residual = solver.sweep(gamma);
+			iterations++;
+
+			long now = System.nanoTime();
+			if ((now - lastPublish) / 1000000L >= publishInterval) {
+				publish(iterations, residual, false);
+				lastPublish = now;
+			}
+		}
+
+		publish(iterations, residual, true);
+	}
+
+	/**
+	 * Copy the current values and policy into a new snapshot and hand it to the listeners.
+	 * @param	iterations	The number of sweeps so far.
+	 * @param	residual	The residual of the last sweep.
+	 * @param	done		True if this is the last snapshot.
+	 */
+	private void publish(int iterations, double residual, boolean done) {
+		Snapshot next = createSnapshot(model, solver, iterations, residual, done);
+
+		snapshot = next;
+		for (Listener listener : listeners) {
+			listener.snapshotPublished(next);
+		}
+	}
+
+	/**
+	 * Copy the values and policy of a solver into a new snapshot of every cell.
+	 * @param	model		The model, created from a grid.
+	 * @param	solver		The solver of the model.
+	 * @param	iterations	The number of sweeps so far.
+	 * @param	residual	The residual of the last sweep.
+	 * @param	done		True if this is the last snapshot.
+	 * @return	The snapshot.
+	 */
+	static Snapshot createSnapshot(GridMarkov model, GridValueIteration solver, int iterations, double residual, boolean done) {
+		int w = model.getGridWidth();
+		int h = model.getGridHeight();
+		int pi[] = solver.getPolicy();
+
+		Snapshot next = new Snapshot();
+		next.width = w;
+		next.height = h;
+		next.values = new double[w * h];
+		next.policy = new int[w * h];
+		next.minValue = Double.POSITIVE_INFINITY;
+		next.maxValue = Double.NEGATIVE_INFINITY;
+		next.iterations = iterations;
+		next.residual = residual;
+		next.done = done;
+
+		Arrays.fill(next.values, Double.NaN);
+		Arrays.fill(next.policy, -1);
+
+		for (int s = 0; s < model.getNumStates(); s++) {
+			int c = model.getStateCell(s);
+			if (c < 0) {
+				continue; // The terminal state.
+			}
+
+			double value = solver.getValue(s);
+			next.values[c] = value;
+			next.policy[c] = pi[s];
+			next.minValue = Math.min(next.minValue, value);
+			next.maxValue = Math.max(next.maxValue, value);
+		}
+
+		int m = model.getNumActions();
+		next.actionDx = new int[m];
+		next.actionDy = new int[m];
+		GridActionModel actionModel = model.getActionModel();
+		if (actionModel != null) {
+			int offsets[] = actionModel.getOffsets();
+			for (int a = 0; a < m; a++) {
+				next.actionDx[a] = actionModel.getDx()[offsets[a]];
+				next.actionDy[a] = actionModel.getDy()[offsets[a]];
+			}
+		}
+
+		return next;
+	}
+
+}
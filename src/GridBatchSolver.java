@@ -0,0 +1,535 @@
+/**
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2014 Kyle Hollins Wray, University of Massachusetts
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of
+ *  this software and associated documentation files (the "Software"), to deal in
+ *  the Software without restriction, including without limitation the rights to
+ *  use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ *  the Software, and to permit persons to whom the Software is furnished to do so,
+ *  subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ *  FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ *  IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *  CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+/**
+ * A batch solver of one model under several settings of the discount factor, horizon, and
+ * tolerance at once, e.g., to compare their policies. The settings are solved together by
+ * synchronous value iteration: each backup reads the successors and probabilities of a state-action
+ * pair once and applies them to the values of every setting, which are interleaved per state so
+ * they share the same cache lines. A setting with a horizon stops after that many backups from
+ * zero (backward induction, as GridFiniteHorizonSolver), or earlier once it converges; one without
+ * stops once it converges. Either is stopped at a limit on backups, and then is not converged.
+ * Finished settings drop out of the batch. The states of each backup are split into blocks backed
+ * up in parallel. The model is only read, so it can be a snapshot shared with other solvers (see
+ * GridMarkov.snapshot).
+ */
+public class GridBatchSolver {
+
+	/** Split the states of a backup into this many blocks per thread, to balance the load. */
+	private static final int BLOCKS_PER_THREAD = 4;
+
+	/** The default limit on the number of backups of a solve. */
+	public static final int DEFAULT_MAX_ITERATIONS = 100000;
+
+	/** The model to solve. */
+	private GridMarkov model;
+
+	/** The number of threads backing up states at once. */
+	private int numThreads;
+
+	/** The limit on the number of backups of a solve; settings still unfinished then are stopped. */
+	private int maxIterations;
+
+	/** The value of each state, for each setting of the last solve. */
+	private double values[][];
+
+	/** The policy (action) of each state, for each setting of the last solve. */
+	private int policies[][];
+
+	/** The number of backups of each setting of the last solve. */
+	private int iterations[];
+
+	/** The largest change in value during the final backup of each setting of the last solve. */
+	private double residuals[];
+
+	/** True for each setting of the last solve which converged or reached its horizon. */
+	private boolean converged[];
+
+	/** A setting to solve the model with. */
+	public static class Setting {
+		/** The discount factor on [0, 1]. */
+		public final double gamma;
+
+		/** The horizon, or 0 to solve until convergence. */
+		public final int horizon;
+
+		/** The tolerance for convergence. */
+		public final double epsilon;
+
+		/**
+		 * The constructor for the Setting class.
+		 * @param	gamma		The discount factor on [0, 1].
+		 * @param	horizon		The horizon, or 0 to solve until convergence.
+		 * @param	epsilon		The tolerance for convergence.
+		 */
+		public Setting(double gamma, int horizon, double epsilon) {
+			this.gamma = gamma;
+			this.horizon = horizon;
+			this.epsilon = epsilon;
+		}
+	}
+
+	/**
+	 * The constructor for the GridBatchSolver class.
+	 * @param	model	The created model to solve.
+	 */
+	public GridBatchSolver(GridMarkov model) {
+		this.model = model;
+		this.numThreads = Runtime.getRuntime().availableProcessors();
+		this.maxIterations = DEFAULT_MAX_ITERATIONS;
+		this.values = null;
+		this.policies = null;
+		this.iterations = null;
+		this.residuals = null;
+		this.converged = null;
+	}
+
+	/**
+	 * Set the number of threads backing up states at once.
+	 * @param	numThreads	The number of threads; the default is the number of processors.
+	 */
+	public void setNumThreads(int numThreads) {
+		this.numThreads = Math.max(1, numThreads);
+	}
+
+	/**
+	 * Set the limit on the number of backups of a solve. A setting which has neither converged nor
+	 * reached its horizon by then is stopped and reported as not converged (see isConverged), e.g.,
+	 * an SSP with a discount factor of 1 whose goal is unreachable, which never converges.
+	 * @param	maxIterations	The limit; the default is DEFAULT_MAX_ITERATIONS.
+	 */
+	public void setMaxIterations(int maxIterations) {
+		this.maxIterations = Math.max(1, maxIterations);
+	}
+
+	/**
+	 * Solve the model under every setting at once. Rewards are maximized for an MDP, and costs are
+	 * minimized for an SSP. The results of each setting are then available by its index; a setting
+	 * stopped by the limit on backups has its last values and policy, and is not converged.
+	 * @param	settings	The settings.
+	 * @return	The success of solving.
+	 */
+	public boolean solve(Setting settings[]) {
+		final int n = model.getNumStates();
+		int numSettings = settings.length;
+
+		values = new double[numSettings][];
+		policies = new int[numSettings][];
+		iterations = new int[numSettings];
+		residuals = new double[numSettings];
+		converged = new boolean[numSettings];
+
+		// The settings still being solved, whose values are interleaved: value k of state s is
+		// at s * numActive + k, and so is its action.
+		int active[] = new int[numSettings];
+		for (int k = 0; k < numSettings; k++) {
+			active[k] = k;
+		}
+		int numActive = numSettings;
+
+		double previous[] = new double[n * numActive];
+		double next[] = new double[n * numActive];
+		byte policy[] = new byte[n * numActive];
+
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+
+		try {
+			int numBlocks = (numThreads == 1 ? 1 : Math.min(n, numThreads * BLOCKS_PER_THREAD));
+
+			for (int t = 1; numActive > 0; t++) {
+				final double gammas[] = new double[numActive];
+				for (int k = 0; k < numActive; k++) {
+					gammas[k] = settings[active[k]].gamma;
+				}
+
+				final double current[] = previous;
+				final double updated[] = next;
+				final byte actions[] = policy;
+
+				double residual[] = null;
+				if (numBlocks == 1) {
+					residual = backup(0, n, gammas, current, updated, actions);
+				} else {
+					ArrayList<Callable<double[]>> tasks = new ArrayList<Callable<double[]>>();
+					for (int b = 0; b < numBlocks; b++) {
+						final int start = (int)((long)b * n / numBlocks);
+						final int end = (int)((long)(b + 1) * n / numBlocks);
+						tasks.add(new Callable<double[]>() {
+							@Override
+							public double[] call() {
+								return backup(start, end, gammas, current, updated, actions);
+							}
+						});
+					}
+
+					residual = new double[numActive];
+					for (Future<double[]> future : executor.invokeAll(tasks)) {
+						double blockResidual[] = future.get();
+						for (int k = 0; k < numActive; k++) {
+							residual[k] = Math.max(residual[k], blockResidual[k]);
+						}
+					}
+				}
+
+				previous = updated;
+				next = current;
+
+				// Record the settings which converged or reached their horizon, and stop every
+				// setting at the limit on backups.
+				boolean finished[] = new boolean[numActive];
+				int numRemaining = numActive;
+				for (int k = 0; k < numActive; k++) {
+					Setting setting = settings[active[k]];
+					double convergenceCriterion = setting.epsilon;
+					if (setting.gamma < 1.0) {
+						convergenceCriterion *= (1.0 - setting.gamma) / setting.gamma;
+					}
+
+					boolean done = (residual[k] <= convergenceCriterion || (setting.horizon > 0 && t >= setting.horizon));
+					finished[k] = (done || t >= maxIterations);
+					if (!finished[k]) {
+						continue;
+					}
+					numRemaining--;
+
+					int index = active[k];
+					values[index] = new double[n];
+					policies[index] = new int[n];
+					for (int s = 0; s < n; s++) {
+						values[index][s] = previous[s * numActive + k];
+						policies[index][s] = policy[s * numActive + k];
+					}
+					iterations[index] = t;
+					residuals[index] = residual[k];
+					converged[index] = done;
+				}
+
+				// Take them out of the batch, keeping the rest interleaved.
+				if (numRemaining < numActive) {
+					double remaining[] = new double[n * numRemaining];
+					int j = 0;
+					for (int k = 0; k < numActive; k++) {
+						if (finished[k]) {
+							continue;
+						}
+						for (int s = 0; s < n; s++) {
+							remaining[s * numRemaining + j] = previous[s * numActive + k];
+						}
+						active[j] = active[k];
+						j++;
+					}
+
+					numActive = numRemaining;
+					previous = remaining;
+					next = new double[n * numActive];
+					policy = new byte[n * numActive];
+				}
+			}
+		} catch (Exception e) {
+			System.out.println("Failed to solve the batch of settings.");
+			e.printStackTrace();
+			return false;
+		} finally {
+			executor.shutdown();
+		}
+
+		return true;
+	}
+
+	/**
+	 * Back up a range of states under every active setting. The successors and probabilities of
+	 * each state are read once into a small row cache, which is then applied to the values of all
+	 * settings; unused slots read state 0 with probability zero, so the loops are branch-free.
+	 * @param	start		The first state.
+	 * @param	end			The state after the last one.
+	 * @param	gammas		The discount factor of each active setting.
+	 * @param	previous	The interleaved values of the previous backup.
+	 * @param	next		The interleaved new values.
+	 * @param	policy		The interleaved new actions.
+	 * @return	The largest change in value of each active setting.
+	 */
+	private double[] backup(int start, int end, double gammas[], double previous[], double next[], byte policy[]) {
+		if (model.getNumActions() == 4 && model.getMaxSuccessors() == 3) {
+			if (gammas.length == 1) {
+				return backup_unrolled_single(start, end, gammas[0], previous, next, policy);
+			}
+			return backup_unrolled(start, end, gammas, previous, next, policy);
+		}
+
+		int m = model.getNumActions();
+		int ns = model.getMaxSuccessors();
+		int S[] = model.getSuccessors();
+		double T[] = model.getProbabilities();
+		byte TCodes[] = model.getProbabilityCodes();
+		double TTable[] = model.getProbabilityTable();
+		double R[] = model.getRewards();
+		boolean ssp = model.isSSP();
+
+		int numActive = gammas.length;
+		int rowOffsets[] = new int[m * ns];
+		double rowProbabilities[] = new double[m * ns];
+		double residual[] = new double[numActive];
+
+		for (int s = start; s < end; s++) {
+			// Cache the row of the state: where each successor's values start, and its probability.
+			for (int j = 0, i = s * m * ns; j < m * ns; j++, i++) {
+				if (S[i] >= 0) {
+					rowOffsets[j] = S[i] * numActive;
+					rowProbabilities[j] = (T != null ? T[i] : TTable[TCodes[i] & 0xFF]);
+				} else {
+					rowOffsets[j] = 0;
+					rowProbabilities[j] = 0.0;
+				}
+			}
+
+			int offset = s * numActive;
+			for (int k = 0; k < numActive; k++) {
+				double best = 0.0;
+				int bestAction = 0;
+
+				for (int a = 0, j = 0; a < m; a++) {
+					double Q = 0.0;
+					for (int jEnd = j + ns; j < jEnd; j++) {
+						Q += rowProbabilities[j] * previous[rowOffsets[j] + k];
+					}
+
+					if (a == 0 || (ssp ? Q < best : Q > best)) {
+						best = Q;
+						bestAction = a;
+					}
+				}
+
+				double value = R[s] + gammas[k] * best;
+				residual[k] = Math.max(residual[k], Math.abs(value - previous[offset + k]));
+				next[offset + k] = value;
+				policy[offset + k] = (byte)bestAction;
+			}
+		}
+
+		return residual;
+	}
+
+	/**
+	 * Back up a range of states under every active setting, for models with four actions of three
+	 * successor slots each (the grid's own actions). The row of each state is held in locals, and
+	 * the twelve products of each setting are independent, as in GridValueIteration's unrolled kernel.
+	 * @param	start		The first state.
+	 * @param	end			The state after the last one.
+	 * @param	gammas		The discount factor of each active setting.
+	 * @param	previous	The interleaved values of the previous backup.
+	 * @param	next		The interleaved new values.
+	 * @param	policy		The interleaved new actions.
+	 * @return	The largest change in value of each active setting.
+	 */
+	private double[] backup_unrolled(int start, int end, double gammas[], double previous[], double next[], byte policy[]) {
+		int S[] = model.getSuccessors();
+		double T[] = model.getProbabilities();
+		byte TCodes[] = model.getProbabilityCodes();
+		double TTable[] = model.getProbabilityTable();
+		double R[] = model.getRewards();
+		boolean ssp = model.isSSP();
+
+		int numActive = gammas.length;
+		double residual[] = new double[numActive];
+
+		for (int s = start; s < end; s++) {
+			// Unused slots have probability zero with either storage.
+			int i = s * 12;
+			double p0 = probability(T, TCodes, TTable, i), p1 = probability(T, TCodes, TTable, i + 1);
+			double p2 = probability(T, TCodes, TTable, i + 2), p3 = probability(T, TCodes, TTable, i + 3);
+			double p4 = probability(T, TCodes, TTable, i + 4), p5 = probability(T, TCodes, TTable, i + 5);
+			double p6 = probability(T, TCodes, TTable, i + 6), p7 = probability(T, TCodes, TTable, i + 7);
+			double p8 = probability(T, TCodes, TTable, i + 8), p9 = probability(T, TCodes, TTable, i + 9);
+			double p10 = probability(T, TCodes, TTable, i + 10), p11 = probability(T, TCodes, TTable, i + 11);
+			int o0 = Math.max(S[i], 0) * numActive, o1 = Math.max(S[i + 1], 0) * numActive, o2 = Math.max(S[i + 2], 0) * numActive;
+			int o3 = Math.max(S[i + 3], 0) * numActive, o4 = Math.max(S[i + 4], 0) * numActive, o5 = Math.max(S[i + 5], 0) * numActive;
+			int o6 = Math.max(S[i + 6], 0) * numActive, o7 = Math.max(S[i + 7], 0) * numActive, o8 = Math.max(S[i + 8], 0) * numActive;
+			int o9 = Math.max(S[i + 9], 0) * numActive, o10 = Math.max(S[i + 10], 0) * numActive, o11 = Math.max(S[i + 11], 0) * numActive;
+
+			int offset = s * numActive;
+			for (int k = 0; k < numActive; k++) {
+				double Q0 = p0 * previous[o0 + k] + p1 * previous[o1 + k] + p2 * previous[o2 + k];
+				double Q1 = p3 * previous[o3 + k] + p4 * previous[o4 + k] + p5 * previous[o5 + k];
+				double Q2 = p6 * previous[o6 + k] + p7 * previous[o7 + k] + p8 * previous[o8 + k];
+				double Q3 = p9 * previous[o9 + k] + p10 * previous[o10 + k] + p11 * previous[o11 + k];
+
+				// Pick the best action, keeping the first one on ties like the scalar kernel.
+				double best = Q0;
+				int bestAction = 0;
+				if (ssp ? Q1 < best : Q1 > best) {
+					best = Q1;
+					bestAction = 1;
+				}
+				if (ssp ? Q2 < best : Q2 > best) {
+					best = Q2;
+					bestAction = 2;
+				}
+				if (ssp ? Q3 < best : Q3 > best) {
+					best = Q3;
+					bestAction = 3;
+				}
+
+				double value = R[s] + gammas[k] * best;
+				residual[k] = Math.max(residual[k], Math.abs(value - previous[offset + k]));
+				next[offset + k] = value;
+				policy[offset + k] = (byte)bestAction;
+			}
+		}
+
+		return residual;
+	}
+
+	/**
+	 * Back up a range of states under the last active setting, once the others are finished, for
+	 * models with four actions of three successor slots each. This is backup_unrolled without the
+	 * loop over settings, kept apart so each is compiled for its own case.
+	 * @param	start		The first state.
+	 * @param	end			The state after the last one.
+	 * @param	gamma		The discount factor of the setting.
+	 * @param	previous	The values of the previous backup.
+	 * @param	next		The new values.
+	 * @param	policy		The new actions.
+	 * @return	The largest change in value, as an array of one.
+	 */
+	private double[] backup_unrolled_single(int start, int end, double gamma, double previous[], double next[], byte policy[]) {
+		int S[] = model.getSuccessors();
+		double T[] = model.getProbabilities();
+		byte TCodes[] = model.getProbabilityCodes();
+		double TTable[] = model.getProbabilityTable();
+		double R[] = model.getRewards();
+		boolean ssp = model.isSSP();
+
+		double residual = 0.0;
+
+		for (int s = start, i = start * 12; s < end; s++, i += 12) {
+			double Q0 = probability(T, TCodes, TTable, i) * previous[Math.max(S[i], 0)]
+					+ probability(T, TCodes, TTable, i + 1) * previous[Math.max(S[i + 1], 0)]
+					+ probability(T, TCodes, TTable, i + 2) * previous[Math.max(S[i + 2], 0)];
+			double Q1 = probability(T, TCodes, TTable, i + 3) * previous[Math.max(S[i + 3], 0)]
+					+ probability(T, TCodes, TTable, i + 4) * previous[Math.max(S[i + 4], 0)]
+					+ probability(T, TCodes, TTable, i + 5) * previous[Math.max(S[i + 5], 0)];
+			double Q2 = probability(T, TCodes, TTable, i + 6) * previous[Math.max(S[i + 6], 0)]
+					+ probability(T, TCodes, TTable, i + 7) * previous[Math.max(S[i + 7], 0)]
+					+ probability(T, TCodes, TTable, i + 8) * previous[Math.max(S[i + 8], 0)];
+			double Q3 = probability(T, TCodes, TTable, i + 9) * previous[Math.max(S[i + 9], 0)]
+					+ probability(T, TCodes, TTable, i + 10) * previous[Math.max(S[i + 10], 0)]
+					+ probability(T, TCodes, TTable, i + 11) * previous[Math.max(S[i + 11], 0)];
+
+			double best = Q0;
+			int bestAction = 0;
+			if (ssp ? Q1 < best : Q1 > best) {
+				best = Q1;
+				bestAction = 1;
+			}
+			if (ssp ? Q2 < best : Q2 > best) {
+				best = Q2;
+				bestAction = 2;
+			}
+			if (ssp ? Q3 < best : Q3 > best) {
+				best = Q3;
+				bestAction = 3;
+			}
+
+			double value = R[s] + gamma * best;
+			residual = Math.max(residual, Math.abs(value - previous[s]));
+			next[s] = value;
+			policy[s] = (byte)bestAction;
+		}
+
+		return new double[] { residual };
+	}
+
+	/**
+	 * Get the probability of a successor slot, with either storage.
+	 * @param	T		The probabilities, or null with compact storage.
+	 * @param	TCodes	The probability codes of compact storage.
+	 * @param	TTable	The probability table of compact storage.
+	 * @param	i		The index of the slot.
+	 * @return	The probability.
+	 */
+	private static double probability(double T[], byte TCodes[], double TTable[], int i) {
+		return (T != null ? T[i] : TTable[TCodes[i] & 0xFF]);
+	}
+
+	/**
+	 * Get the number of settings of the last solve.
+	 * @return	The number of settings.
+	 */
+	public int getNumSettings() {
+		return (values != null ? values.length : 0);
+	}
+
+	/**
+	 * Get the values of a setting of the last solve.
+	 * @param	k	The index of the setting.
+	 * @return	The value of each state.
+	 */
+	public double[] getValues(int k) {
+		return values[k];
+	}
+
+	/**
+	 * Get the policy of a setting of the last solve.
+	 * @param	k	The index of the setting.
+	 * @return	The policy (action) of each state.
+	 */
+	public int[] getPolicy(int k) {
+		return policies[k];
+	}
+
+	/**
+	 * Get the number of backups of a setting of the last solve.
+	 * @param	k	The index of the setting.
+	 * @return	The number of backups.
+	 */
+	public int getIterations(int k) {
+		return iterations[k];
+	}
+
+	/**
+	 * Get the largest change in value during the final backup of a setting of the last solve.
+	 * @param	k	The index of the setting.
+	 * @return	The residual.
+	 */
+	public double getResidual(int k) {
+		return residuals[k];
+	}
+
+	/**
+	 * Get if a setting of the last solve converged or reached its horizon, rather than being stopped
+	 * by the limit on backups (see setMaxIterations).
+	 * @param	k	The index of the setting.
+	 * @return	True if it converged or reached its horizon, false if it was stopped.
+	 */
+	public boolean isConverged(int k) {
+		return converged[k];
+	}
+
+}
@@ -0,0 +1,498 @@
+/**
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2014 Kyle Hollins Wray, University of Massachusetts
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of
+ *  this software and associated documentation files (the "Software"), to deal in
+ *  the Software without restriction, including without limitation the rights to
+ *  use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ *  the Software, and to permit persons to whom the Software is furnished to do so,
+ *  subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ *  FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ *  IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *  CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.Arrays;
+import java.util.Random;
+
+
+/**
+ * Tracks the beliefs of many simulated robots executing in a POMDP created by GridMarkov. After
+ * each action and observation, a robot's belief is updated either exactly, by a Bayes update over
+ * only the states it believes possible, or approximately, by a particle filter which resamples
+ * when too few particles carry the weight. The latency of every update is recorded.
+ */
+public class GridBeliefTracker {
+
+	/** The modes of updating beliefs. */
+	public static final int EXACT = 0;
+	public static final int PARTICLE = 1;
+
+	/** The model, which must have observations. */
+	private GridMarkov model;
+
+	/** The mode of updating beliefs. */
+	private int mode;
+
+	/** The number of particles of each robot, in the particle mode. */
+	private int numParticles;
+
+	/** Resample when the effective number of particles falls below this fraction of them. */
+	private double resampleThreshold;
+
+	private Random random;
+
+	/** The number of robots. */
+	private int numRobots;
+
+	/** The states of each robot's belief with non-zero probability, in the exact mode. */
+	private int beliefStates[][];
+
+	/** The probabilities of those states, in the exact mode. */
+	private double beliefProbabilities[][];
+
+	/** The state of each robot's particles, in the particle mode. */
+	private int particles[][];
+
+	/** The normalized weight of each robot's particles, in the particle mode. */
+	private double weights[][];
+
+	/**
+	 * Scratch space over the states for the exact update, and the states touched in it. A state
+	 * is marked when first touched, since its probability may stay zero.
+	 */
+	private double scratch[];
+	private boolean marked[];
+	private int touched[];
+	private int numTouched;
+
+	/** The latency of each update, in nanoseconds. */
+	private long latencies[];
+	private int numLatencies;
+
+	/**
+	 * The constructor for the GridBeliefTracker class.
+	 * @param	model	The created POMDP.
+	 * @param	mode	The mode of updating beliefs: EXACT or PARTICLE.
+	 */
+	public GridBeliefTracker(GridMarkov model, int mode) {
+		this.model = model;
+		this.mode = mode;
+		this.numParticles = 100;
+		this.resampleThreshold = 0.5;
+		this.random = new Random(0);
+		this.numRobots = 0;
+
+		this.scratch = new double[model.getNumStates()];
+		this.marked = new boolean[model.getNumStates()];
+		this.touched = new int[model.getNumStates()];
+		this.numTouched = 0;
+
+		this.latencies = new long[1024];
+		this.numLatencies = 0;
+	}
+
+	/**
+	 * Set the number of particles of each robot, in the particle mode. Takes effect at the next reset.
+	 * @param	numParticles	The number of particles.
+	 */
+	public void setNumParticles(int numParticles) {
+		this.numParticles = Math.max(1, numParticles);
+	}
+
+	/**
+	 * Set when to resample, in the particle mode.
+	 * @param	resampleThreshold	The fraction of particles on [0, 1] below which the effective number triggers resampling.
+	 */
+	public void setResampleThreshold(double resampleThreshold) {
+		this.resampleThreshold = resampleThreshold;
+	}
+
+	/**
+	 * Set the seed of the random number generator used for particles and simulation.
+	 * @param	seed	The seed.
+	 */
+	public void setSeed(long seed) {
+		random = new Random(seed);
+	}
+
+	/**
+	 * Reset the robots, each certain to be in the initial state.
+	 * @param	numRobots		The number of robots.
+	 * @param	initialState	The initial state.
+	 */
+	public void reset(int numRobots, int initialState) {
+		this.numRobots = numRobots;
+		this.numLatencies = 0;
+
+		if (mode == EXACT) {
+			beliefStates = new int[numRobots][];
+			beliefProbabilities = new double[numRobots][];
+			for (int k = 0; k < numRobots; k++) {
+				beliefStates[k] = new int[] {initialState};
+				beliefProbabilities[k] = new double[] {1.0};
+			}
+			particles = null;
+			weights = null;
+		} else {
+			particles = new int[numRobots][numParticles];
+			weights = new double[numRobots][numParticles];
+			for (int k = 0; k < numRobots; k++) {
+				Arrays.fill(particles[k], initialState);
+				Arrays.fill(weights[k], 1.0 / numParticles);
+			}
+			beliefStates = null;
+			beliefProbabilities = null;
+		}
+	}
+
+	/**
+	 * Update a robot's belief after an action and an observation.
+	 * @param	k	The robot.
+	 * @param	a	The action taken.
+	 * @param	o	The observation received.
+	 * @return	False if the observation was impossible under the belief, which is then only predicted.
+	 */
+	public boolean update(int k, int a, int o) {
+		long start = System.nanoTime();
+
+		boolean consistent;
+		if (mode == EXACT) {
+			consistent = update_exact(k, a, o);
+		} else {
+			consistent = update_particles(k, a, o);
+		}
+
+		if (numLatencies == latencies.length) {
+			latencies = Arrays.copyOf(latencies, 2 * latencies.length);
+		}
+		latencies[numLatencies++] = System.nanoTime() - start;
+
+		return consistent;
+	}
+
+	/**
+	 * Update a robot's belief exactly: b'(s') is proportional to O(o | s') times the sum over s of
+	 * T(s' | s, a) b(s), where only the successors of the states in the belief are visited.
+	 * @param	k	The robot.
+	 * @param	a	The action taken.
+	 * @param	o	The observation received.
+	 * @return	False if the observation was impossible under the belief.
+	 */
+	private boolean update_exact(int k, int a, int o) {
+		int S[] = model.getSuccessors();
+		int m = model.getNumActions();
+		int ns = model.getMaxSuccessors();
+
+		// Predict.
+		numTouched = 0;
+		int states[] = beliefStates[k];
+		double probabilities[] = beliefProbabilities[k];
+		for (int j = 0; j < states.length; j++) {
+			for (int i = (states[j] * m + a) * ns; i < (states[j] * m + a + 1) * ns; i++) {
+				int sp = S[i];
+				if (sp < 0) {
+					continue;
+				}
+				if (!marked[sp]) {
+					marked[sp] = true;
+					touched[numTouched++] = sp;
+				}
+				scratch[sp] += model.getProbability(i) * probabilities[j];
+			}
+		}
+
+		// Correct.
+		double total = 0.0;
+		for (int j = 0; j < numTouched; j++) {
+			total += scratch[touched[j]] * model.getObservationProbability(touched[j], o);
+		}
+		boolean consistent = (total > 0.0);
+
+		int support = 0;
+		for (int j = 0; j < numTouched; j++) {
+			int sp = touched[j];
+			if (consistent) {
+				scratch[sp] *= model.getObservationProbability(sp, o) / total;
+			}
+			if (scratch[sp] > 0.0) {
+				support++;
+			}
+		}
+
+		// Keep the states with non-zero probability, in increasing order, and clear the scratch space.
+		Arrays.sort(touched, 0, numTouched);
+		int newStates[] = new int[support];
+		double newProbabilities[] = new double[support];
+		int count = 0;
+		for (int j = 0; j < numTouched; j++) {
+			int sp = touched[j];
+			if (scratch[sp] > 0.0) {
+				newStates[count] = sp;
+				newProbabilities[count] = scratch[sp];
+				count++;
+			}
+			scratch[sp] = 0.0;
+			marked[sp] = false;
+		}
+
+		beliefStates[k] = newStates;
+		beliefProbabilities[k] = newProbabilities;
+
+		return consistent;
+	}
+
+	/**
+	 * Update a robot's belief with its particles: each moves to a sampled successor and is
+	 * weighted by the observation's probability there. The particles are resampled when the
+	 * effective number of them falls below the threshold.
+	 * @param	k	The robot.
+	 * @param	a	The action taken.
+	 * @param	o	The observation received.
+	 * @return	False if the observation was impossible for every particle.
+	 */
+	private boolean update_particles(int k, int a, int o) {
+		int p[] = particles[k];
+		double w[] = weights[k];
+
+		double total = 0.0;
+		for (int j = 0; j < p.length; j++) {
+			p[j] = sample_successor(p[j], a);
+			w[j] *= model.getObservationProbability(p[j], o);
+			total += w[j];
+		}
+
+		boolean consistent = (total > 0.0);
+		if (!consistent) {
+			Arrays.fill(w, 1.0 / p.length);
+			return false;
+		}
+
+		double sumOfSquares = 0.0;
+		for (int j = 0; j < p.length; j++) {
+			w[j] /= total;
+			sumOfSquares += w[j] * w[j];
+		}
+
+		if (1.0 / sumOfSquares < resampleThreshold * p.length) {
+			resample(k);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Resample a robot's particles by systematic resampling, leaving them equally weighted.
+	 * @param	k	The robot.
+	 */
+	private void resample(int k) {
+		int p[] = particles[k];
+		double w[] = weights[k];
+		int resampled[] = new int[p.length];
+
+		double step = 1.0 / p.length;
+		double u = random.nextDouble() * step;
+		double cumulative = w[0];
+		int j = 0;
+		for (int i = 0; i < p.length; i++) {
+			while (u > cumulative && j < p.length - 1) {
+				j++;
+				cumulative += w[j];
+			}
+			resampled[i] = p[j];
+			u += step;
+		}
+
+		particles[k] = resampled;
+		Arrays.fill(w, step);
+	}
+
+	/**
+	 * Sample a successor of a state-action pair.
+	 * @param	s	The state.
+	 * @param	a	The action.
+	 * @return	The successor.
+	 */
+	private int sample_successor(int s, int a) {
+		int S[] = model.getSuccessors();
+		int start = (s * model.getNumActions() + a) * model.getMaxSuccessors();
+		int end = start + model.getMaxSuccessors();
+
+		double u = random.nextDouble();
+		int last = s;
+		for (int i = start; i < end; i++) {
+			if (S[i] < 0) {
+				continue;
+			}
+			last = S[i];
+			u -= model.getProbability(i);
+			if (u < 0.0) {
+				return S[i];
+			}
+		}
+		return last; // Rounding.
+	}
+
+	/**
+	 * Sample an observation of reaching a state.
+	 * @param	sp	The state reached.
+	 * @return	The observation.
+	 */
+	private int sample_observation(int sp) {
+		int Z[] = model.getObservations();
+		double O[] = model.getObservationProbabilities();
+		int start = sp * model.getMaxObservations();
+
+		double u = random.nextDouble();
+		int last = Z[start];
+		for (int i = start; i < start + model.getMaxObservations(); i++) {
+			if (Z[i] < 0) {
+				continue;
+			}
+			last = Z[i];
+			u -= O[i];
+			if (u < 0.0) {
+				return Z[i];
+			}
+		}
+		return last; // Rounding.
+	}
+
+	/**
+	 * Get the probability a robot is in a state.
+	 * @param	k	The robot.
+	 * @param	s	The state.
+	 * @return	The probability.
+	 */
+	public double getProbability(int k, int s) {
+		double probability = 0.0;
+		if (mode == EXACT) {
+			int j = Arrays.binarySearch(beliefStates[k], s);
+			if (j >= 0) {
+				probability = beliefProbabilities[k][j];
+			}
+		} else {
+			for (int j = 0; j < particles[k].length; j++) {
+				if (particles[k][j] == s) {
+					probability += weights[k][j];
+				}
+			}
+		}
+		return probability;
+	}
+
+	/**
+	 * Get the state a robot is most likely in.
+	 * @param	k	The robot.
+	 * @return	The most likely state.
+	 */
+	public int getMostLikelyState(int k) {
+		int best = -1;
+		double bestProbability = -1.0;
+
+		if (mode == EXACT) {
+			for (int j = 0; j < beliefStates[k].length; j++) {
+				if (beliefProbabilities[k][j] > bestProbability) {
+					best = beliefStates[k][j];
+					bestProbability = beliefProbabilities[k][j];
+				}
+			}
+		} else {
+			numTouched = 0;
+			for (int j = 0; j < particles[k].length; j++) {
+				int s = particles[k][j];
+				if (!marked[s]) {
+					marked[s] = true;
+					touched[numTouched++] = s;
+				}
+				scratch[s] += weights[k][j];
+			}
+			for (int j = 0; j < numTouched; j++) {
+				if (scratch[touched[j]] > bestProbability) {
+					best = touched[j];
+					bestProbability = scratch[touched[j]];
+				}
+				scratch[touched[j]] = 0.0;
+				marked[touched[j]] = false;
+			}
+		}
+
+		return best;
+	}
+
+	/**
+	 * Simulate the robots from the model's initial state (or state 0 if there is none): each step,
+	 * every robot takes the action of the policy at its most likely state (or a random one), its
+	 * true state and observation are sampled, and its belief is updated.
+	 * @param	numRobots	The number of robots.
+	 * @param	steps		The number of steps.
+	 * @param	policy		The action of each state, e.g., solved on the MDP, or null for random actions.
+	 * @return	The number of robots whose most likely state is their true state at the end.
+	 */
+	public int simulate(int numRobots, int steps, int policy[]) {
+		int initialState = Math.max(0, model.getInitialState());
+		reset(numRobots, initialState);
+
+		int trueStates[] = new int[numRobots];
+		Arrays.fill(trueStates, initialState);
+
+		for (int step = 0; step < steps; step++) {
+			for (int k = 0; k < numRobots; k++) {
+				int a;
+				if (policy != null) {
+					a = policy[getMostLikelyState(k)];
+				} else {
+					a = random.nextInt(model.getNumActions());
+				}
+
+				trueStates[k] = sample_successor(trueStates[k], a);
+				update(k, a, sample_observation(trueStates[k]));
+			}
+		}
+
+		int numCorrect = 0;
+		for (int k = 0; k < numRobots; k++) {
+			if (getMostLikelyState(k) == trueStates[k]) {
+				numCorrect++;
+			}
+		}
+		return numCorrect;
+	}
+
+	/**
+	 * Get a percentile of the latency of the updates since the last reset.
+	 * @param	percentile	The percentile on [0, 100].
+	 * @return	The latency in microseconds.
+	 */
+	public double getLatencyPercentile(double percentile) {
+		if (numLatencies == 0) {
+			return 0.0;
+		}
+
+		long sorted[] = Arrays.copyOf(latencies, numLatencies);
+		Arrays.sort(sorted);
+		int index = (int)Math.min(numLatencies - 1, Math.max(0, Math.ceil(percentile / 100.0 * numLatencies) - 1));
+		return sorted[index] / 1e3;
+	}
+
+	/**
+	 * Print the latency percentiles of the updates since the last reset.
+	 */
+	public void printLatencies() {
+		System.out.println((mode == EXACT ? "Exact" : "Particle") + " belief updates: " + numLatencies + ", latency" +
+				" p50 " + String.format("%.1f", getLatencyPercentile(50.0)) + " us," +
+				" p90 " + String.format("%.1f", getLatencyPercentile(90.0)) + " us," +
+				" p99 " + String.format("%.1f", getLatencyPercentile(99.0)) + " us," +
+				" max " + String.format("%.1f", getLatencyPercentile(100.0)) + " us.");
+	}
+
+}
@@ -0,0 +1,366 @@
+/**
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2014 Kyle Hollins Wray, University of Massachusetts
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of
+ *  this software and associated documentation files (the "Software"), to deal in
+ *  the Software without restriction, including without limitation the rights to
+ *  use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ *  the Software, and to permit persons to whom the Software is furnished to do so,
+ *  subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ *  FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ *  IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *  CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
+
+public class GridBenchmark {
+
+	/** The number of timed sweeps per measurement. */
+	private static final int SWEEPS = 20;
+
+	/** The number of measurements; the best one is reported. */
+	private static final int REPETITIONS = 5;
+
+	/** The discount factor and tolerance of the distributed check. */
+	private static final double DISTRIBUTED_GAMMA = 0.9;
+	private static final double DISTRIBUTED_EPSILON = 1e-6;
+
+	/** The largest difference in value the distributed check allows. */
+	private static final double DISTRIBUTED_TOLERANCE = 1e-4;
+
+	/** The number of robots and steps of the belief check, and its particles per state. */
+	private static final int BELIEF_ROBOTS = 200;
+	private static final int BELIEF_STEPS = 30;
+	private static final int BELIEF_PARTICLES_PER_STATE = 2;
+
+	/** The largest difference from 1 of a belief's total probability the belief check allows. */
+	private static final double BELIEF_TOLERANCE = 1e-9;
+
+	/**
+	 * Run the benchmarks from the command line. With -distributed, instead check that the grid
+	 * solved by that many worker processes agrees with value iteration, and with -beliefs, that
+	 * the belief trackers keep every belief a distribution (see checkBeliefs); either exits with
+	 * status 1 if not.
+	 * @param	args	Optionally -distributed and the number of workers, or -beliefs, then either a
+	 * 					grid world file to load, or the width and height of a random grid.
+	 */
+	public static void main(String[] args) {
+		int numWorkers = 0;
+		boolean beliefs = false;
+		if (args.length > 0 && args[0].equals("-distributed")) {
+			if (args.length < 2) {
+				System.out.println("Usage: GridBenchmark [-distributed <workers> | -beliefs] <grid world file> | <width> <height>");
+				return;
+			}
+			numWorkers = Integer.parseInt(args[1]);
+			args = Arrays.copyOfRange(args, 2, args.length);
+		} else if (args.length > 0 && args[0].equals("-beliefs")) {
+			beliefs = true;
+			args = Arrays.copyOfRange(args, 1, args.length);
+		}
+
+		GridPanel panel = null;
+
+		if (args.length == 1) {
+			panel = new GridPanel(1, 1);
+			if (!panel.loadGrid(new File(args[0]))) {
+				return;
+			}
+		} else if (args.length == 2) {
+			panel = randomGrid(Integer.parseInt(args[0]), Integer.parseInt(args[1]), 0.2, 1);
+		} else {
+			System.out.println("Usage: GridBenchmark [-distributed <workers> | -beliefs] <grid world file> | <width> <height>");
+			return;
+		}
+
+		if (numWorkers > 0) {
+			if (!checkDistributed(panel.getGrid(), numWorkers)) {
+				System.exit(1);
+			}
+			return;
+		}
+		if (beliefs) {
+			if (!checkBeliefs(panel.getGrid())) {
+				System.exit(1);
+			}
+			return;
+		}
+
+		benchmarkBackups(panel.getGrid());
+		benchmarkVariants(panel.getGrid());
+		benchmarkActionModels(panel.getGrid());
+	}
+
+	/**
+	 * Create a random grid with obstacles, a success cell in the bottom right, and an initial
+	 * cell in the top left.
+	 * @param	w			The width of the grid.
+	 * @param	h			The height of the grid.
+	 * @param	density		The probability of each cell being an obstacle.
+	 * @param	seed		The random seed.
+	 * @return	A grid panel holding the grid.
+	 */
+	private static GridPanel randomGrid(int w, int h, double density, long seed) {
+		Random random = new Random(seed);
+
+		GridPanel panel = new GridPanel(w, h);
+		GridCells grid = panel.getGrid();
+		for (int x = 0; x < w; x++) {
+			for (int y = 0; y < h; y++) {
+				if (random.nextDouble() < density) {
+					grid.set(x, y, GridPanel.GridCellType.OBSTACLE);
+				}
+			}
+		}
+		grid.set(0, 0, GridPanel.GridCellType.INITIAL);
+		grid.set(w - 1, h - 1, GridPanel.GridCellType.SUCCESS);
+
+		return panel;
+	}
+
+	/**
+	 * Compare the scalar and unrolled Bellman backup kernels on the SSP of a grid.
+	 * @param 	grid	The grid.
+	 */
+	private static void benchmarkBackups(GridCells grid) {
+		int w = grid.getWidth();
+		int h = grid.getHeight();
+
+		GridMarkov ssp = new GridMarkov();
+		ssp.setCreatePOMDP(false);
+		ssp.create(grid, true);
+
+		GridValueIteration scalar = new GridValueIteration(ssp);
+		scalar.setUnrolledBackups(false);
+
+		GridValueIteration unrolled = new GridValueIteration(ssp);
+		unrolled.setUnrolledBackups(true);
+
+		System.out.println("Bellman backups on the " + w + "x" + h + " SSP (" + ssp.getNumStates() + " states):");
+
+		double scalarTime = Double.MAX_VALUE;
+		double unrolledTime = Double.MAX_VALUE;
+		for (int i = 0; i < REPETITIONS; i++) {
+			scalarTime = Math.min(scalarTime, timeSweeps(scalar, ssp.getDiscountFactor()));
+			unrolledTime = Math.min(unrolledTime, timeSweeps(unrolled, ssp.getDiscountFactor()));
+		}
+
+		System.out.println("  Scalar:   " + String.format("%.2f", scalarTime) + " ms/sweep");
+		System.out.println("  Unrolled: " + String.format("%.2f", unrolledTime) + " ms/sweep" +
+				(unrolled.isUnrolledBackups() ? "" : " (not applicable, used scalar)"));
+		System.out.println("  Speedup:  " + String.format("%.2f", scalarTime / unrolledTime) + "x");
+	}
+
+	/**
+	 * Compare creating the MDP of a grid from scratch to creating a parameter variant of it.
+	 * @param 	grid	The grid.
+	 */
+	private static void benchmarkVariants(GridCells grid) {
+		int w = grid.getWidth();
+		int h = grid.getHeight();
+
+		GridMarkovParameters parameters = new GridMarkovParameters();
+		parameters.forwardProbability = 0.7;
+		parameters.deviateProbability = 0.15;
+
+		double createTime = Double.MAX_VALUE;
+		double variantTime = Double.MAX_VALUE;
+		for (int i = 0; i < REPETITIONS; i++) {
+			GridMarkov mdp = new GridMarkov();
+			mdp.setCreatePOMDP(false);
+
+			long start = System.nanoTime();
+			mdp.create(grid, false);
+			createTime = Math.min(createTime, (System.nanoTime() - start) / 1e6);
+
+			start = System.nanoTime();
+			mdp.createVariant(parameters);
+			variantTime = Math.min(variantTime, (System.nanoTime() - start) / 1e6);
+		}
+
+		System.out.println("Model creation on the " + w + "x" + h + " MDP:");
+		System.out.println("  Create:   " + String.format("%.2f", createTime) + " ms");
+		System.out.println("  Variant:  " + String.format("%.2f", variantTime) + " ms");
+		System.out.println("  Fraction: " + String.format("%.2f", variantTime / createTime));
+	}
+
+	/**
+	 * Compare creating and sweeping the SSP of a grid with each of the shipped action models.
+	 * Sweep throughput is reported per state-action pair, so models with more actions compare.
+	 * @param 	grid	The grid.
+	 */
+	private static void benchmarkActionModels(GridCells grid) {
+		GridActionModel actionModels[] = {
+			GridActionModel.createFourConnected(false), GridActionModel.createFourConnected(true),
+			GridActionModel.createEightConnected(false), GridActionModel.createEightConnected(true)
+		};
+
+		System.out.println("Action models on the " + grid.getWidth() + "x" + grid.getHeight() + " SSP:");
+
+		for (GridActionModel actionModel : actionModels) {
+			double createTime = Double.MAX_VALUE;
+			double sweepTime = Double.MAX_VALUE;
+			GridMarkov ssp = null;
+			for (int i = 0; i < REPETITIONS; i++) {
+				ssp = new GridMarkov();
+				ssp.setCreatePOMDP(false);
+				ssp.setActionModel(actionModel);
+
+				long start = System.nanoTime();
+				ssp.create(grid, true);
+				createTime = Math.min(createTime, (System.nanoTime() - start) / 1e6);
+
+				sweepTime = Math.min(sweepTime, timeSweeps(new GridValueIteration(ssp), ssp.getDiscountFactor()));
+			}
+
+			double pairs = (double)ssp.getNumStates() * ssp.getNumActions();
+			System.out.println("  " + String.format("%-17s", actionModel.getName() + ":") +
+					String.format("%.2f", createTime) + " ms create, " +
+					String.format("%.2f", sweepTime) + " ms/sweep, " +
+					String.format("%.1f", pairs / sweepTime / 1e3) + "M state-actions/s");
+		}
+	}
+
+	/**
+	 * Check that GridDistributedSolver, with worker processes on this machine, agrees with
+	 * GridValueIteration on both the MDP and the SSP of a grid, and compare their times.
+	 * @param 	grid		The grid.
+	 * @param	numWorkers	The number of worker processes.
+	 * @return	True if the value of every cell agrees, false otherwise.
+	 */
+	private static boolean checkDistributed(GridCells grid, int numWorkers) {
+		int w = grid.getWidth();
+		int h = grid.getHeight();
+
+		System.out.println("Distributed value iteration with " + numWorkers + " workers on the " + w + "x" + h + " grid:");
+
+		boolean agree = true;
+
+		for (int i = 0; i < 2; i++) {
+			boolean ssp = (i == 1);
+
+			GridMarkov model = new GridMarkov();
+			model.setCreatePOMDP(false);
+			model.create(grid, ssp);
+
+			GridValueIteration solver = new GridValueIteration(model);
+			long start = System.nanoTime();
+			solver.solve(DISTRIBUTED_GAMMA, DISTRIBUTED_EPSILON);
+			double time = (System.nanoTime() - start) / 1e6;
+
+			GridDistributedSolver distributed = new GridDistributedSolver(numWorkers);
+			start = System.nanoTime();
+			if (!distributed.solve(grid, ssp, DISTRIBUTED_GAMMA, DISTRIBUTED_EPSILON)) {
+				return false;
+			}
+			double distributedTime = (System.nanoTime() - start) / 1e6;
+
+			// Only compare the cells value iteration kept; the workers do not prune.
+			double V[] = solver.getValues();
+			int pi[] = solver.getPolicy();
+			double maxDifference = 0.0;
+			int policyDifferences = 0;
+			for (int y = 0; y < h; y++) {
+				for (int x = 0; x < w; x++) {
+					int s = model.getCellState(x, y);
+					if (s >= 0) {
+						maxDifference = Math.max(maxDifference, Math.abs(V[s] - distributed.getValue(x, y)));
+						if (pi[s] != distributed.getPolicy(x, y)) {
+							policyDifferences++;
+						}
+					}
+				}
+			}
+
+			System.out.println("  " + (ssp ? "SSP: " : "MDP: ") + String.format("%.2f", time) + " ms single, " +
+					String.format("%.2f", distributedTime) + " ms distributed, max difference " +
+					String.format("%.2e", maxDifference) + ", " + policyDifferences + " policy differences");
+
+			agree &= (maxDifference <= DISTRIBUTED_TOLERANCE);
+		}
+
+		System.out.println("  " + (agree ? "Agrees" : "Disagrees") + " with value iteration within " + DISTRIBUTED_TOLERANCE + ".");
+
+		return agree;
+	}
+
+	/**
+	 * Check that GridBeliefTracker simulates robots on the POMDP of a grid in both modes, with more
+	 * particles than the grid has states, and that every robot's belief still sums to 1. Summing
+	 * the particle beliefs takes time in the states times the particles, so use a small grid.
+	 * @param 	grid	The grid.
+	 * @return	True if every simulation finished and every belief sums to 1, false otherwise.
+	 */
+	private static boolean checkBeliefs(GridCells grid) {
+		GridMarkov model = new GridMarkov().create(grid, false);
+		if (model == null) {
+			return false;
+		}
+		int n = model.getNumStates();
+
+		System.out.println("Belief tracking of " + BELIEF_ROBOTS + " robots for " + BELIEF_STEPS + " steps on the " +
+				n + " states of the " + grid.getWidth() + "x" + grid.getHeight() + " grid:");
+
+		boolean valid = true;
+
+		for (int mode = GridBeliefTracker.EXACT; mode <= GridBeliefTracker.PARTICLE; mode++) {
+			GridBeliefTracker tracker = new GridBeliefTracker(model, mode);
+			tracker.setNumParticles(BELIEF_PARTICLES_PER_STATE * n);
+
+			int numCorrect = 0;
+			try {
+				numCorrect = tracker.simulate(BELIEF_ROBOTS, BELIEF_STEPS, null);
+			} catch (Exception e) {
+				System.out.println("  Failed to simulate the robots.");
+				e.printStackTrace();
+				return false;
+			}
+
+			double maxError = 0.0;
+			for (int k = 0; k < BELIEF_ROBOTS; k++) {
+				double total = 0.0;
+				for (int s = 0; s < n; s++) {
+					total += tracker.getProbability(k, s);
+				}
+				maxError = Math.max(maxError, Math.abs(total - 1.0));
+			}
+
+			System.out.println("  " + (mode == GridBeliefTracker.EXACT ? "Exact: " : "Particles (" + BELIEF_PARTICLES_PER_STATE * n + "): ") +
+					numCorrect + " robots located, max difference of a belief's total from 1 " + String.format("%.2e", maxError));
+
+			valid &= (maxError <= BELIEF_TOLERANCE);
+		}
+
+		System.out.println("  " + (valid ? "Every" : "Not every") + " belief sums to 1 within " + BELIEF_TOLERANCE + ".");
+
+		return valid;
+	}
+
+	/**
+	 * Time a number of sweeps of a solver.
+	 * @param	solver	The solver.
+	 * @param	gamma	The discount factor.
+	 * @return	The time per sweep in milliseconds.
+	 */
+	private static double timeSweeps(GridValueIteration solver, double gamma) {
+		long start = System.nanoTime();
+		for (int i = 0; i < SWEEPS; i++) {
+			solver.sweep(gamma);
+		}
+		return (System.nanoTime() - start) / 1e6 / SWEEPS;
+	}
+
+}
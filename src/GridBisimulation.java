@@ -0,0 +1,334 @@
+/**
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2014 Kyle Hollins Wray, University of Massachusetts
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of
+ *  this software and associated documentation files (the "Software"), to deal in
+ *  the Software without restriction, including without limitation the rights to
+ *  use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ *  the Software, and to permit persons to whom the Software is furnished to do so,
+ *  subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ *  FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ *  IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *  CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+
+public class GridBisimulation {
+
+	/** The resolution used when comparing probabilities and rewards. */
+	private static final double RESOLUTION = 1e9;
+
+	/** The model to minimize. */
+	private GridMarkov model;
+
+	/** The block of each state in the coarsest stochastic bisimulation. */
+	private int block[];
+
+	/** The number of blocks. */
+	private int numBlocks;
+
+	/** The representative (lowest) state of each block. */
+	private int representative[];
+
+	/**
+	 * The constructor for the GridBisimulation class.
+	 * @param	model	The created model to minimize.
+	 */
+	public GridBisimulation(GridMarkov model) {
+		this.model = model;
+		this.block = null;
+		this.numBlocks = 0;
+		this.representative = null;
+	}
+
+	/**
+	 * Compute the coarsest stochastic bisimulation by partition refinement, and return the
+	 * lumped model over its blocks. Two states stay in the same block only if they have the
+	 * same reward, agree on being a goal, and, for every action, move with the same
+	 * probability into each block.
+	 * @return	The lumped model, whose states are the blocks.
+	 */
+	public GridMarkov minimize() {
+		int n = model.getNumStates();
+		int m = model.getNumActions();
+		int ns = model.getMaxSuccessors();
+		int S[] = model.getSuccessors();
+		double R[] = model.getRewards();
+		int goals[] = model.getGoals();
+
+		// The initial partition splits states by reward and goal membership only.
+		boolean isGoal[] = new boolean[n];
+		for (int i = 0; i < goals.length; i++) {
+			isGoal[goals[i]] = true;
+		}
+
+		block = new int[n];
+		HashMap<Signature, Integer> blocks = new HashMap<Signature, Integer>();
+		for (int s = 0; s < n; s++) {
+			long key[] = new long[] { (isGoal[s] ? 1 : 0), Math.round(R[s] * RESOLUTION) };
+			block[s] = assign_block(blocks, new Signature(key));
+		}
+		numBlocks = blocks.size();
+
+		// Refine until no block splits. Each signature starts with the state's current block, so
+		// blocks can only split, never merge.
+		long successorBlock[] = new long[ns];
+		long successorProbability[] = new long[ns];
+		long key[] = new long[1 + m * (1 + 2 * ns)];
+		int iterations = 0;
+
+		while (true) {
+			int newBlock[] = new int[n];
+			blocks.clear();
+
+			for (int s = 0; s < n; s++) {
+				int k = 0;
+				key[k++] = block[s];
+
+				for (int a = 0; a < m; a++) {
+					// Sum the probability of moving into each block, then sort by block.
+					int count = 0;
+					for (int i = (s * m + a) * ns; i < (s * m + a + 1) * ns; i++) {
+						if (S[i] < 0) {
+							continue;
+						}
+
+						int b = block[S[i]];
+						int j = 0;
+						while (j < count && successorBlock[j] != b) {
+							j++;
+						}
+						if (j == count) {
+							successorBlock[count] = b;
+							successorProbability[count] = 0;
+							count++;
+						}
+						successorProbability[j] += Math.round(model.getProbability(i) * RESOLUTION);
+					}
+
+					for (int i = 1; i < count; i++) {
+						for (int j = i; j > 0 && successorBlock[j - 1] > successorBlock[j]; j--) {
+							long tmp = successorBlock[j];
+							successorBlock[j] = successorBlock[j - 1];
+							successorBlock[j - 1] = tmp;
+
+							tmp = successorProbability[j];
+							successorProbability[j] = successorProbability[j - 1];
+							successorProbability[j - 1] = tmp;
+						}
+					}
+
+					key[k++] = -count - 1; // Separates the actions.
+					for (int i = 0; i < count; i++) {
+						key[k++] = successorBlock[i];
+						key[k++] = successorProbability[i];
+					}
+				}
+
+				newBlock[s] = assign_block(blocks, new Signature(Arrays.copyOf(key, k)));
+			}
+
+			block = newBlock;
+			iterations++;
+
+			if (blocks.size() == numBlocks) {
+				break;
+			}
+			numBlocks = blocks.size();
+		}
+
+		System.out.println("Lumped " + n + " states into " + numBlocks + " blocks after " + iterations + " refinements.");
+
+		return create_quotient();
+	}
+
+	/**
+	 * Look up the block of a signature, creating a new block if it has not been seen yet.
+	 * Blocks are numbered in order of their lowest state.
+	 * @param	blocks		The blocks seen so far.
+	 * @param	signature	The signature of the state.
+	 * @return	The block of the state.
+	 */
+	private int assign_block(HashMap<Signature, Integer> blocks, Signature signature) {
+		Integer b = blocks.get(signature);
+		if (b == null) {
+			b = blocks.size();
+			blocks.put(signature, b);
+		}
+		return b;
+	}
+
+	/**
+	 * Build the lumped model from the current partition.
+	 * @return	The lumped model.
+	 */
+	private GridMarkov create_quotient() {
+		int n = model.getNumStates();
+		int m = model.getNumActions();
+		int ns = model.getMaxSuccessors();
+		int S[] = model.getSuccessors();
+		double R[] = model.getRewards();
+		int goals[] = model.getGoals();
+
+		representative = new int[numBlocks];
+		Arrays.fill(representative, -1);
+		for (int s = 0; s < n; s++) {
+			if (representative[block[s]] < 0) {
+				representative[block[s]] = s;
+			}
+		}
+
+		// Every state in a block behaves like its representative, so only the representative's
+		// successors need to be lumped.
+		int lumpedS[] = new int[numBlocks * m * ns];
+		double lumpedT[] = new double[numBlocks * m * ns];
+		double lumpedR[] = new double[numBlocks];
+		Arrays.fill(lumpedS, -1);
+
+		for (int b = 0; b < numBlocks; b++) {
+			int s = representative[b];
+			lumpedR[b] = R[s];
+
+			for (int a = 0; a < m; a++) {
+				int start = (b * m + a) * ns;
+				int count = 0;
+
+				for (int i = (s * m + a) * ns; i < (s * m + a + 1) * ns; i++) {
+					if (S[i] < 0) {
+						continue;
+					}
+
+					int bp = block[S[i]];
+					int j = 0;
+					while (j < count && lumpedS[start + j] != bp) {
+						j++;
+					}
+					if (j == count) {
+						lumpedS[start + count] = bp;
+						count++;
+					}
+					lumpedT[start + j] += model.getProbability(i);
+				}
+			}
+		}
+
+		int lumpedGoals[] = new int[goals.length];
+		for (int i = 0; i < goals.length; i++) {
+			lumpedGoals[i] = block[goals[i]];
+		}
+
+		int s0 = model.getInitialState();
+
+		return new GridMarkov(m, ns, lumpedS, lumpedT, lumpedR, (s0 >= 0 ? block[s0] : -1), lumpedGoals, model.isSSP());
+	}
+
+	/**
+	 * Get the number of blocks found by the last call to minimize.
+	 * @return	The number of blocks.
+	 */
+	public int getNumBlocks() {
+		return numBlocks;
+	}
+
+	/**
+	 * Get the block of a state of the original model.
+	 * @param	s	The state of the original model.
+	 * @return	The block (state of the lumped model).
+	 */
+	public int getBlock(int s) {
+		return block[s];
+	}
+
+	/**
+	 * Get the block of every grid cell, stored as y * w + x.
+	 * @return	The block of each cell, or -1 if the cell was pruned.
+	 */
+	public int[] getCellBlocks() {
+		int w = model.getGridWidth();
+		int h = model.getGridHeight();
+
+		int cellBlocks[] = new int[w * h];
+		for (int y = 0; y < h; y++) {
+			for (int x = 0; x < w; x++) {
+				int s = model.getCellState(x, y);
+				if (s >= 0) {
+					cellBlocks[y * w + x] = block[s];
+				} else {
+					cellBlocks[y * w + x] = -1;
+				}
+			}
+		}
+
+		return cellBlocks;
+	}
+
+	/**
+	 * Expand a policy of the lumped model back to the grid cells.
+	 * @param	lumpedPolicy	The action of each block.
+	 * @return	The action of each cell (y * w + x), or -1 if the cell was pruned.
+	 */
+	public int[] expandPolicy(int lumpedPolicy[]) {
+		int cellBlocks[] = getCellBlocks();
+
+		int policy[] = new int[cellBlocks.length];
+		for (int c = 0; c < cellBlocks.length; c++) {
+			if (cellBlocks[c] >= 0) {
+				policy[c] = lumpedPolicy[cellBlocks[c]];
+			} else {
+				policy[c] = -1;
+			}
+		}
+
+		return policy;
+	}
+
+	/**
+	 * Expand a value function of the lumped model back to the states of the original model.
+	 * @param	lumpedValues	The value of each block.
+	 * @return	The value of each state of the original model.
+	 */
+	public double[] expandValues(double lumpedValues[]) {
+		double values[] = new double[block.length];
+		for (int s = 0; s < block.length; s++) {
+			values[s] = lumpedValues[block[s]];
+		}
+		return values;
+	}
+
+	/** A state signature, compared by value so it can key a hash map. */
+	private static class Signature {
+		private long key[];
+		private int hash;
+
+		public Signature(long key[]) {
+			this.key = key;
+			this.hash = Arrays.hashCode(key);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Signature)) {
+				return false;
+			}
+			return Arrays.equals(key, ((Signature)other).key);
+		}
+	}
+
+}
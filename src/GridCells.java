@@ -0,0 +1,364 @@
+/**
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2014 Kyle Hollins Wray, University of Massachusetts
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of
+ *  this software and associated documentation files (the "Software"), to deal in
+ *  the Software without restriction, including without limitation the rights to
+ *  use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ *  the Software, and to permit persons to whom the Software is furnished to do so,
+ *  subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ *  FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ *  IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *  CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.Arrays;
+
+
+/**
+ * The cells of a grid world, one byte per cell, stored row-major: cell <x, y> is at index
+ * y * width + x, meaning stored 0 1 2; 3 4 5; 6 7 8; etc. This is the order every loop over the
+ * grid visits them in (left to right, then top to bottom), and the order of the states. The cell
+ * array itself is exposed for the loops which visit every cell.
+ */
+public class GridCells {
+
+	/** The width of the grid. */
+	private int width;
+
+	/** The height of the grid. */
+	private int height;
+
+	/** The type of each cell, row-major. */
+	private byte cells[];
+
+	/**
+	 * The constructor for the GridCells class, with every cell empty.
+	 * @param	width	The width in cells.
+	 * @param	height	The height in cells.
+	 */
+	public GridCells(int width, int height) {
+		this.width = width;
+		this.height = height;
+		this.cells = new byte[width * height];
+		Arrays.fill(this.cells, (byte)GridPanel.GridCellType.EMPTY);
+	}
+
+	/**
+	 * The constructor for the GridCells class which wraps existing cells, without copying them.
+	 * @param	width	The width in cells.
+	 * @param	height	The height in cells.
+	 * @param	cells	The type of each cell, row-major.
+	 */
+	public GridCells(int width, int height, byte cells[]) {
+		this.width = width;
+		this.height = height;
+		this.cells = cells;
+	}
+
+	/**
+	 * The copy constructor for the GridCells class.
+	 * @param	other	The grid to copy.
+	 */
+	public GridCells(GridCells other) {
+		this.width = other.width;
+		this.height = other.height;
+		this.cells = Arrays.copyOf(other.cells, other.cells.length);
+	}
+
+	/**
+	 * Get the width of the grid.
+	 * @return	The width in cells.
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Get the height of the grid.
+	 * @return	The height in cells.
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Get the type of each cell, row-major. This is the grid's own array, not a copy.
+	 * @return	The cells.
+	 */
+	public byte[] getCells() {
+		return cells;
+	}
+
+	/**
+	 * Get the index of a cell in the cell array.
+	 * @param	x	The x location.
+	 * @param	y	The y location.
+	 * @return	The index, y * width + x.
+	 */
+	public int index(int x, int y) {
+		return y * width + x;
+	}
+
+	/**
+	 * Check if a location is within the grid.
+	 * @param	x	The x location.
+	 * @param	y	The y location.
+	 * @return	True or false.
+	 */
+	public boolean contains(int x, int y) {
+		return (x >= 0 && x < width && y >= 0 && y < height);
+	}
+
+	/**
+	 * Get the type of a cell.
+	 * @param	x	The x location.
+	 * @param	y	The y location.
+	 * @return	The cell type.
+	 */
+	public int get(int x, int y) {
+		return cells[y * width + x];
+	}
+
+	/**
+	 * Set the type of a cell.
+	 * @param	x			The x location.
+	 * @param	y			The y location.
+	 * @param	cellType	The cell type.
+	 */
+	public void set(int x, int y, int cellType) {
+		cells[y * width + x] = (byte)cellType;
+	}
+
+	/**
+	 * Set every cell to one type.
+	 * @param	cellType	The cell type.
+	 */
+	public void fill(int cellType) {
+		Arrays.fill(cells, (byte)cellType);
+	}
+
+	/**
+	 * Fill a rectangle of cells with one type, clipped to the grid.
+	 * @param	x0			The left of the rectangle.
+	 * @param	y0			The top of the rectangle.
+	 * @param	x1			The right of the rectangle, exclusive.
+	 * @param	y1			The bottom of the rectangle, exclusive.
+	 * @param	cellType	The cell type.
+	 */
+	public void fill(int x0, int y0, int x1, int y1, int cellType) {
+		x0 = Math.max(x0, 0);
+		y0 = Math.max(y0, 0);
+		x1 = Math.min(x1, width);
+		y1 = Math.min(y1, height);
+		for (int y = y0; y < y1 && x0 < x1; y++) {
+			Arrays.fill(cells, y * width + x0, y * width + x1, (byte)cellType);
+		}
+	}
+
+	/**
+	 * Fill a rectangle of cells with one type, clipped to the grid, and record which cells changed.
+	 * @param	x0			The left of the rectangle.
+	 * @param	y0			The top of the rectangle.
+	 * @param	x1			The right of the rectangle, exclusive.
+	 * @param	y1			The bottom of the rectangle, exclusive.
+	 * @param	cellType	The cell type.
+	 * @param	changed		The array of at least width * height cells to write the changed indexes into.
+	 * @return	The number of changed cells.
+	 */
+	public int fill(int x0, int y0, int x1, int y1, int cellType, int changed[]) {
+		x0 = Math.max(x0, 0);
+		y0 = Math.max(y0, 0);
+		x1 = Math.min(x1, width);
+		y1 = Math.min(y1, height);
+
+		byte type = (byte)cellType;
+		int count = 0;
+		for (int y = y0; y < y1; y++) {
+			for (int c = y * width + x0; c < y * width + x1; c++) {
+				if (cells[c] != type) {
+					cells[c] = type;
+					changed[count++] = c;
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Draw a line of cells with one type from one cell to another, both inclusive, clipped to the
+	 * grid, and record which cells changed. The line is 8-connected (Bresenham).
+	 * @param	x0			The x location of the start.
+	 * @param	y0			The y location of the start.
+	 * @param	x1			The x location of the end.
+	 * @param	y1			The y location of the end.
+	 * @param	cellType	The cell type.
+	 * @param	changed		The array of at least width * height cells to write the changed indexes into.
+	 * @return	The number of changed cells.
+	 */
+	public int line(int x0, int y0, int x1, int y1, int cellType, int changed[]) {
+		byte type = (byte)cellType;
+		int count = 0;
+
+		int dx = Math.abs(x1 - x0);
+		int dy = -Math.abs(y1 - y0);
+		int sx = (x0 < x1 ? 1 : -1);
+		int sy = (y0 < y1 ? 1 : -1);
+		int error = dx + dy;
+
+		int x = x0;
+		int y = y0;
+		while (true) {
+			if (contains(x, y) && cells[y * width + x] != type) {
+				cells[y * width + x] = type;
+				changed[count++] = y * width + x;
+			}
+			if (x == x1 && y == y1) {
+				break;
+			}
+			int e2 = 2 * error;
+			if (e2 >= dy) {
+				error += dy;
+				x += sx;
+			}
+			if (e2 <= dx) {
+				error += dx;
+				y += sy;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Flood fill the 4-connected region of cells with the same type as the given cell, and record
+	 * which cells changed. This fills a whole horizontal span at a time, and only remembers where
+	 * the spans above and below it start, so the work is linear in the size of the region.
+	 * @param	x			The x location of the seed cell.
+	 * @param	y			The y location of the seed cell.
+	 * @param	cellType	The cell type.
+	 * @param	changed		The array of at least width * height cells to write the changed indexes into.
+	 * @return	The number of changed cells.
+	 */
+	public int floodFill(int x, int y, int cellType, int changed[]) {
+		byte type = (byte)cellType;
+		if (!contains(x, y) || cells[y * width + x] == type) {
+			return 0;
+		}
+
+		// Filled cells no longer have the target type, so they are never visited twice.
+		byte target = cells[y * width + x];
+		int count = 0;
+
+		int stack[] = new int[64];
+		int size = 0;
+		stack[size++] = y * width + x;
+
+		while (size > 0) {
+			int c = stack[--size];
+			if (cells[c] != target) {
+				continue;
+			}
+
+			int row = c - c % width;
+			int left = c;
+			while (left > row && cells[left - 1] == target) {
+				left--;
+			}
+			int right = c;
+			while (right < row + width - 1 && cells[right + 1] == target) {
+				right++;
+			}
+
+			for (int i = left; i <= right; i++) {
+				cells[i] = type;
+				changed[count++] = i;
+			}
+
+			// Push the start of each run of target cells in the rows above and below the span.
+			for (int offset = -width; offset <= width; offset += 2 * width) {
+				if (row + offset < 0 || row + offset >= cells.length) {
+					continue;
+				}
+				boolean inRun = false;
+				for (int i = left + offset; i <= right + offset; i++) {
+					if (cells[i] != target) {
+						inRun = false;
+					} else if (!inRun) {
+						if (size == stack.length) {
+							stack = Arrays.copyOf(stack, size * 2);
+						}
+						stack[size++] = i;
+						inRun = true;
+					}
+				}
+			}
+		}
+
+		return count;
+	}
+
+	/**
+	 * Copy a row of cells out of the grid.
+	 * @param	y		The row.
+	 * @param	row		The array of at least width cells to copy the row into.
+	 */
+	public void getRow(int y, byte row[]) {
+		System.arraycopy(cells, y * width, row, 0, width);
+	}
+
+	/**
+	 * Copy a row of cells into the grid.
+	 * @param	y		The row.
+	 * @param	row		The array of at least width cells to copy the row from.
+	 */
+	public void setRow(int y, byte row[]) {
+		System.arraycopy(row, 0, cells, y * width, width);
+	}
+
+	/**
+	 * Create a grid of another size with the overlapping cells of this one; the rest are empty.
+	 * @param	newWidth	The new width in cells.
+	 * @param	newHeight	The new height in cells.
+	 * @return	The resized grid.
+	 */
+	public GridCells resize(int newWidth, int newHeight) {
+		GridCells resized = new GridCells(newWidth, newHeight);
+		int w = Math.min(width, newWidth);
+		for (int y = 0; y < Math.min(height, newHeight); y++) {
+			System.arraycopy(cells, y * width, resized.cells, y * newWidth, w);
+		}
+		return resized;
+	}
+
+	/**
+	 * Copy a rectangle of cells into a new grid. Cells outside of this grid become the given type.
+	 * @param	x0			The left of the rectangle.
+	 * @param	y0			The top of the rectangle.
+	 * @param	w			The width of the rectangle.
+	 * @param	h			The height of the rectangle.
+	 * @param	outside		The cell type of the cells outside of this grid.
+	 * @return	The new grid.
+	 */
+	public GridCells subgrid(int x0, int y0, int w, int h, int outside) {
+		GridCells subgrid = new GridCells(w, h);
+		subgrid.fill(outside);
+		int xs = Math.max(x0, 0);
+		int xe = Math.min(x0 + w, width);
+		for (int y = Math.max(y0, 0); y < Math.min(y0 + h, height); y++) {
+			if (xs < xe) {
+				System.arraycopy(cells, y * width + xs, subgrid.cells, (y - y0) * w + (xs - x0), xe - xs);
+			}
+		}
+		return subgrid;
+	}
+
+}
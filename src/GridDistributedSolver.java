@@ -0,0 +1,242 @@
+/**
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2014 Kyle Hollins Wray, University of Massachusetts
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of
+ *  this software and associated documentation files (the "Software"), to deal in
+ *  the Software without restriction, including without limitation the rights to
+ *  use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ *  the Software, and to permit persons to whom the Software is furnished to do so,
+ *  subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ *  FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ *  IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *  CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+
+public class GridDistributedSolver {
+
+	/** How long to wait for the workers to connect, in milliseconds. */
+	private static final int CONNECT_TIMEOUT = 60000;
+
+	/** The number of worker processes. */
+	private int numWorkers;
+
+	/** The width of the grid. */
+	private int width;
+
+	/** The height of the grid. */
+	private int height;
+
+	/** The value of each cell (y * w + x). */
+	private double values[];
+
+	/** The policy of each cell (y * w + x). */
+	private int policy[];
+
+	/** The number of sweeps (and halo exchanges) of the last solve. */
+	private int iterations;
+
+	/**
+	 * The constructor for the GridDistributedSolver class.
+	 * @param	numWorkers	The number of worker processes, each of which solves one strip of rows.
+	 */
+	public GridDistributedSolver(int numWorkers) {
+		this.numWorkers = numWorkers;
+		this.values = null;
+		this.policy = null;
+		this.iterations = 0;
+	}
+
+	/**
+	 * Get the number of sweeps (and halo exchanges) of the last solve.
+	 * @return	The number of sweeps.
+	 */
+	public int getIterations() {
+		return iterations;
+	}
+
+	/**
+	 * Solve the grid with value iteration split across worker processes on this machine. The
+	 * grid is cut into strips of rows, one per worker, and each worker builds the model of its
+	 * strip plus a one row halo on each side. After every sweep, each worker sends its residual
+	 * and its first and last rows of values over a local TCP socket; the coordinator relays the
+	 * rows to the neighboring strips as their new halos, and stops once the largest residual has
+	 * converged.
+	 * @param 	grid		The grid.
+	 * @param	ssp			Make the SSP version with costs or not.
+	 * @param	gamma		The discount factor on [0, 1].
+	 * @param	epsilon		The tolerance for convergence.
+	 * @return	The success of solving.
+	 */
+	public boolean solve(GridCells grid, boolean ssp, double gamma, double epsilon) {
+		int w = grid.getWidth();
+		int h = grid.getHeight();
+		width = w;
+		height = h;
+
+		int workers = Math.max(1, Math.min(numWorkers, h));
+
+		double convergenceCriterion = epsilon;
+		if (gamma < 1.0) {
+			convergenceCriterion *= (1.0 - gamma) / gamma;
+		}
+
+		ServerSocket server = null;
+		Process processes[] = new Process[workers];
+		Socket sockets[] = new Socket[workers];
+
+		try {
+			server = new ServerSocket(0, workers, InetAddress.getLoopbackAddress());
+			server.setSoTimeout(CONNECT_TIMEOUT);
+
+			// Launch the workers with the same Java and class path as this process.
+			String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+			for (int i = 0; i < workers; i++) {
+				ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+						"GridDistributedWorker", Integer.toString(server.getLocalPort()));
+				builder.inheritIO();
+				processes[i] = builder.start();
+			}
+
+			DataInputStream inputs[] = new DataInputStream[workers];
+			DataOutputStream outputs[] = new DataOutputStream[workers];
+			for (int i = 0; i < workers; i++) {
+				sockets[i] = server.accept();
+				sockets[i].setTcpNoDelay(true);
+				inputs[i] = new DataInputStream(new BufferedInputStream(sockets[i].getInputStream()));
+				outputs[i] = new DataOutputStream(new BufferedOutputStream(sockets[i].getOutputStream()));
+			}
+
+			// Send each worker its strip, with a halo row on each side. Rows beyond the grid are
+			// obstacles, which blocks movement exactly like the edge of the grid does.
+			int stripY[] = new int[workers + 1];
+			for (int i = 0; i <= workers; i++) {
+				stripY[i] = (int)((long)h * i / workers);
+			}
+
+			for (int i = 0; i < workers; i++) {
+				outputs[i].writeBoolean(ssp);
+				outputs[i].writeDouble(gamma);
+				outputs[i].writeInt(w);
+				outputs[i].writeInt(stripY[i + 1] - stripY[i]);
+				outputs[i].write(grid.subgrid(0, stripY[i] - 1, w, stripY[i + 1] - stripY[i] + 2,
+						GridPanel.GridCellType.OBSTACLE).getCells());
+				outputs[i].flush();
+			}
+
+			// The first and last rows of values of each strip.
+			double firstRows[][] = new double[workers][w];
+			double lastRows[][] = new double[workers][w];
+
+			iterations = 0;
+			double residual = convergenceCriterion + 1.0;
+
+			while (residual > convergenceCriterion) {
+				for (int i = 0; i < workers; i++) {
+					outputs[i].writeBoolean(true);
+					for (int x = 0; x < w; x++) {
+						outputs[i].writeDouble(i > 0 ? lastRows[i - 1][x] : 0.0);
+					}
+					for (int x = 0; x < w; x++) {
+						outputs[i].writeDouble(i < workers - 1 ? firstRows[i + 1][x] : 0.0);
+					}
+					outputs[i].flush();
+				}
+
+				// The global residual is the largest residual of any strip.
+				residual = 0.0;
+				for (int i = 0; i < workers; i++) {
+					residual = Math.max(residual, inputs[i].readDouble());
+					for (int x = 0; x < w; x++) {
+						firstRows[i][x] = inputs[i].readDouble();
+					}
+					for (int x = 0; x < w; x++) {
+						lastRows[i][x] = inputs[i].readDouble();
+					}
+				}
+
+				iterations++;
+			}
+
+			// Collect the final values and policy.
+			values = new double[w * h];
+			policy = new int[w * h];
+
+			for (int i = 0; i < workers; i++) {
+				outputs[i].writeBoolean(false);
+				outputs[i].flush();
+			}
+			for (int i = 0; i < workers; i++) {
+				for (int c = stripY[i] * w; c < stripY[i + 1] * w; c++) {
+					values[c] = inputs[i].readDouble();
+				}
+				for (int c = stripY[i] * w; c < stripY[i + 1] * w; c++) {
+					policy[c] = inputs[i].readByte();
+				}
+			}
+
+			for (int i = 0; i < workers; i++) {
+				sockets[i].close();
+				processes[i].waitFor();
+			}
+			server.close();
+		} catch (Exception e) {
+			System.out.println("Failed to solve the grid with " + workers + " worker processes.");
+			e.printStackTrace();
+
+			for (int i = 0; i < workers; i++) {
+				if (processes[i] != null) {
+					processes[i].destroy();
+				}
+			}
+			try {
+				if (server != null) {
+					server.close();
+				}
+			} catch (Exception ex) { }
+
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Get the value of a cell.
+	 * @param	x	The x location of the cell.
+	 * @param	y	The y location of the cell.
+	 * @return	The value.
+	 */
+	public double getValue(int x, int y) {
+		return values[y * width + x];
+	}
+
+	/**
+	 * Get the policy (action) of a cell.
+	 * @param	x	The x location of the cell.
+	 * @param	y	The y location of the cell.
+	 * @return	The action.
+	 */
+	public int getPolicy(int x, int y) {
+		return policy[y * width + x];
+	}
+
+}
@@ -0,0 +1,106 @@
+/**
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2014 Kyle Hollins Wray, University of Massachusetts
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of
+ *  this software and associated documentation files (the "Software"), to deal in
+ *  the Software without restriction, including without limitation the rights to
+ *  use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ *  the Software, and to permit persons to whom the Software is furnished to do so,
+ *  subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ *  FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ *  IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *  CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+
+
+public class GridDistributedWorker {
+
+	/**
+	 * Run a worker process for GridDistributedSolver. It connects to the coordinator, receives
+	 * its strip of the grid, and then sweeps it once per halo exchange until told to stop.
+	 * @param	args	The port of the coordinator on this machine.
+	 */
+	public static void main(String args[]) {
+		Socket socket = null;
+
+		try {
+			socket = new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(args[0]));
+			socket.setTcpNoDelay(true);
+			DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+			boolean ssp = input.readBoolean();
+			double gamma = input.readDouble();
+			int w = input.readInt();
+			int h = input.readInt();
+
+			// The strip arrives with a halo row above and below it.
+			GridCells strip = new GridCells(w, h + 2);
+			input.readFully(strip.getCells());
+
+			GridMarkov model = new GridMarkov();
+			model.setPruneUnreachable(false);
+			model.setCreatePOMDP(false);
+			model.create(strip, ssp);
+
+			GridValueIteration solver = new GridValueIteration(model);
+
+			boolean fixed[] = new boolean[model.getNumStates()];
+			for (int x = 0; x < w; x++) {
+				fixed[x] = true;
+				fixed[(h + 1) * w + x] = true;
+			}
+			solver.setFixedStates(fixed);
+
+			while (input.readBoolean()) {
+				for (int x = 0; x < w; x++) {
+					solver.setValue(x, input.readDouble());
+				}
+				for (int x = 0; x < w; x++) {
+					solver.setValue((h + 1) * w + x, input.readDouble());
+				}
+
+				output.writeDouble(solver.sweep(gamma));
+				for (int x = 0; x < w; x++) {
+					output.writeDouble(solver.getValue(w + x));
+				}
+				for (int x = 0; x < w; x++) {
+					output.writeDouble(solver.getValue(h * w + x));
+				}
+				output.flush();
+			}
+
+			int policy[] = solver.getPolicy();
+			for (int s = w; s < (h + 1) * w; s++) {
+				output.writeDouble(solver.getValue(s));
+			}
+			for (int s = w; s < (h + 1) * w; s++) {
+				output.writeByte(policy[s]);
+			}
+			output.flush();
+
+			socket.close();
+		} catch (Exception e) {
+			System.out.println("Worker failed.");
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+}
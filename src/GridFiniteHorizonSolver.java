@@ -0,0 +1,260 @@
+/**
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2014 Kyle Hollins Wray, University of Massachusetts
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of
+ *  this software and associated documentation files (the "Software"), to deal in
+ *  the Software without restriction, including without limitation the rights to
+ *  use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ *  the Software, and to permit persons to whom the Software is furnished to do so,
+ *  subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ *  FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ *  IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *  CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+/**
+ * A finite-horizon solver of the MDP (or SSP) created by GridMarkov, by backward induction over
+ * the model's horizon. Only the values of two consecutive time steps are kept in memory, so it
+ * needs O(n) memory whatever the horizon. The time-indexed policy is streamed to a file as each
+ * time step is computed, one byte (the action) per state: after a header of the number of states
+ * and the horizon, the policy of time t (with horizon - t steps to go) starts at byte
+ * HEADER_BYTES + t * n. The states of each time step are backed up in parallel.
+ */
+public class GridFiniteHorizonSolver {
+
+	/** The size of the policy file's header: the number of states and the horizon. */
+	public static final int HEADER_BYTES = 8;
+
+	/** Split the states of a time step into this many blocks per thread, to balance the load. */
+	private static final int BLOCKS_PER_THREAD = 4;
+
+	/** The model to solve. */
+	private GridMarkov model;
+
+	/** The number of threads backing up states at once. */
+	private int numThreads;
+
+	/** The values of the last solve at time 0, i.e., with the whole horizon to go. */
+	private double V[];
+
+	/** The policy file of the last solve. */
+	private File file;
+
+	/** The horizon of the last solve. */
+	private int horizon;
+
+	/**
+	 * The constructor for the GridFiniteHorizonSolver class.
+	 * @param	model	The created model to solve.
+	 */
+	public GridFiniteHorizonSolver(GridMarkov model) {
+		this.model = model;
+		this.numThreads = Runtime.getRuntime().availableProcessors();
+		this.V = null;
+		this.file = null;
+		this.horizon = 0;
+	}
+
+	/**
+	 * Set the number of threads backing up states at once.
+	 * @param	numThreads	The number of threads; the default is the number of processors.
+	 */
+	public void setNumThreads(int numThreads) {
+		this.numThreads = Math.max(1, numThreads);
+	}
+
+	/**
+	 * Solve the model with its own horizon and discount factor.
+	 * @param	file	The file to stream the time-indexed policy to.
+	 * @return	The success of solving and saving the policy.
+	 */
+	public boolean solve(File file) {
+		return solve(file, model.getHorizon(), model.getDiscountFactor());
+	}
+
+	/**
+	 * Solve the model by backward induction: with k steps to go, V_k(s) = R(s) + gamma * max_a
+	 * sum_s' T(s' | s, a) V_{k-1}(s') (min for an SSP), starting from V_0 = 0.
+	 * @param	file	The file to stream the time-indexed policy to.
+	 * @param	horizon	The horizon.
+	 * @param	gamma	The discount factor on [0, 1].
+	 * @return	The success of solving and saving the policy.
+	 */
+	public boolean solve(File file, int horizon, final double gamma) {
+		final int n = model.getNumStates();
+
+		double previous[] = new double[n];
+		double next[] = new double[n];
+		final byte policy[] = new byte[n];
+
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+
+		try {
+			RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+			try {
+				FileChannel channel = randomAccessFile.getChannel();
+				channel.truncate(0);
+
+				ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+				header.putInt(n);
+				header.putInt(horizon);
+				header.flip();
+				write_fully(channel, header, 0);
+
+				int numBlocks = (numThreads == 1 ? 1 : Math.min(n, numThreads * BLOCKS_PER_THREAD));
+
+				for (int k = 1; k <= horizon; k++) {
+					final double current[] = previous;
+					final double updated[] = next;
+
+					ArrayList<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+					for (int b = 0; b < numBlocks; b++) {
+						final int start = (int)((long)b * n / numBlocks);
+						final int end = (int)((long)(b + 1) * n / numBlocks);
+						tasks.add(new Callable<Void>() {
+							@Override
+							public Void call() {
+								backup(start, end, gamma, current, updated, policy);
+								return null;
+							}
+						});
+					}
+					if (numBlocks == 1) {
+						backup(0, n, gamma, current, updated, policy);
+					} else {
+						for (Future<Void> future : executor.invokeAll(tasks)) {
+							future.get();
+						}
+					}
+
+					// With k steps to go, this is time horizon - k.
+					write_fully(channel, ByteBuffer.wrap(policy), HEADER_BYTES + (long)(horizon - k) * n);
+
+					previous = updated;
+					next = current;
+				}
+			} finally {
+				randomAccessFile.close();
+			}
+		} catch (Exception e) {
+			System.out.println("Failed to save the finite-horizon policy to file '" + file.getName() + "'.");
+			return false;
+		} finally {
+			executor.shutdown();
+		}
+
+		this.V = previous;
+		this.file = file;
+		this.horizon = horizon;
+
+		return true;
+	}
+
+	/**
+	 * Back up a range of states from the values with one step fewer to go.
+	 * @param	start		The first state.
+	 * @param	end			The state after the last one.
+	 * @param	gamma		The discount factor on [0, 1].
+	 * @param	previous	The values with one step fewer to go.
+	 * @param	next		The new values.
+	 * @param	policy		The new actions.
+	 */
+	private void backup(int start, int end, double gamma, double previous[], double next[], byte policy[]) {
+		int m = model.getNumActions();
+		int ns = model.getMaxSuccessors();
+		int S[] = model.getSuccessors();
+		double T[] = model.getProbabilities();
+		byte TCodes[] = model.getProbabilityCodes();
+		double TTable[] = model.getProbabilityTable();
+		double R[] = model.getRewards();
+		boolean ssp = model.isSSP();
+
+		for (int s = start; s < end; s++) {
+			double best = 0.0;
+			int bestAction = 0;
+
+			for (int a = 0; a < m; a++) {
+				double Q = 0.0;
+				for (int i = (s * m + a) * ns; i < (s * m + a + 1) * ns; i++) {
+					if (S[i] >= 0) {
+						Q += (T != null ? T[i] : TTable[TCodes[i] & 0xFF]) * previous[S[i]];
+					}
+				}
+
+				if (a == 0 || (ssp ? Q < best : Q > best)) {
+					best = Q;
+					bestAction = a;
+				}
+			}
+
+			next[s] = R[s] + gamma * best;
+			policy[s] = (byte)bestAction;
+		}
+	}
+
+	/**
+	 * Write all of a buffer at a position of a file.
+	 * @param	channel		The file.
+	 * @param	buffer		The buffer.
+	 * @param	position	The position.
+	 */
+	private static void write_fully(FileChannel channel, ByteBuffer buffer, long position) throws Exception {
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+
+	/**
+	 * Get the values of the last solve with the whole horizon to go.
+	 * @return	The value of each state.
+	 */
+	public double[] getValues() {
+		return V;
+	}
+
+	/**
+	 * Read an action of the time-indexed policy of the last solve from its file.
+	 * @param	t	The time, on [0, horizon).
+	 * @param	s	The state.
+	 * @return	The action, or -1 if it could not be read.
+	 */
+	public int getAction(int t, int s) {
+		if (file == null || t < 0 || t >= horizon) {
+			return -1;
+		}
+
+		try {
+			RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+			try {
+				randomAccessFile.seek(HEADER_BYTES + (long)t * model.getNumStates() + s);
+				return randomAccessFile.readByte();
+			} finally {
+				randomAccessFile.close();
+			}
+		} catch (Exception e) {
+			System.out.println("Failed to read the finite-horizon policy from file '" + file.getName() + "'.");
+			return -1;
+		}
+	}
+
+}
@@ -0,0 +1,594 @@
+/**
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2014 Kyle Hollins Wray, University of Massachusetts
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of
+ *  this software and associated documentation files (the "Software"), to deal in
+ *  the Software without restriction, including without limitation the rights to
+ *  use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ *  the Software, and to permit persons to whom the Software is furnished to do so,
+ *  subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ *  FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ *  IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *  CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * A seeded procedural generator of grid worlds (random obstacles, mazes, and rooms, with lights,
+ * failures, an initial cell, and a success cell) which exports datasets of models directly.
+ * One thread generates the grids into a bounded queue, and several threads create and export
+ * their models, so no .grid_world files are written and memory stays bounded.
+ */
+public class GridGenerator {
+
+	/** The kinds of grids. */
+	public static final int RANDOM_OBSTACLES = 0;
+	public static final int MAZE = 1;
+	public static final int ROOMS = 2;
+	public static final int NUM_KINDS = 3;
+	public static final String name[] = {
+		"random", "maze", "rooms"
+	};
+
+	/** The smallest side of a room before it is not divided further. */
+	private static final int MIN_ROOM_SIZE = 3;
+
+	/** The number of times a grid is generated again when its success cell cannot be placed. */
+	private static final int MAX_ATTEMPTS = 100;
+
+	/** The seed of the dataset; each grid is seeded by this and its index. */
+	private long seed;
+
+	/** The probability of each cell being an obstacle, for random obstacle grids. */
+	private double obstacleDensity;
+
+	/** The probability of each remaining empty cell being a light. */
+	private double lightDensity;
+
+	/** The probability of each remaining empty cell being a failure. */
+	private double failureDensity;
+
+	/** Make the SSP version with costs or not. */
+	private boolean ssp;
+
+	/** Also export the POMDP or not. */
+	private boolean pomdp;
+
+	/** The number of generated grids which may wait to be exported. */
+	private int queueCapacity;
+
+	/** The number of threads creating and exporting models. */
+	private int numConsumers;
+
+	/** The throughput of the last export, in grids per second. */
+	private double gridsPerSecond;
+
+	/** The number of generated grids rejected, since the initial cell could reach no empty cell. */
+	private int numRejected;
+
+	/** A generated grid waiting in the queue; a null grid tells a consumer to stop. */
+	private static class Item {
+		public int index;
+		public GridCells grid;
+
+		public Item(int index, GridCells grid) {
+			this.index = index;
+			this.grid = grid;
+		}
+	}
+
+	/**
+	 * The constructor for the GridGenerator class.
+	 * @param	seed	The seed of the dataset.
+	 */
+	public GridGenerator(long seed) {
+		this.seed = seed;
+		this.obstacleDensity = 0.2;
+		this.lightDensity = 0.02;
+		this.failureDensity = 0.01;
+		this.ssp = false;
+		this.pomdp = false;
+		this.queueCapacity = 64;
+		this.numConsumers = Runtime.getRuntime().availableProcessors();
+		this.gridsPerSecond = 0.0;
+		this.numRejected = 0;
+	}
+
+	/**
+	 * Run the generator from the command line.
+	 * @param	args	The kind (random, maze, or rooms), width, height, number of grids, output directory, and optionally the seed.
+	 */
+	public static void main(String[] args) {
+		if (args.length < 5) {
+			System.out.println("Usage: GridGenerator <random|maze|rooms> <width> <height> <count> <directory> [seed]");
+			return;
+		}
+
+		int kind = -1;
+		for (int k = 0; k < NUM_KINDS; k++) {
+			if (name[k].equals(args[0])) {
+				kind = k;
+			}
+		}
+		if (kind < 0) {
+			System.out.println("Unknown kind of grid '" + args[0] + "'.");
+			return;
+		}
+
+		GridGenerator generator = new GridGenerator(args.length > 5 ? Long.parseLong(args[5]) : 0);
+		generator.export(kind, Integer.parseInt(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]), new File(args[4]));
+	}
+
+	/**
+	 * Set the probability of each cell being an obstacle, for random obstacle grids.
+	 * @param	obstacleDensity	The probability on [0, 1]; the default is 0.2.
+	 */
+	public void setObstacleDensity(double obstacleDensity) {
+		this.obstacleDensity = obstacleDensity;
+	}
+
+	/**
+	 * Set the probability of each remaining empty cell being a light.
+	 * @param	lightDensity	The probability on [0, 1]; the default is 0.02.
+	 */
+	public void setLightDensity(double lightDensity) {
+		this.lightDensity = lightDensity;
+	}
+
+	/**
+	 * Set the probability of each remaining empty cell being a failure.
+	 * @param	failureDensity	The probability on [0, 1]; the default is 0.01.
+	 */
+	public void setFailureDensity(double failureDensity) {
+		this.failureDensity = failureDensity;
+	}
+
+	/**
+	 * Set if the exported models are the SSP version with costs.
+	 * @param	ssp		Make the SSP version with costs or not; the default is not.
+	 */
+	public void setSSP(boolean ssp) {
+		this.ssp = ssp;
+	}
+
+	/**
+	 * Set if the POMDP of each grid is also exported.
+	 * @param	pomdp	Also export the POMDP or not; the default is not.
+	 */
+	public void setExportPOMDP(boolean pomdp) {
+		this.pomdp = pomdp;
+	}
+
+	/**
+	 * Set the number of generated grids which may wait to be exported.
+	 * @param	queueCapacity	The number of grids; the default is 64.
+	 */
+	public void setQueueCapacity(int queueCapacity) {
+		this.queueCapacity = Math.max(1, queueCapacity);
+	}
+
+	/**
+	 * Set the number of threads creating and exporting models.
+	 * @param	numConsumers	The number of threads; the default is the number of processors.
+	 */
+	public void setNumConsumers(int numConsumers) {
+		this.numConsumers = Math.max(1, numConsumers);
+	}
+
+	/**
+	 * Get the throughput of the last export.
+	 * @return	The number of grids exported per second.
+	 */
+	public double getGridsPerSecond() {
+		return gridsPerSecond;
+	}
+
+	/**
+	 * Get the number of grids rejected and generated again, since the last export started.
+	 * @return	The number of rejected grids.
+	 */
+	public int getNumRejected() {
+		return numRejected;
+	}
+
+	/**
+	 * Generate a grid whose success cell is reachable from its initial cell. The same seed, kind,
+	 * size, and index always give the same grid. A grid whose initial cell can reach no empty cell
+	 * is rejected and generated again.
+	 * @param	kind	The kind of grid.
+	 * @param	w		The width of the grid.
+	 * @param	h		The height of the grid.
+	 * @param	index	The index of the grid in the dataset.
+	 * @return	The grid of GridPanel.GridCellType values, or null if none was found in MAX_ATTEMPTS.
+	 */
+	public GridCells generate(int kind, int w, int h, long index) {
+		Random random = new Random(seed * 0x9E3779B97F4A7C15L + index);
+
+		for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+			GridCells grid = new GridCells(w, h);
+
+			if (kind == MAZE) {
+				create_maze(grid, w, h, random);
+			} else if (kind == ROOMS) {
+				create_rooms(grid, w, h, random);
+			} else {
+				for (int x = 0; x < w; x++) {
+					for (int y = 0; y < h; y++) {
+						if (random.nextDouble() < obstacleDensity) {
+							grid.set(x, y, GridPanel.GridCellType.OBSTACLE);
+						}
+					}
+				}
+			}
+
+			if (place_cells(grid, w, h, random)) {
+				return grid;
+			}
+			numRejected++;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Generate grids and export their models to a directory, as grid_<index>.mdp (and .pomdp),
+	 * printing the throughput.
+	 * @param	kind		The kind of grid.
+	 * @param	w			The width of the grids.
+	 * @param	h			The height of the grids.
+	 * @param	count		The number of grids.
+	 * @param	directory	The output directory, created if it does not exist.
+	 * @return	True if every model was exported.
+	 */
+	public boolean export(final int kind, final int w, final int h, final int count, final File directory) {
+		directory.mkdirs();
+
+		final ArrayBlockingQueue<Item> queue = new ArrayBlockingQueue<Item>(queueCapacity);
+		final AtomicInteger failures = new AtomicInteger(0);
+
+		numRejected = 0;
+		long start = System.nanoTime();
+
+		Thread producer = new Thread() {
+			@Override
+			public void run() {
+				try {
+					for (int i = 0; i < count; i++) {
+						GridCells grid = generate(kind, w, h, i);
+						if (grid != null) {
+							queue.put(new Item(i, grid));
+						} else {
+							System.out.println("Failed to generate grid " + i + " with a reachable success cell.");
+							failures.incrementAndGet();
+						}
+					}
+					for (int c = 0; c < numConsumers; c++) {
+						queue.put(new Item(-1, null));
+					}
+				} catch (InterruptedException e) {
+					failures.incrementAndGet();
+				}
+			}
+		};
+
+		ArrayList<Thread> consumers = new ArrayList<Thread>();
+		for (int c = 0; c < numConsumers; c++) {
+			consumers.add(new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (Item item = queue.take(); item.grid != null; item = queue.take()) {
+							if (!export_model(item, w, h, directory)) {
+								failures.incrementAndGet();
+							}
+						}
+					} catch (InterruptedException e) {
+						failures.incrementAndGet();
+					}
+				}
+			});
+		}
+
+		producer.start();
+		for (Thread consumer : consumers) {
+			consumer.start();
+		}
+
+		try {
+			producer.join();
+			for (Thread consumer : consumers) {
+				consumer.join();
+			}
+		} catch (InterruptedException e) {
+			System.out.println("Interrupted while generating the grids.");
+			return false;
+		}
+
+		// Only the exported grids count; rejected and failed ones do not.
+		double seconds = (System.nanoTime() - start) / 1e9;
+		int exported = count - failures.get();
+		gridsPerSecond = exported / seconds;
+		System.out.println("Exported " + exported + " " + name[kind] + " grids of " + w + "x" + h +
+				" in " + String.format("%.2f", seconds) + " s (" + String.format("%.1f", gridsPerSecond) + " grids/s, " +
+				numRejected + " rejected).");
+
+		return (failures.get() == 0);
+	}
+
+	/**
+	 * Create the model of a generated grid and export it.
+	 * @param	item		The generated grid.
+	 * @param	w			The width of the grid.
+	 * @param	h			The height of the grid.
+	 * @param	directory	The output directory.
+	 * @return	The success of exporting.
+	 */
+	private boolean export_model(Item item, int w, int h, File directory) {
+		GridMarkov model = new GridMarkov();
+		model.setCreatePOMDP(pomdp);
+		if (model.create(item.grid, ssp) == null) {
+			System.out.println("Failed to create the model of grid " + item.index + ".");
+			return false;
+		}
+
+		String prefix = String.format("grid_%07d", item.index);
+
+		try {
+			BufferedWriter writer = new BufferedWriter(new FileWriter(new File(directory, prefix + ".mdp")));
+			boolean saved = model.saveMDP(writer);
+			writer.close();
+
+			if (saved && pomdp) {
+				writer = new BufferedWriter(new FileWriter(new File(directory, prefix + ".pomdp")));
+				saved = model.savePOMDP(writer);
+				writer.close();
+			}
+
+			if (!saved) {
+				System.out.println("Failed to export grid " + item.index + ".");
+			}
+			return saved;
+		} catch (Exception e) {
+			System.out.println("Failed to export grid " + item.index + ".");
+			return false;
+		}
+	}
+
+	/**
+	 * Carve a maze with a randomized depth-first search. The passages are the cells with even
+	 * coordinates and the walls between them; everything else is an obstacle.
+	 * @param 	grid	The grid.
+	 * @param 	w		The width of the grid.
+	 * @param 	h		The height of the grid.
+	 * @param	random	The random number generator.
+	 */
+	private void create_maze(GridCells grid, int w, int h, Random random) {
+		grid.fill(GridPanel.GridCellType.OBSTACLE);
+
+		int mw = (w + 1) / 2;
+		int mh = (h + 1) / 2;
+		boolean visited[] = new boolean[mw * mh];
+		int stack[] = new int[mw * mh];
+		int top = 0;
+
+		int start = random.nextInt(mw * mh);
+		stack[top++] = start;
+		visited[start] = true;
+		grid.set((start % mw) * 2, (start / mw) * 2, GridPanel.GridCellType.EMPTY);
+
+		int neighbors[] = new int[4];
+		while (top > 0) {
+			int c = stack[top - 1];
+			int cx = c % mw;
+			int cy = c / mw;
+
+			int numNeighbors = 0;
+			if (cx > 0 && !visited[c - 1]) {
+				neighbors[numNeighbors++] = c - 1;
+			}
+			if (cy > 0 && !visited[c - mw]) {
+				neighbors[numNeighbors++] = c - mw;
+			}
+			if (cx < mw - 1 && !visited[c + 1]) {
+				neighbors[numNeighbors++] = c + 1;
+			}
+			if (cy < mh - 1 && !visited[c + mw]) {
+				neighbors[numNeighbors++] = c + mw;
+			}
+
+			if (numNeighbors == 0) {
+				top--;
+				continue;
+			}
+
+			int next = neighbors[random.nextInt(numNeighbors)];
+			int nx = next % mw;
+			int ny = next / mw;
+
+			// Knock down the wall between the two cells.
+			grid.set(cx + nx, cy + ny, GridPanel.GridCellType.EMPTY);
+			grid.set(nx * 2, ny * 2, GridPanel.GridCellType.EMPTY);
+
+			visited[next] = true;
+			stack[top++] = next;
+		}
+	}
+
+	/**
+	 * Divide the grid into rooms by recursive division: each room is split by a wall with one
+	 * door, until the rooms are too small. Each door and the cells on either side of it are kept
+	 * clear, so later walls never close it, and all the rooms stay connected.
+	 * @param 	grid	The grid.
+	 * @param 	w		The width of the grid.
+	 * @param 	h		The height of the grid.
+	 * @param	random	The random number generator.
+	 */
+	private void create_rooms(GridCells grid, int w, int h, Random random) {
+		// Each room is x, y, width, height.
+		ArrayList<int[]> rooms = new ArrayList<int[]>();
+		rooms.add(new int[] {0, 0, w, h});
+
+		boolean clear[] = new boolean[w * h];
+
+		while (!rooms.isEmpty()) {
+			int room[] = rooms.remove(rooms.size() - 1);
+			int rx = room[0];
+			int ry = room[1];
+			int rw = room[2];
+			int rh = room[3];
+
+			boolean vertical = (rw > rh || (rw == rh && random.nextBoolean()));
+
+			if (vertical && rw >= 2 * MIN_ROOM_SIZE + 1) {
+				int wx = rx + MIN_ROOM_SIZE + random.nextInt(rw - 2 * MIN_ROOM_SIZE);
+				int door = ry + random.nextInt(rh);
+				clear[door * w + wx - 1] = true;
+				clear[door * w + wx] = true;
+				clear[door * w + wx + 1] = true;
+				for (int y = ry; y < ry + rh; y++) {
+					if (!clear[y * w + wx]) {
+						grid.set(wx, y, GridPanel.GridCellType.OBSTACLE);
+					}
+				}
+				rooms.add(new int[] {rx, ry, wx - rx, rh});
+				rooms.add(new int[] {wx + 1, ry, rx + rw - wx - 1, rh});
+			} else if (!vertical && rh >= 2 * MIN_ROOM_SIZE + 1) {
+				int wy = ry + MIN_ROOM_SIZE + random.nextInt(rh - 2 * MIN_ROOM_SIZE);
+				int door = rx + random.nextInt(rw);
+				clear[(wy - 1) * w + door] = true;
+				clear[wy * w + door] = true;
+				clear[(wy + 1) * w + door] = true;
+				for (int x = rx; x < rx + rw; x++) {
+					if (!clear[wy * w + x]) {
+						grid.set(x, wy, GridPanel.GridCellType.OBSTACLE);
+					}
+				}
+				rooms.add(new int[] {rx, ry, rw, wy - ry});
+				rooms.add(new int[] {rx, wy + 1, rw, ry + rh - wy - 1});
+			}
+		}
+	}
+
+	/**
+	 * Place an initial cell on a random empty cell and a success cell on a random empty cell
+	 * reachable from it, then the lights and failures on the other empty cells by their densities.
+	 * Failures are kept off a shortest path from the initial cell to the success cell, so the
+	 * success cell stays reachable.
+	 * @param 	grid	The grid.
+	 * @param 	w		The width of the grid.
+	 * @param 	h		The height of the grid.
+	 * @param	random	The random number generator.
+	 * @return	True if the cells were placed, or false if no empty cell is reachable from the initial cell.
+	 */
+	private boolean place_cells(GridCells grid, int w, int h, Random random) {
+		byte cells[] = grid.getCells();
+
+		int initial = pick_empty(cells, null, random);
+		if (initial < 0) {
+			return false;
+		}
+		cells[initial] = GridPanel.GridCellType.INITIAL;
+
+		// Breadth-first search through the empty cells from the initial cell, remembering the
+		// cell each one was reached from.
+		int parent[] = new int[w * h];
+		boolean reachable[] = new boolean[w * h];
+		int queue[] = new int[w * h];
+		int head = 0;
+		int tail = 0;
+
+		queue[tail++] = initial;
+		reachable[initial] = true;
+		parent[initial] = -1;
+
+		while (head < tail) {
+			int c = queue[head++];
+			int x = c % w;
+			int y = c / w;
+
+			int neighbors[] = {
+				(x > 0 ? c - 1 : -1), (y > 0 ? c - w : -1), (x < w - 1 ? c + 1 : -1), (y < h - 1 ? c + w : -1)
+			};
+			for (int next : neighbors) {
+				if (next >= 0 && !reachable[next] && cells[next] == GridPanel.GridCellType.EMPTY) {
+					reachable[next] = true;
+					parent[next] = c;
+					queue[tail++] = next;
+				}
+			}
+		}
+
+		int success = pick_empty(cells, reachable, random);
+		if (success < 0) {
+			return false;
+		}
+		cells[success] = GridPanel.GridCellType.SUCCESS;
+
+		boolean path[] = new boolean[w * h];
+		for (int c = success; c >= 0; c = parent[c]) {
+			path[c] = true;
+		}
+
+		for (int c = 0; c < w * h; c++) {
+			if (cells[c] == GridPanel.GridCellType.EMPTY) {
+				double p = random.nextDouble();
+				if (p < lightDensity) {
+					cells[c] = GridPanel.GridCellType.LIGHT;
+				} else if (p < lightDensity + failureDensity && !path[c]) {
+					cells[c] = GridPanel.GridCellType.FAILURE;
+				}
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Pick a random empty cell.
+	 * @param	cells		The cells of the grid.
+	 * @param	allowed		Which cells may be picked, or null for all of them.
+	 * @param	random		The random number generator.
+	 * @return	The index of the cell, or -1 if there is none.
+	 */
+	private int pick_empty(byte cells[], boolean allowed[], Random random) {
+		int numEmpty = 0;
+		for (int c = 0; c < cells.length; c++) {
+			if (cells[c] == GridPanel.GridCellType.EMPTY && (allowed == null || allowed[c])) {
+				numEmpty++;
+			}
+		}
+		if (numEmpty == 0) {
+			return -1;
+		}
+
+		int k = random.nextInt(numEmpty);
+		for (int c = 0; c < cells.length; c++) {
+			if (cells[c] == GridPanel.GridCellType.EMPTY && (allowed == null || allowed[c])) {
+				if (k == 0) {
+					return c;
+				}
+				k--;
+			}
+		}
+
+		return -1;
+	}
+
+}
@@ -0,0 +1,287 @@
+/**
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2014 Kyle Hollins Wray, University of Massachusetts
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of
+ *  this software and associated documentation files (the "Software"), to deal in
+ *  the Software without restriction, including without limitation the rights to
+ *  use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ *  the Software, and to permit persons to whom the Software is furnished to do so,
+ *  subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ *  FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ *  IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *  CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+
+/**
+ * A distance heuristic over a grid: the fewest moves from each cell to a success cell, computed
+ * by a breadth-first search from all success cells at once. As in the model, only empty-ish cells
+ * can move, and never into obstacles, so failures and dead ends cannot reach success. Distances
+ * can be scaled by the expected number of attempts per move under the slip model. When cells
+ * change, only the affected distances are repaired.
+ */
+public class GridHeuristic {
+
+	/** The distance of cells which cannot reach a success cell. */
+	public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+	private int width;
+	private int height;
+
+	/** The type of each cell (y * w + x). */
+	private byte cells[];
+
+	/** The distance of each cell (y * w + x) to the nearest success cell. */
+	private int distances[];
+
+	/** The expected number of attempts per move; one without slipping. */
+	private double scale;
+
+	/** The number of distances recomputed by the last repair. */
+	private int numRepaired;
+
+	/**
+	 * The constructor for the GridHeuristic class, which computes every distance.
+	 * @param 	grid	The grid, which is copied so later edits go through setCell.
+	 */
+	public GridHeuristic(GridCells grid) {
+		width = grid.getWidth();
+		height = grid.getHeight();
+		scale = 1.0;
+		numRepaired = 0;
+
+		cells = Arrays.copyOf(grid.getCells(), width * height);
+
+		distances = new int[width * height];
+		compute_distances();
+	}
+
+	/**
+	 * Scale the distances by the expected number of attempts per move under the slip model.
+	 * Deviations move sideways rather than back, so each move takes 1 / forwardProbability
+	 * attempts on average.
+	 * @param	forwardProbability	The probability of moving in the chosen direction, e.g., 0.8; one to not scale.
+	 */
+	public void setForwardProbability(double forwardProbability) {
+		scale = 1.0 / forwardProbability;
+	}
+
+	/**
+	 * Get the fewest moves from a cell to a success cell.
+	 * @param	x	The x location of the cell.
+	 * @param	y	The y location of the cell.
+	 * @return	The distance, or UNREACHABLE.
+	 */
+	public int getDistance(int x, int y) {
+		return distances[y * width + x];
+	}
+
+	/**
+	 * Get the expected number of moves from a cell to a success cell.
+	 * @param	x	The x location of the cell.
+	 * @param	y	The y location of the cell.
+	 * @return	The heuristic, or infinity if the cell cannot reach a success cell.
+	 */
+	public double getHeuristic(int x, int y) {
+		int distance = distances[y * width + x];
+		return (distance == UNREACHABLE ? Double.POSITIVE_INFINITY : distance * scale);
+	}
+
+	/**
+	 * Get the distance of every cell.
+	 * @return	The distance of each cell (y * w + x), or UNREACHABLE.
+	 */
+	public int[] getDistances() {
+		return distances;
+	}
+
+	/**
+	 * Get the heuristic of each state of a model created from the grid, e.g., for a planner.
+	 * @param	model	The model.
+	 * @return	The heuristic of each state; the terminal state's is zero.
+	 */
+	public double[] getStateHeuristics(GridMarkov model) {
+		double heuristics[] = new double[model.getNumStates()];
+		for (int s = 0; s < model.getNumStates(); s++) {
+			int c = model.getStateCell(s);
+			if (c >= 0) {
+				heuristics[s] = getHeuristic(c % width, c / width);
+			}
+		}
+		return heuristics;
+	}
+
+	/**
+	 * Get the number of distances recomputed by the last call to setCell.
+	 * @return	The number of cells.
+	 */
+	public int getNumRepaired() {
+		return numRepaired;
+	}
+
+	/**
+	 * Change a cell and repair the distances. The distances which depended on the cell are
+	 * recomputed from their unaffected neighbors, then any shorter paths are propagated.
+	 * @param	x			The x location of the cell.
+	 * @param	y			The y location of the cell.
+	 * @param	cellType	The new type of the cell.
+	 */
+	public void setCell(int x, int y, int cellType) {
+		int c = y * width + x;
+		if (cells[c] == cellType) {
+			numRepaired = 0;
+			return;
+		}
+		cells[c] = (byte)cellType;
+
+		// Invalidate the cell and every distance which may depend on it: cells whose distance is one
+		// more than an invalidated neighbor they can move into.
+		int affected[] = new int[16];
+		int numAffected = 0;
+		affected[numAffected++] = c;
+		int oldDistance[] = new int[16];
+		oldDistance[0] = distances[c];
+		distances[c] = UNREACHABLE;
+
+		for (int head = 0; head < numAffected; head++) {
+			int a = affected[head];
+			if (oldDistance[head] == UNREACHABLE) {
+				continue;
+			}
+			int neighbors[] = neighbors_of(a);
+			for (int nb : neighbors) {
+				if (nb >= 0 && distances[nb] != UNREACHABLE && distances[nb] == oldDistance[head] + 1 && can_move(nb)) {
+					if (numAffected == affected.length) {
+						affected = Arrays.copyOf(affected, 2 * affected.length);
+						oldDistance = Arrays.copyOf(oldDistance, 2 * oldDistance.length);
+					}
+					affected[numAffected] = nb;
+					oldDistance[numAffected] = distances[nb];
+					numAffected++;
+					distances[nb] = UNREACHABLE;
+				}
+			}
+		}
+
+		// Seed the invalidated cells from their neighbors, then propagate shorter distances.
+		PriorityQueue<Long> queue = new PriorityQueue<Long>();
+		for (int i = 0; i < numAffected; i++) {
+			int a = affected[i];
+			int distance = seed_distance(a);
+			if (distance < distances[a]) {
+				distances[a] = distance;
+				queue.add(((long)distance << 32) | a);
+			}
+		}
+
+		numRepaired = numAffected;
+		while (!queue.isEmpty()) {
+			long entry = queue.poll();
+			int a = (int)(entry & 0xFFFFFFFFL);
+			int distance = (int)(entry >>> 32);
+			if (distance != distances[a]) {
+				continue; // Stale.
+			}
+
+			for (int nb : neighbors_of(a)) {
+				if (nb >= 0 && can_move(nb) && distance + 1 < distances[nb]) {
+					distances[nb] = distance + 1;
+					queue.add(((long)(distance + 1) << 32) | nb);
+					numRepaired++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Compute every distance by a breadth-first search from all success cells.
+	 */
+	private void compute_distances() {
+		Arrays.fill(distances, UNREACHABLE);
+
+		int queue[] = new int[width * height];
+		int head = 0;
+		int tail = 0;
+		for (int c = 0; c < width * height; c++) {
+			if (cells[c] == GridPanel.GridCellType.SUCCESS) {
+				distances[c] = 0;
+				queue[tail++] = c;
+			}
+		}
+
+		while (head < tail) {
+			int c = queue[head++];
+			for (int nb : neighbors_of(c)) {
+				if (nb >= 0 && can_move(nb) && distances[nb] == UNREACHABLE) {
+					distances[nb] = distances[c] + 1;
+					queue[tail++] = nb;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Compute the distance of a cell from its neighbors' distances.
+	 * @param	c	The cell.
+	 * @return	Zero for a success cell, one more than the nearest neighbor for an empty-ish cell, or UNREACHABLE.
+	 */
+	private int seed_distance(int c) {
+		if (cells[c] == GridPanel.GridCellType.SUCCESS) {
+			return 0;
+		} else if (!can_move(c)) {
+			return UNREACHABLE;
+		}
+
+		int distance = UNREACHABLE;
+		for (int nb : neighbors_of(c)) {
+			if (nb >= 0 && distances[nb] != UNREACHABLE) {
+				distance = Math.min(distance, distances[nb] + 1);
+			}
+		}
+		return distance;
+	}
+
+	/**
+	 * Check if a cell can move, i.e., is empty-ish.
+	 * @param	c	The cell.
+	 * @return	True or false.
+	 */
+	private boolean can_move(int c) {
+		return (cells[c] == GridPanel.GridCellType.EMPTY || cells[c] == GridPanel.GridCellType.LIGHT || cells[c] == GridPanel.GridCellType.INITIAL);
+	}
+
+	/**
+	 * Get the four neighbors of a cell. Obstacles, which cannot be moved into, and cells off the grid are -1.
+	 * @param	c	The cell.
+	 * @return	The left, up, right, and down neighbors.
+	 */
+	private int[] neighbors_of(int c) {
+		int x = c % width;
+		int y = c / width;
+		int neighbors[] = {
+			(x > 0 ? c - 1 : -1),
+			(y > 0 ? c - width : -1),
+			(x < width - 1 ? c + 1 : -1),
+			(y < height - 1 ? c + width : -1)
+		};
+		for (int i = 0; i < neighbors.length; i++) {
+			if (neighbors[i] >= 0 && cells[neighbors[i]] == GridPanel.GridCellType.OBSTACLE) {
+				neighbors[i] = -1;
+			}
+		}
+		return neighbors;
+	}
+
+}
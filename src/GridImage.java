@@ -0,0 +1,380 @@
+/**
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2014 Kyle Hollins Wray, University of Massachusetts
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of
+ *  this software and associated documentation files (the "Software"), to deal in
+ *  the Software without restriction, including without limitation the rights to
+ *  use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ *  the Software, and to permit persons to whom the Software is furnished to do so,
+ *  subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ *  FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ *  IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *  CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.util.HashMap;
+
+import javax.imageio.ImageIO;
+
+
+/**
+ * The import and export of grids as bitmap images, one pixel per cell. Colors map to the cell type
+ * with the nearest of GridPanel.GridCellType.colors, and transparent pixels are empty. Images are
+ * exported as 8-bit palette images whose palette is exactly those colors, so the cell array itself
+ * is the raster and they import back without any color matching. On import, the raster data is
+ * read directly in bulk for the common layouts (palette, gray, and 3 or 4 byte or packed int
+ * colors), falling back to whole rows of RGB colors for any other.
+ */
+public class GridImage {
+
+	/** The smallest alpha of an opaque pixel; any less is empty. */
+	private static final int MIN_ALPHA = 128;
+
+	/**
+	 * Check if a file is an image which can be read or written, by its extension.
+	 * @param	file	The file.
+	 * @return	True or false.
+	 */
+	public static boolean isImageFile(File file) {
+		String suffix = get_suffix(file);
+		return (suffix != null && ImageIO.getImageReadersBySuffix(suffix).hasNext());
+	}
+
+	/**
+	 * Read a grid from an image file.
+	 * @param	file	The file to read.
+	 * @return	The grid, or null if it failed.
+	 */
+	public static GridCells read(File file) {
+		BufferedImage image = null;
+		try {
+			image = ImageIO.read(file);
+		} catch (Exception e) {
+			System.out.println("Failed to read the image file '" + file.getName() + "'.");
+			e.printStackTrace();
+			return null;
+		}
+
+		if (image == null) {
+			System.out.println("The file '" + file.getName() + "' is not in a supported image format.");
+			return null;
+		}
+
+		return toGrid(image);
+	}
+
+	/**
+	 * Write a grid to an image file, in the format of its extension (PNG if it has none).
+	 * @param	grid	The grid.
+	 * @param	file	The file to write.
+	 * @return	The success of writing.
+	 */
+	public static boolean write(GridCells grid, File file) {
+		String suffix = get_suffix(file);
+		if (suffix == null) {
+			suffix = "png";
+		}
+
+		try {
+			if (!ImageIO.write(toImage(grid), suffix, file)) {
+				System.out.println("The format '" + suffix + "' cannot store palette images.");
+				return false;
+			}
+		} catch (Exception e) {
+			System.out.println("Failed to write the image file '" + file.getName() + "'.");
+			e.printStackTrace();
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Create a palette image of a grid. It shares the grid's cell array as its raster, without copying.
+	 * @param	grid	The grid.
+	 * @return	The image.
+	 */
+	public static BufferedImage toImage(GridCells grid) {
+		int numColors = GridPanel.GridCellType.NUM_CELL_TYPES;
+		byte r[] = new byte[numColors];
+		byte g[] = new byte[numColors];
+		byte b[] = new byte[numColors];
+		for (int i = 0; i < numColors; i++) {
+			Color color = GridPanel.GridCellType.colors[i];
+			r[i] = (byte)color.getRed();
+			g[i] = (byte)color.getGreen();
+			b[i] = (byte)color.getBlue();
+		}
+		IndexColorModel colorModel = new IndexColorModel(8, numColors, r, g, b);
+
+		int w = grid.getWidth();
+		int h = grid.getHeight();
+		DataBufferByte buffer = new DataBufferByte(grid.getCells(), w * h);
+		WritableRaster raster = Raster.createInterleavedRaster(buffer, w, h, w, 1, new int[] { 0 }, null);
+
+		return new BufferedImage(colorModel, raster, false, null);
+	}
+
+	/**
+	 * Convert an image to a grid, one cell per pixel.
+	 * @param	image	The image.
+	 * @return	The grid.
+	 */
+	public static GridCells toGrid(BufferedImage image) {
+		int w = image.getWidth();
+		int h = image.getHeight();
+		ColorModel colorModel = image.getColorModel();
+		Raster raster = image.getRaster();
+		SampleModel sampleModel = raster.getSampleModel();
+		DataBuffer dataBuffer = raster.getDataBuffer();
+
+		// Only rasters which start at the top-left of their own data can be read directly.
+		boolean direct = (raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0
+				&& dataBuffer.getNumBanks() == 1 && sampleModel instanceof ComponentSampleModel);
+
+		if (direct && dataBuffer instanceof DataBufferByte) {
+			ComponentSampleModel components = (ComponentSampleModel)sampleModel;
+			byte data[] = ((DataBufferByte)dataBuffer).getData();
+			int offset = dataBuffer.getOffset();
+			int pixelStride = components.getPixelStride();
+			int scanlineStride = components.getScanlineStride();
+			int bandOffsets[] = components.getBandOffsets();
+
+			if (colorModel instanceof IndexColorModel && bandOffsets.length == 1 && pixelStride == 1) {
+				return palette_to_grid(data, offset, scanlineStride, w, h, palette_to_types((IndexColorModel)colorModel));
+			}
+			if (colorModel.getNumComponents() == 1 && bandOffsets.length == 1 && pixelStride == 1) {
+				// Gray levels, taken as they are stored.
+				byte types[] = new byte[256];
+				for (int i = 0; i < 256; i++) {
+					types[i] = (byte)nearest_type(i, i, i);
+				}
+				return palette_to_grid(data, offset, scanlineStride, w, h, types);
+			}
+			if (colorModel.getNumComponents() >= 3 && bandOffsets.length >= 3) {
+				return bytes_to_grid(data, offset, pixelStride, scanlineStride, bandOffsets, w, h);
+			}
+		}
+
+		boolean packed = (raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0
+				&& dataBuffer.getOffset() == 0 && sampleModel instanceof SinglePixelPackedSampleModel
+				&& ((SinglePixelPackedSampleModel)sampleModel).getScanlineStride() == w);
+
+		if (packed && (image.getType() == BufferedImage.TYPE_INT_RGB || image.getType() == BufferedImage.TYPE_INT_ARGB)) {
+			int data[] = ((DataBufferInt)dataBuffer).getData();
+			return ints_to_grid(data, image.getType() == BufferedImage.TYPE_INT_ARGB, w, h);
+		}
+
+		// Any other layout: convert whole rows to RGB colors.
+		GridCells grid = new GridCells(w, h);
+		byte cells[] = grid.getCells();
+		ColorCache cache = new ColorCache();
+		int row[] = new int[w];
+		for (int y = 0; y < h; y++) {
+			image.getRGB(0, y, w, 1, row, 0, w);
+			for (int x = 0; x < w; x++) {
+				cells[y * w + x] = cache.get(row[x]);
+			}
+		}
+		return grid;
+	}
+
+	/**
+	 * Convert the pixels of an 8-bit palette (or gray) image to a grid through a lookup table.
+	 * @param	data			The pixels.
+	 * @param	offset			The index of the first pixel.
+	 * @param	scanlineStride	The distance between rows.
+	 * @param	w				The width.
+	 * @param	h				The height.
+	 * @param	types			The cell type of each of the 256 pixel values.
+	 * @return	The grid.
+	 */
+	private static GridCells palette_to_grid(byte data[], int offset, int scanlineStride, int w, int h, byte types[]) {
+		GridCells grid = new GridCells(w, h);
+		byte cells[] = grid.getCells();
+		for (int y = 0; y < h; y++) {
+			int p = offset + y * scanlineStride;
+			for (int c = y * w; c < (y + 1) * w; c++) {
+				cells[c] = types[data[p++] & 0xFF];
+			}
+		}
+		return grid;
+	}
+
+	/**
+	 * Map each entry of a palette to the nearest cell type.
+	 * @param	colorModel	The palette.
+	 * @return	The cell type of each of the 256 pixel values.
+	 */
+	private static byte[] palette_to_types(IndexColorModel colorModel) {
+		byte types[] = new byte[256];
+		for (int i = 0; i < colorModel.getMapSize(); i++) {
+			types[i] = (byte)nearest_type(colorModel.getRGB(i));
+		}
+		return types;
+	}
+
+	/**
+	 * Convert the pixels of an interleaved 3 or 4 byte color image to a grid.
+	 * @param	data			The pixels.
+	 * @param	offset			The index of the first pixel.
+	 * @param	pixelStride		The distance between pixels.
+	 * @param	scanlineStride	The distance between rows.
+	 * @param	bandOffsets		The offsets of red, green, blue, and alpha if any.
+	 * @param	w				The width.
+	 * @param	h				The height.
+	 * @return	The grid.
+	 */
+	private static GridCells bytes_to_grid(byte data[], int offset, int pixelStride, int scanlineStride,
+			int bandOffsets[], int w, int h) {
+		GridCells grid = new GridCells(w, h);
+		byte cells[] = grid.getCells();
+		ColorCache cache = new ColorCache();
+
+		int r = bandOffsets[0];
+		int g = bandOffsets[1];
+		int b = bandOffsets[2];
+		int a = (bandOffsets.length > 3 ? bandOffsets[3] : -1);
+
+		for (int y = 0; y < h; y++) {
+			int p = offset + y * scanlineStride;
+			for (int c = y * w; c < (y + 1) * w; c++) {
+				int alpha = (a >= 0 ? data[p + a] & 0xFF : 0xFF);
+				int argb = (alpha << 24) | ((data[p + r] & 0xFF) << 16) | ((data[p + g] & 0xFF) << 8) | (data[p + b] & 0xFF);
+				cells[c] = cache.get(argb);
+				p += pixelStride;
+			}
+		}
+		return grid;
+	}
+
+	/**
+	 * Convert the pixels of a packed int RGB or ARGB image to a grid.
+	 * @param	data		The pixels.
+	 * @param	hasAlpha	If the pixels have an alpha.
+	 * @param	w			The width.
+	 * @param	h			The height.
+	 * @return	The grid.
+	 */
+	private static GridCells ints_to_grid(int data[], boolean hasAlpha, int w, int h) {
+		GridCells grid = new GridCells(w, h);
+		byte cells[] = grid.getCells();
+		ColorCache cache = new ColorCache();
+		int opaque = (hasAlpha ? 0 : 0xFF000000);
+		for (int c = 0; c < w * h; c++) {
+			cells[c] = cache.get(data[c] | opaque);
+		}
+		return grid;
+	}
+
+	/**
+	 * Get the cell type with the nearest color to an ARGB color; transparent colors are empty.
+	 * @param	argb	The color.
+	 * @return	The cell type.
+	 */
+	private static int nearest_type(int argb) {
+		if ((argb >>> 24) < MIN_ALPHA) {
+			return GridPanel.GridCellType.EMPTY;
+		}
+		return nearest_type((argb >> 16) & 0xFF, (argb >> 8) & 0xFF, argb & 0xFF);
+	}
+
+	/**
+	 * Get the cell type with the nearest color to an RGB color, by squared distance.
+	 * @param	r	The red.
+	 * @param	g	The green.
+	 * @param	b	The blue.
+	 * @return	The cell type.
+	 */
+	private static int nearest_type(int r, int g, int b) {
+		int nearest = GridPanel.GridCellType.EMPTY;
+		int nearestDistance = Integer.MAX_VALUE;
+		for (int i = 0; i < GridPanel.GridCellType.NUM_CELL_TYPES; i++) {
+			Color color = GridPanel.GridCellType.colors[i];
+			int dr = color.getRed() - r;
+			int dg = color.getGreen() - g;
+			int db = color.getBlue() - b;
+			int distance = dr * dr + dg * dg + db * db;
+			if (distance < nearestDistance) {
+				nearest = i;
+				nearestDistance = distance;
+			}
+		}
+		return nearest;
+	}
+
+	/**
+	 * Get the file extension of a file, in lower case.
+	 * @param	file	The file.
+	 * @return	The extension, or null if it has none.
+	 */
+	private static String get_suffix(File file) {
+		String name = file.getName();
+		int dot = name.lastIndexOf('.');
+		if (dot < 0 || dot == name.length() - 1) {
+			return null;
+		}
+		return name.substring(dot + 1).toLowerCase();
+	}
+
+	/**
+	 * A cache of the cell types of colors. Plans have few distinct colors, and runs of the same
+	 * one, so the last color is checked first and the rest are matched only once each.
+	 */
+	private static class ColorCache {
+		/** The last color and its cell type. */
+		private int lastColor = 0;
+		private byte lastType = (byte)nearest_type(0);
+
+		/** The cell type of every color seen. */
+		private HashMap<Integer, Byte> types = new HashMap<Integer, Byte>();
+
+		/**
+		 * Get the cell type of an ARGB color.
+		 * @param	argb	The color.
+		 * @return	The cell type.
+		 */
+		public byte get(int argb) {
+			// Every transparent color is the same.
+			if ((argb >>> 24) < MIN_ALPHA) {
+				argb = 0;
+			}
+			if (argb == lastColor) {
+				return lastType;
+			}
+
+			Byte type = types.get(argb);
+			if (type == null) {
+				type = (byte)nearest_type(argb);
+				types.put(argb, type);
+			}
+
+			lastColor = argb;
+			lastType = type;
+			return lastType;
+		}
+	}
+
+}
@@ -22,79 +22,564 @@
  */
 
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
+import java.io.Writer;
+import java.lang.ref.WeakReference;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 public class GridMarkov {
 
+	private int width;
+	private int height;
+	private boolean ssp;
+	
 	private int n;
 	private int terminalState = -1;
 	
-	private static final int m = 4;
-	private static final int LEFT_ACTION = 0;
-	private static final int UP_ACTION = 1;
-	private static final int RIGHT_ACTION = 2;
-	private static final int DOWN_ACTION = 3;
+	private int cellState[] = null; // The state of each cell (y * w + x), or -1 if pruned.
+	private int stateCell[] = null; // The cell of each state; the terminal state has none.
+	private int numPrunedStates = 0;
+	private boolean pruneUnreachable = true;
+	private boolean pomdp = true;
+	
+	private int m = 4;
+	private GridActionModel actionModel = GridActionModel.createFourConnected(false);
 	
 	private int z;
 	private int inTheDarkObservation = -1;
 	private int absorbingObservation = -1;
 	
-	private double T[][][] = null;
-	private static final double FORWARD_PROBABILITY = 0.8;
-	private static final double DEVIATE_PROBABILITY = 0.1; // Two of these.
+	private int maxSuccessors = 3; // The number of successor slots of each state-action pair.
+	private int S[] = null; // The successors of state-action pair (s, a) start at (s * m + a) * maxSuccessors; -1 marks unused slots.
+	private double T[] = null; // The probability of each of those successors, or null with compact storage.
+	private byte TCodes[] = null; // With compact storage, the index of each probability in TTable.
+	private double TTable[] = null; // With compact storage, the distinct probabilities (at most 256).
+	private boolean compactStorage = false;
+	private byte forwardCounts[] = null; // How many forward moves were merged into each successor slot.
+	private byte deviateCounts[] = null; // How many deviations were merged into each successor slot.
 	
-	private double O[][][] = null;
-	private static final double LIGHT_LOCALIZATION_PROBABILITY = 1.0;
-	private static final double DIM_LIGHT_LOCALIZATION_PROBABILITY = 0.8;
+	private static final int MAX_OBSERVATIONS = 2; // A light (or dim light) and "in the dark".
+	private int Z[] = null; // The observations of reaching state sp start at sp * MAX_OBSERVATIONS, whatever the action; -1 marks unused slots.
+	private double O[] = null; // The probability of each of those observations.
 	
 	private double R[] = null;
-	private static final double EMPTY_REWARD = -0.03;
-	private static final double OBSTACLE_REWARD = 0.0;
-	private static final double SUCCESS_REWARD = 1.0;
-	private static final double FAILURE_REWARD = -1.0;
-	private static final double DEAD_END_REWARD = -1.0;
-	private static final double TERMINAL_STATE_REWARD = 0.0;
-	private static final double LIGHT_REWARD = EMPTY_REWARD;
-	private static final double INITIAL_REWARD = EMPTY_REWARD;
-
-	private static final double EMPTY_COST = 1.0;
-	private static final double OBSTACLE_COST = 0.0;
-	private static final double SUCCESS_COST = 0.0;
-	private static final double FAILURE_COST = 100.0;
-	private static final double DEAD_END_COST = 100.0;
-	private static final double TERMINAL_STATE_COST = 0.0;
-	private static final double LIGHT_COST = EMPTY_COST;
-	private static final double INITIAL_COST = EMPTY_COST;
+	private byte stateType[] = null; // The cell type of each state; the terminal state has -1.
+	
+	private GridMarkovParameters parameters = new GridMarkovParameters();
 
 	private int s0 = -1;
 	private int ng = -1;
 	private int goals[] = null;
 	
 	private int r;
-	private double B[][] = null;
-	private static final double CELL_AND_NEIGHBOR_PROBABILITY = 0.75;
+	private static final int MAX_BELIEF_STATES = 5; // A cell and its four neighbors.
+	private int BS[] = null; // The non-zero states of belief point i start at i * MAX_BELIEF_STATES, in increasing order; -1 marks unused slots.
+	private double B[] = null; // The probability of each of those states.
+	private boolean neighborBeliefs = false;
+	private static final int PARALLEL_BELIEF_CELLS = 1 << 16; // Smaller grids create their belief points on one thread.
 	
 	private int horizon = 250;
 	private double gamma = 0.9;
 	
+	private static final int BINARY_VERSION = 6; // Bump whenever the binary format or model construction changes.
+	
+	private boolean frozen = false; // A snapshot never changes, so any thread can read it without locks.
+	private WeakReference<GridMarkov> lastSnapshot = null; // The snapshot of the last create, whose unchanged arrays the next one shares while it is in use.
+	
 	/**
 	 * The constructor.
 	 */
 	public GridMarkov() {
 	}
 	
+	/**
+	 * Construct an MDP (or SSP) directly from its successors, probabilities, and rewards. The
+	 * result has no grid cells, observations, or belief points, so only saveMDP is available.
+	 * @param	m				The number of actions.
+	 * @param	maxSuccessors	The number of successor slots of each state-action pair.
+	 * @param	S				The successor states for each state-action pair (-1 marks unused slots).
+	 * @param	T				The probabilities of those successors.
+	 * @param	R				The reward (or cost) of each state.
+	 * @param	s0				The initial state.
+	 * @param	goals			The goal states.
+	 * @param	ssp				True if R holds costs, false if it holds rewards.
+	 */
+	GridMarkov(int m, int maxSuccessors, int S[], double T[], double R[], int s0, int goals[], boolean ssp) {
+		this.n = R.length;
+		this.m = m;
+		this.actionModel = null;
+		this.maxSuccessors = maxSuccessors;
+		this.S = S;
+		this.T = T;
+		this.R = R;
+		this.s0 = s0;
+		this.ng = goals.length;
+		this.goals = goals;
+		this.ssp = ssp;
+		this.terminalState = (ng > 0 ? goals[0] : -1);
+	}
+	
+	/**
+	 * Enable or disable pruning of the states which cannot be reached from the initial cell.
+	 * @param	pruneUnreachable	True to prune unreachable states; false to keep every cell.
+	 */
+	public void setPruneUnreachable(boolean pruneUnreachable) {
+		check_not_frozen();
+		this.pruneUnreachable = pruneUnreachable;
+	}
+	
+	/**
+	 * Set the parameters used by create: probabilities, rewards, costs, horizon, and discount factor.
+	 * @param	parameters	The parameters.
+	 */
+	public void setParameters(GridMarkovParameters parameters) {
+		check_not_frozen();
+		this.parameters = parameters;
+	}
+	
+	/**
+	 * Get the parameters used by create.
+	 * @return	The parameters; for a snapshot, a copy, since it cannot change.
+	 */
+	public GridMarkovParameters getParameters() {
+		if (frozen) {
+			return new GridMarkovParameters(parameters);
+		}
+		return parameters;
+	}
+	
+	/**
+	 * Set the actions used by create. The default is the four moves LEFT, UP, RIGHT, and DOWN.
+	 * @param	actionModel	The action model.
+	 */
+	public void setActionModel(GridActionModel actionModel) {
+		check_not_frozen();
+		this.actionModel = actionModel;
+	}
+	
+	/**
+	 * Get the actions used by create.
+	 * @return	The action model; for a snapshot, a copy, since it cannot change.
+	 */
+	public GridActionModel getActionModel() {
+		if (frozen) {
+			return copy_action_model(actionModel);
+		}
+		return actionModel;
+	}
+	
+	/**
+	 * Enable or disable the neighbor belief points: for each pair of neighboring empty-ish cells,
+	 * a belief point split evenly between the two.
+	 * @param	neighborBeliefs	True to add the neighbor belief points.
+	 */
+	public void setNeighborBeliefs(boolean neighborBeliefs) {
+		check_not_frozen();
+		this.neighborBeliefs = neighborBeliefs;
+	}
+	
+	/**
+	 * Enable or disable creating the observations and belief points. Without them, only
+	 * saveMDP is available, but large grids are much cheaper to create.
+	 * @param	pomdp	True to create the full POMDP; false for only the MDP (or SSP).
+	 */
+	public void setCreatePOMDP(boolean pomdp) {
+		check_not_frozen();
+		this.pomdp = pomdp;
+	}
+	
+	/**
+	 * Get the number of cells pruned by the last call to create.
+	 * @return	The number of pruned states.
+	 */
+	public int getNumPrunedStates() {
+		return numPrunedStates;
+	}
+	
+	/**
+	 * Get the number of states.
+	 * @return	The number of states.
+	 */
+	public int getNumStates() {
+		return n;
+	}
+	
+	/**
+	 * Get the number of actions.
+	 * @return	The number of actions.
+	 */
+	public int getNumActions() {
+		return m;
+	}
+	
+	/**
+	 * Get the number of successor slots of each state-action pair.
+	 * @return	The number of successor slots.
+	 */
+	public int getMaxSuccessors() {
+		return maxSuccessors;
+	}
+	
+	/**
+	 * Get the successor states. The ones of state-action pair (s, a) start at index
+	 * (s * m + a) * maxSuccessors, with -1 marking unused slots.
+	 * @return	The successor states; read only (see snapshot).
+	 */
+	public int[] getSuccessors() {
+		return S;
+	}
+	
+	/**
+	 * Get the probabilities of the successor states, indexed like getSuccessors.
+	 * @return	The probabilities, or null with compact storage; read only (see snapshot).
+	 */
+	public double[] getProbabilities() {
+		return T;
+	}
+	
+	/**
+	 * Get the probability of a successor slot, with either storage.
+	 * @param	i	The index of the slot, as in getSuccessors.
+	 * @return	The probability.
+	 */
+	public double getProbability(int i) {
+		if (T != null) {
+			return T[i];
+		} else {
+			return TTable[TCodes[i] & 0xFF];
+		}
+	}
+	
+	/**
+	 * Get the probability codes of compact storage, indexed like getSuccessors.
+	 * @return	The index of each probability in the probability table, or null with double storage; read only (see snapshot).
+	 */
+	public byte[] getProbabilityCodes() {
+		return TCodes;
+	}
+	
+	/**
+	 * Get the distinct probabilities of compact storage.
+	 * @return	The probability table, or null with double storage; read only (see snapshot).
+	 */
+	public double[] getProbabilityTable() {
+		return TTable;
+	}
+	
+	/**
+	 * Enable or disable compact storage. Instead of a double per successor, each probability is
+	 * stored as a one byte index into a table of the (few) distinct probabilities, taking each
+	 * successor slot from 12 to 5 bytes. Solvers then also use single precision values. The
+	 * exported files are the same either way.
+	 * @param	compactStorage	True for compact storage, false for double storage.
+	 */
+	public void setCompactStorage(boolean compactStorage) {
+		check_not_frozen();
+		this.compactStorage = compactStorage;
+	}
+	
+	/**
+	 * Check if the probabilities are held in compact storage.
+	 * @return	True for compact storage, false for double storage.
+	 */
+	public boolean isCompactStorage() {
+		return TCodes != null;
+	}
+	
+	/**
+	 * Estimate the memory used by the state transitions and rewards.
+	 * @return	The number of bytes.
+	 */
+	public long getModelBytes() {
+		long bytes = 4L * S.length + 8L * R.length;
+		if (T != null) {
+			bytes += 8L * T.length;
+		} else {
+			bytes += TCodes.length + 8L * TTable.length;
+		}
+		return bytes;
+	}
+	
+	/**
+	 * Get the reward (or cost, for an SSP) of each state.
+	 * @return	The rewards; read only (see snapshot).
+	 */
+	public double[] getRewards() {
+		return R;
+	}
+	
+	/**
+	 * Check if this model is the SSP version, with costs instead of rewards.
+	 * @return	True for an SSP, false for an MDP.
+	 */
+	public boolean isSSP() {
+		return ssp;
+	}
+	
+	/**
+	 * Get the initial state.
+	 * @return	The initial state, or -1 if the grid has no initial cell.
+	 */
+	public int getInitialState() {
+		return s0;
+	}
+	
+	/**
+	 * Get the absorbing terminal state.
+	 * @return	The terminal state.
+	 */
+	public int getTerminalState() {
+		return terminalState;
+	}
+	
+	/**
+	 * Get the goal states.
+	 * @return	The goal states; read only (see snapshot).
+	 */
+	public int[] getGoals() {
+		return goals;
+	}
+	
+	/**
+	 * Get the discount factor.
+	 * @return	The discount factor.
+	 */
+	public double getDiscountFactor() {
+		return gamma;
+	}
+	
+	/**
+	 * Get the horizon.
+	 * @return	The horizon.
+	 */
+	public int getHorizon() {
+		return horizon;
+	}
+	
+	/**
+	 * Get the width of the grid this model was created from.
+	 * @return	The grid width.
+	 */
+	public int getGridWidth() {
+		return width;
+	}
+	
+	/**
+	 * Get the height of the grid this model was created from.
+	 * @return	The grid height.
+	 */
+	public int getGridHeight() {
+		return height;
+	}
+	
+	/**
+	 * Get the state of a grid cell.
+	 * @param	x	The x location of the cell.
+	 * @param	y	The y location of the cell.
+	 * @return	The state, or -1 if the cell was pruned.
+	 */
+	public int getCellState(int x, int y) {
+		return cellState[y * width + x];
+	}
+	
+	/**
+	 * Get the grid cell (y * w + x) of a state.
+	 * @param	s	The state.
+	 * @return	The cell, or -1 for the terminal state.
+	 */
+	public int getStateCell(int s) {
+		return stateCell[s];
+	}
+	
 	/**
 	 * Resolve the state.
 	 * @param 	sx	The state x value.
 	 * @param 	sy	The state y value.
 	 * @param 	w	The grid width.
 	 * @param 	h	The grid height.
-	 * @return
+	 * @return	The state index, or -1 if the cell was pruned.
 	 */
 	private int resolve_state(int sx, int sy, int w, int h) {
-		return sy * w + sx;
+		return cellState[sy * w + sx];
+	}
+	
+	/**
+	 * Add probability mass to a successor of a state-action pair, merging it with an existing entry.
+	 * The kind of each merged transition is counted, so createVariant can recompute the mass.
+	 * @param	s		The state.
+	 * @param	a		The action.
+	 * @param	sp		The successor state.
+	 * @param	kind	The kind of transition: certain, forward, or deviate.
+	 */
+	private void add_transition(int s, int a, int sp, int kind) {
+		int i = (s * m + a) * maxSuccessors;
+		while (S[i] >= 0 && S[i] != sp) {
+			i++;
+		}
+		S[i] = sp;
+		
+		if (kind == GridActionModel.FORWARD) {
+			T[i] += parameters.forwardProbability;
+			forwardCounts[i]++;
+		} else if (kind == GridActionModel.DEVIATE) {
+			T[i] += parameters.deviateProbability;
+			deviateCounts[i]++;
+		} else {
+			T[i] += 1.0;
+		}
+	}
+	
+	/**
+	 * Compute the probability of a successor slot from its counts of forward moves and deviations,
+	 * summing in the same order as create does.
+	 * @param	forwardCount	The number of forward moves merged into the slot.
+	 * @param	deviateCount	The number of deviations merged into the slot.
+	 * @return	The probability.
+	 */
+	private double compute_probability(int forwardCount, int deviateCount) {
+		if (forwardCount == 0 && deviateCount == 0) {
+			return 1.0;
+		}
+		
+		double p = 0.0;
+		for (int k = 0; k < forwardCount; k++) {
+			p += parameters.forwardProbability;
+		}
+		for (int k = 0; k < deviateCount; k++) {
+			p += parameters.deviateProbability;
+		}
+		return p;
+	}
+	
+	/**
+	 * Convert the probabilities to compact storage: a one byte code per successor slot, indexing
+	 * a table of the distinct probabilities. If there are too many distinct probabilities,
+	 * double storage is kept.
+	 */
+	private void compact_probabilities() {
+		double table[] = new double[256];
+		int size = 1; // Code 0 is the probability of unused slots.
+		byte codes[] = new byte[T.length];
+		
+		for (int i = 0; i < T.length; i++) {
+			if (S[i] < 0) {
+				continue;
+			}
+			
+			int code = 1;
+			while (code < size && table[code] != T[i]) {
+				code++;
+			}
+			if (code == size) {
+				if (size == table.length) {
+					System.out.println("Too many distinct probabilities for compact storage. Using double storage.");
+					return;
+				}
+				table[size] = T[i];
+				size++;
+			}
+			codes[i] = (byte)code;
+		}
+		
+		TTable = Arrays.copyOf(table, size);
+		TCodes = codes;
+		T = null;
+	}
+	
+	/**
+	 * Compute which cells are reachable from the initial cell, following the movement rules of
+	 * the grid, and assign the state indexes accordingly. If there is no initial cell or pruning
+	 * is disabled, every cell is kept.
+	 * @param 	cells	The x-by-y grid's cells, row-major.
+	 * @param 	w		The width of the grid.
+	 * @param 	h		The height of the grid.
+	 * @return	The initial cell, or -1 if there is none.
+	 */
+	private int compute_reachable_states(byte cells[], int w, int h) {
+		int initialCell = -1;
+		for (int y = 0; y < h && initialCell < 0; y++) {
+			for (int x = 0; x < w; x++) {
+				if (cells[y * w + x] == GridPanel.GridCellType.INITIAL) {
+					initialCell = y * w + x;
+					break;
+				}
+			}
+		}
+		
+		cellState = new int[w * h];
+		
+		if (!pruneUnreachable || initialCell < 0) {
+			for (int c = 0; c < w * h; c++) {
+				cellState[c] = c;
+			}
+		} else {
+			// Breadth-first search from the initial cell. Only empty-ish cells move; all the others
+			// either self-loop or go to the terminal state, which is always kept.
+			for (int c = 0; c < w * h; c++) {
+				cellState[c] = -1;
+			}
+			
+			int dx[] = actionModel.getDx();
+			int dy[] = actionModel.getDy();
+			
+			int queue[] = new int[w * h];
+			int head = 0;
+			int tail = 0;
+			
+			queue[tail++] = initialCell;
+			cellState[initialCell] = 0;
+			
+			while (head < tail) {
+				int c = queue[head++];
+				int x = c % w;
+				int y = c / w;
+				
+				if (!is_cell_emptyish(cells[c])) {
+					continue;
+				}
+				
+				// Every non-obstacle cell any outcome of any action lands on can be reached.
+				for (int k = 0; k < dx.length; k++) {
+					int nx = x + dx[k];
+					int ny = y + dy[k];
+					if (nx < 0 || ny < 0 || nx >= w || ny >= h) {
+						continue;
+					}
+					
+					int nc = ny * w + nx;
+					if (cells[nc] != GridPanel.GridCellType.OBSTACLE && cellState[nc] < 0) {
+						cellState[nc] = 0;
+						queue[tail++] = nc;
+					}
+				}
+			}
+			
+			// Number the reachable cells in the usual order: left to right, then top to bottom.
+			int s = 0;
+			for (int c = 0; c < w * h; c++) {
+				if (cellState[c] >= 0) {
+					cellState[c] = s;
+					s++;
+				}
+			}
+		}
+		
+		return initialCell;
 	}
 
 	/**
@@ -111,213 +596,412 @@ public class GridMarkov {
 	}
 	
 	/**
-	 * Create the internal (PO)MDP variables.
-	 * @param 	grid	The x-by-y grid, meaning stored 0 1 2; 3 4 5; 6 7 8; etc.
-	 * @param 	w		The width of the grid.
-	 * @param 	h		The height of the grid.
+	 * Create the internal (PO)MDP variables. Every array is newly allocated, never written into
+	 * after create returns, so the snapshots of earlier creates are unaffected.
+	 * @param 	grid	The grid, meaning stored 0 1 2; 3 4 5; 6 7 8; etc.
 	 * @param	ssp		Make the SSP version with costs or not.
+	 * @return	An immutable snapshot of the created model (see snapshot), or null if creating the
+	 * 			belief points failed, which leaves this model without them.
+	 * @throws	IllegalStateException	If this model is a snapshot.
 	 */
-	public void create(int grid[][], int w, int h, boolean ssp) {
-		// Create the states (left to right, then top to bottom). Absorbing is the final one.
-		n = w * h + 1; // Always create an absorbing goal state.
-		terminalState = w * h;
-
-		// Create the state transitions.
-		int s = 0;
-
-		// Setup the initial zeros.
-		T = new double[n][m][n];
-		for (s = 0; s < n; s++) {
-			for (int a = 0; a < m; a++) {
-				for (int sp = 0; sp < n; sp++) {
-					T[s][a][sp] = 0.0;
-				}
+	public GridMarkov create(GridCells grid, boolean ssp) {
+		check_not_frozen();
+		
+		int w = grid.getWidth();
+		int h = grid.getHeight();
+		byte cells[] = grid.getCells();
+		
+		width = w;
+		height = h;
+		this.ssp = ssp;
+		s0 = -1; // Unless the grid has an initial cell.
+		
+		// Create the states (left to right, then top to bottom), skipping the ones which can
+		// never be reached from the initial cell. Absorbing is the final one.
+		int initialCell = compute_reachable_states(cells, w, h);
+		
+		n = 1; // Always create an absorbing goal state.
+		for (int c = 0; c < w * h; c++) {
+			if (cellState[c] >= 0) {
+				n++;
 			}
 		}
+		terminalState = n - 1;
+		
+		stateCell = new int[n];
+		for (int c = 0; c < w * h; c++) {
+			if (cellState[c] >= 0) {
+				stateCell[cellState[c]] = c;
+			}
+		}
+		stateCell[terminalState] = -1;
+		
+		numPrunedStates = w * h - (n - 1);
 
-		// Actually assign the correct values of state transitions
-		// for each of the actions.
+		// Create the state transitions.
+		int s = 0;
 
-		// Move LEFT.
-		s = 0;
+		// Setup the initial (empty) successors, with a slot for each outcome of an action.
+		m = actionModel.getNumActions();
+		maxSuccessors = actionModel.getMaxOutcomes();
+		S = new int[n * m * maxSuccessors];
+		T = new double[n * m * maxSuccessors];
+		forwardCounts = new byte[n * m * maxSuccessors];
+		deviateCounts = new byte[n * m * maxSuccessors];
+		TCodes = null;
+		TTable = null;
+		Arrays.fill(S, -1);
+
+		// Actually assign the correct values of state transitions for each of the actions, from
+		// the table of their outcomes.
+		int offsets[] = actionModel.getOffsets();
+		int dx[] = actionModel.getDx();
+		int dy[] = actionModel.getDy();
+		int kinds[] = actionModel.getKinds();
+		
 		for (int sy = 0; sy < h; sy++) {
 			for (int sx = 0; sx < w; sx++) {
-				if (grid[sx][sy] == GridPanel.GridCellType.OBSTACLE ||
-						grid[sx][sy] == GridPanel.GridCellType.DEAD_END) {
-					// Obstacles and dead ends self-loop.
-					T[s][LEFT_ACTION][s] = 1.0;
-				} else if (grid[sx][sy] == GridPanel.GridCellType.SUCCESS ||
-						grid[sx][sy] == GridPanel.GridCellType.FAILURE) {
-					// Success and failure states go to the absorbing terminal state.
-					T[s][LEFT_ACTION][terminalState] = 1.0;
-				} else {
-					// Move LEFT. FORWARD!
-					if (sx == 0 || grid[sx - 1][sy] == GridPanel.GridCellType.OBSTACLE) {
-						T[s][LEFT_ACTION][s] += FORWARD_PROBABILITY; // Self-transition.
-					} else {
-						int sp = resolve_state(sx - 1, sy, w, h);
-						T[s][LEFT_ACTION][sp] += FORWARD_PROBABILITY; // Yay!
-					}
-
-					// Move LEFT. Deviate UP.
-					if (sy == 0 || grid[sx][sy - 1] == GridPanel.GridCellType.OBSTACLE) {
-						T[s][LEFT_ACTION][s] += DEVIATE_PROBABILITY; // Self-transition.
-					} else {
-						int sp = resolve_state(sx, sy - 1, w, h);
-						T[s][LEFT_ACTION][sp] += DEVIATE_PROBABILITY; // Yay!
-					}
-
-					// Move LEFT. Deviate DOWN.
-					if (sy == h - 1 || grid[sx][sy + 1] == GridPanel.GridCellType.OBSTACLE) {
-						T[s][LEFT_ACTION][s] += DEVIATE_PROBABILITY; // Self-transition.
-					} else {
-						int sp = resolve_state(sx, sy + 1, w, h);
-						T[s][LEFT_ACTION][sp] += DEVIATE_PROBABILITY; // Yay!
-					}
+				int c = sy * w + sx;
+				s = cellState[c];
+				if (s < 0) {
+					continue; // Pruned.
 				}
 
-				s++;
-			}
-		}
-
-		// Move UP.
-		s = 0;
-		for (int sy = 0; sy < h; sy++) {
-			for (int sx = 0; sx < w; sx++) {
-				if (grid[sx][sy] == GridPanel.GridCellType.OBSTACLE ||
-						grid[sx][sy] == GridPanel.GridCellType.DEAD_END) {
+				if (cells[c] == GridPanel.GridCellType.OBSTACLE ||
+						cells[c] == GridPanel.GridCellType.DEAD_END) {
 					// Obstacles and dead ends self-loop.
-					T[s][UP_ACTION][s] = 1.0;
-				} else if (grid[sx][sy] == GridPanel.GridCellType.SUCCESS ||
-						grid[sx][sy] == GridPanel.GridCellType.FAILURE) {
-					// Success and failure states go to the absorbing terminal state.
-					T[s][UP_ACTION][terminalState] = 1.0;
-				} else {
-					// Move UP. FORWARD!
-					if (sy == 0 || grid[sx][sy - 1] == GridPanel.GridCellType.OBSTACLE) {
-						T[s][UP_ACTION][s] += FORWARD_PROBABILITY; // Self-transition.
-					} else {
-						int sp = resolve_state(sx, sy - 1, w, h);
-						T[s][UP_ACTION][sp] += FORWARD_PROBABILITY; // Yay!
+					for (int a = 0; a < m; a++) {
+						add_transition(s, a, s, GridActionModel.CERTAIN);
 					}
-
-					// Move UP. Deviate LEFT.
-					if (sx == 0 || grid[sx - 1][sy] == GridPanel.GridCellType.OBSTACLE) {
-						T[s][UP_ACTION][s] += DEVIATE_PROBABILITY; // Self-transition.
-					} else {
-						int sp = resolve_state(sx - 1, sy, w, h);
-						T[s][UP_ACTION][sp] += DEVIATE_PROBABILITY; // Yay!
+				} else if (cells[c] == GridPanel.GridCellType.SUCCESS ||
+						cells[c] == GridPanel.GridCellType.FAILURE) {
+					// Success and failure states go to the absorbing terminal state.
+					for (int a = 0; a < m; a++) {
+						add_transition(s, a, terminalState, GridActionModel.CERTAIN);
 					}
-
-					// Move UP. Deviate RIGHT.
-					if (sx == w - 1 || grid[sx + 1][sy] == GridPanel.GridCellType.OBSTACLE) {
-						T[s][UP_ACTION][s] += DEVIATE_PROBABILITY; // Self-transition.
-					} else {
-						int sp = resolve_state(sx + 1, sy, w, h);
-						T[s][UP_ACTION][sp] += DEVIATE_PROBABILITY; // Yay!
+				} else {
+					for (int a = 0; a < m; a++) {
+						for (int k = offsets[a]; k < offsets[a + 1]; k++) {
+							int x = sx + dx[k];
+							int y = sy + dy[k];
+							if (x < 0 || y < 0 || x >= w || y >= h ||
+									cells[y * w + x] == GridPanel.GridCellType.OBSTACLE) {
+								add_transition(s, a, s, kinds[k]); // Self-transition.
+							} else {
+								add_transition(s, a, cellState[y * w + x], kinds[k]); // Yay!
+							}
+						}
 					}
 				}
-
-				s++;
 			}
 		}
-
-		// Move RIGHT.
-		s = 0;
-		for (int sy = 0; sy < h; sy++) {
-			for (int sx = 0; sx < w; sx++) {
-				if (grid[sx][sy] == GridPanel.GridCellType.OBSTACLE ||
-						grid[sx][sy] == GridPanel.GridCellType.DEAD_END) {
-					// Obstacles and dead ends self-loop.
-					T[s][RIGHT_ACTION][s] = 1.0;
-				} else if (grid[sx][sy] == GridPanel.GridCellType.SUCCESS ||
-						grid[sx][sy] == GridPanel.GridCellType.FAILURE) {
-					// Success and failure states go to the absorbing terminal state.
-					T[s][RIGHT_ACTION][terminalState] = 1.0;
-				} else {
-					// Move RIGHT. FORWARD!
-					if (sx == w - 1 || grid[sx + 1][sy] == GridPanel.GridCellType.OBSTACLE) {
-						T[s][RIGHT_ACTION][s] += FORWARD_PROBABILITY; // Self-transition.
-					} else {
-						int sp = resolve_state(sx + 1, sy, w, h);
-						T[s][RIGHT_ACTION][sp] += FORWARD_PROBABILITY; // Yay!
-					}
-
-					// Move RIGHT. Deviate UP.
-					if (sy == 0 || grid[sx][sy - 1] == GridPanel.GridCellType.OBSTACLE) {
-						T[s][RIGHT_ACTION][s] += DEVIATE_PROBABILITY; // Self-transition.
-					} else {
-						int sp = resolve_state(sx, sy - 1, w, h);
-						T[s][RIGHT_ACTION][sp] += DEVIATE_PROBABILITY; // Yay!
-					}
-
-					// Move RIGHT. Deviate DOWN.
-					if (sy == h - 1 || grid[sx][sy + 1] == GridPanel.GridCellType.OBSTACLE) {
-						T[s][RIGHT_ACTION][s] += DEVIATE_PROBABILITY; // Self-transition.
-					} else {
-						int sp = resolve_state(sx, sy + 1, w, h);
-						T[s][RIGHT_ACTION][sp] += DEVIATE_PROBABILITY; // Yay!
-					}
+		
+		// Assign the terminal state to be absorbing.
+		for (int a = 0; a < m; a++) {
+			add_transition(terminalState, a, terminalState, GridActionModel.CERTAIN);
+		}
+		
+		// Keep the successors of each state-action pair in increasing order, as they are exported.
+		for (int row = 0; row < n * m; row++) {
+			int start = row * maxSuccessors;
+			for (int i = start + 1; i < start + maxSuccessors && S[i] >= 0; i++) {
+				for (int j = i; j > start && S[j - 1] > S[j]; j--) {
+					int sp = S[j];
+					S[j] = S[j - 1];
+					S[j - 1] = sp;
+					
+					double p = T[j];
+					T[j] = T[j - 1];
+					T[j - 1] = p;
+					
+					byte count = forwardCounts[j];
+					forwardCounts[j] = forwardCounts[j - 1];
+					forwardCounts[j - 1] = count;
+					
+					count = deviateCounts[j];
+					deviateCounts[j] = deviateCounts[j - 1];
+					deviateCounts[j - 1] = count;
 				}
-
-				s++;
 			}
 		}
-
-		// Move DOWN.
-		s = 0;
-		for (int sy = 0; sy < h; sy++) {
-			for (int sx = 0; sx < w; sx++) {
-				if (grid[sx][sy] == GridPanel.GridCellType.OBSTACLE ||
-						grid[sx][sy] == GridPanel.GridCellType.DEAD_END) {
-					// Obstacles and dead ends self-loop.
-					T[s][DOWN_ACTION][s] = 1.0;
-				} else if (grid[sx][sy] == GridPanel.GridCellType.SUCCESS ||
-						grid[sx][sy] == GridPanel.GridCellType.FAILURE) {
-					// Success and failure states go to the absorbing terminal state.
-					T[s][DOWN_ACTION][terminalState] = 1.0;
-				} else {
-					// Move DOWN. FORWARD!
-					if (sy == h - 1 || grid[sx][sy + 1] == GridPanel.GridCellType.OBSTACLE) {
-						T[s][DOWN_ACTION][s] += FORWARD_PROBABILITY; // Self-transition.
-					} else {
-						int sp = resolve_state(sx, sy + 1, w, h);
-						T[s][DOWN_ACTION][sp] += FORWARD_PROBABILITY; // Yay!
-					}
-
-					// Move DOWN. Deviate LEFT.
-					if (sx == 0 || grid[sx - 1][sy] == GridPanel.GridCellType.OBSTACLE) {
-						T[s][DOWN_ACTION][s] += DEVIATE_PROBABILITY; // Self-transition.
-					} else {
-						int sp = resolve_state(sx - 1, sy, w, h);
-						T[s][DOWN_ACTION][sp] += DEVIATE_PROBABILITY; // Yay!
-					}
-
-					// Move DOWN. Deviate RIGHT.
-					if (sx == w - 1 || grid[sx + 1][sy] == GridPanel.GridCellType.OBSTACLE) {
-						T[s][DOWN_ACTION][s] += DEVIATE_PROBABILITY; // Self-transition.
-					} else {
-						int sp = resolve_state(sx + 1, sy, w, h);
-						T[s][DOWN_ACTION][sp] += DEVIATE_PROBABILITY; // Yay!
-					}
-				}
-
-				s++;
+		
+		if (compactStorage) {
+			compact_probabilities();
+		}
+		
+		// Create the rewards, remembering the cell type of each state for createVariant.
+		stateType = new byte[n];
+		for (s = 0; s < n - 1; s++) {
+			stateType[s] = cells[stateCell[s]];
+		}
+		stateType[terminalState] = -1; // The terminal state has it's own reward (of zero).
+		
+		R = new double[n];
+		for (s = 0; s < n; s++) {
+			R[s] = parameters.getReward(stateType[s], ssp);
+		}
+		
+		horizon = parameters.horizon;
+		gamma = parameters.discountFactor;
+
+		// Create the observations and belief points, which only the POMDP needs.
+		if (pomdp) {
+			create_observations(cells, w, h);
+			if (!create_beliefs(cells, w, h)) {
+				r = 0;
+				BS = null;
+				B = null;
+				return null;
 			}
+		} else {
+			z = 0;
+			Z = null;
+			O = null;
+			r = 0;
+			BS = null;
+			B = null;
 		}
 		
-		// Assign the terminal state to be absorbing.
-		for (int a = 0; a < m; a++) {
-			T[terminalState][a][terminalState] = 1.0;
+		// Assign the initial true state and thus belief state.
+		if (initialCell >= 0) {
+			s0 = cellState[initialCell];
+		}
+		
+		// Assign the goal state.
+		ng = 1;
+		goals = new int[ng];
+		goals[0] = terminalState;
+		
+		// An edit of a few cells often leaves whole arrays unchanged (e.g., a light only changes
+		// the observations), so share those with the last snapshot instead of keeping copies. It
+		// is only weakly held, so a snapshot nobody uses any more does not double the memory.
+		GridMarkov last = (lastSnapshot != null ? lastSnapshot.get() : null);
+		if (last != null) {
+			share_unchanged(last);
+		}
+		GridMarkov snapshot = snapshot();
+		lastSnapshot = new WeakReference<GridMarkov>(snapshot);
+		return snapshot;
+	}
+	
+	/**
+	 * Get an immutable snapshot of this model. It shares the arrays of this model without copying,
+	 * which is safe since create and loadBinary always allocate new arrays, and keeps its own
+	 * copies of the parameters and action model. Its setters, create, and loadBinary throw an
+	 * IllegalStateException. Thus any number of solvers, simulators, and exporters can read it
+	 * concurrently, while this model goes on to create the next one.
+	 * 
+	 * Two things are left to the callers. The arrays returned by getSuccessors, getRewards, etc.
+	 * are the shared ones, so they must only be read, never written. And the fields of a snapshot
+	 * are not final, so hand it to other threads with a happens-before edge, e.g., through an
+	 * executor, a volatile field, or a concurrent collection, as GridReplanner does.
+	 * @return	The snapshot, or this model if it is already one.
+	 */
+	public GridMarkov snapshot() {
+		if (frozen) {
+			return this;
+		}
+		
+		GridMarkov snapshot = new GridMarkov();
+		snapshot.copy_model(this);
+		snapshot.parameters = new GridMarkovParameters(parameters);
+		snapshot.actionModel = copy_action_model(actionModel);
+		snapshot.frozen = true;
+		return snapshot;
+	}
+	
+	/**
+	 * Copy an action model, so a snapshot does not change with the original.
+	 * @param	actionModel	The action model, or null.
+	 * @return	The copy, or null.
+	 */
+	private static GridActionModel copy_action_model(GridActionModel actionModel) {
+		if (actionModel == null) {
+			return null;
+		}
+		return GridActionModel.fromArray(actionModel.getName(), actionModel.toArray());
+	}
+	
+	/**
+	 * Make this model share everything another one created or loaded (but not whether it is frozen).
+	 * @param	other	The other model.
+	 */
+	private void copy_model(GridMarkov other) {
+		width = other.width;
+		height = other.height;
+		ssp = other.ssp;
+		n = other.n;
+		terminalState = other.terminalState;
+		cellState = other.cellState;
+		stateCell = other.stateCell;
+		numPrunedStates = other.numPrunedStates;
+		pruneUnreachable = other.pruneUnreachable;
+		pomdp = other.pomdp;
+		m = other.m;
+		actionModel = other.actionModel;
+		z = other.z;
+		inTheDarkObservation = other.inTheDarkObservation;
+		absorbingObservation = other.absorbingObservation;
+		maxSuccessors = other.maxSuccessors;
+		S = other.S;
+		T = other.T;
+		TCodes = other.TCodes;
+		TTable = other.TTable;
+		compactStorage = other.compactStorage;
+		forwardCounts = other.forwardCounts;
+		deviateCounts = other.deviateCounts;
+		Z = other.Z;
+		O = other.O;
+		R = other.R;
+		stateType = other.stateType;
+		parameters = other.parameters;
+		s0 = other.s0;
+		ng = other.ng;
+		goals = other.goals;
+		r = other.r;
+		BS = other.BS;
+		B = other.B;
+		neighborBeliefs = other.neighborBeliefs;
+		horizon = other.horizon;
+		gamma = other.gamma;
+	}
+	
+	/**
+	 * Check if this model is an immutable snapshot.
+	 * @return	True or false.
+	 */
+	public boolean isSnapshot() {
+		return frozen;
+	}
+	
+	/**
+	 * Check that this model is not a snapshot, which must never change.
+	 * @throws	IllegalStateException	If it is a snapshot.
+	 */
+	private void check_not_frozen() {
+		if (frozen) {
+			throw new IllegalStateException("A model snapshot cannot be changed; change the model it was taken from.");
+		}
+	}
+	
+	/**
+	 * Replace each array equal to the one of an earlier snapshot by that one, so they share it.
+	 * @param	other	The earlier snapshot.
+	 */
+	private void share_unchanged(GridMarkov other) {
+		cellState = share(cellState, other.cellState);
+		stateCell = share(stateCell, other.stateCell);
+		S = share(S, other.S);
+		T = share(T, other.T);
+		TCodes = share(TCodes, other.TCodes);
+		TTable = share(TTable, other.TTable);
+		forwardCounts = share(forwardCounts, other.forwardCounts);
+		deviateCounts = share(deviateCounts, other.deviateCounts);
+		Z = share(Z, other.Z);
+		O = share(O, other.O);
+		R = share(R, other.R);
+		stateType = share(stateType, other.stateType);
+		goals = share(goals, other.goals);
+		BS = share(BS, other.BS);
+		B = share(B, other.B);
+	}
+	
+	private static int[] share(int values[], int other[]) {
+		return (values != null && Arrays.equals(values, other) ? other : values);
+	}
+	
+	private static double[] share(double values[], double other[]) {
+		return (values != null && Arrays.equals(values, other) ? other : values);
+	}
+	
+	private static byte[] share(byte values[], byte other[]) {
+		return (values != null && Arrays.equals(values, other) ? other : values);
+	}
+	
+	/**
+	 * Create a variant of this created model with other parameters. The variant shares the states
+	 * and successors of this one and only recomputes the probabilities and rewards, which is much
+	 * cheaper than create. It has no observations or belief points, so only saveMDP is available.
+	 * Like the snapshots of create, the variant is immutable.
+	 * @param	parameters	The parameters of the variant.
+	 * @return	The variant, or null if this model was not made by create.
+	 */
+	public GridMarkov createVariant(GridMarkovParameters parameters) {
+		if (forwardCounts == null || stateType == null) {
+			System.out.println("Only a model made by create can have variants.");
+			return null;
+		}
+		
+		GridMarkov variant = new GridMarkov();
+		variant.parameters = new GridMarkovParameters(parameters);
+		variant.pruneUnreachable = pruneUnreachable;
+		variant.pomdp = false;
+		variant.compactStorage = compactStorage;
+		variant.actionModel = copy_action_model(actionModel);
+		variant.m = m;
+		
+		variant.width = width;
+		variant.height = height;
+		variant.ssp = ssp;
+		variant.n = n;
+		variant.terminalState = terminalState;
+		variant.cellState = cellState;
+		variant.stateCell = stateCell;
+		variant.numPrunedStates = numPrunedStates;
+		variant.maxSuccessors = maxSuccessors;
+		variant.S = S;
+		variant.forwardCounts = forwardCounts;
+		variant.deviateCounts = deviateCounts;
+		variant.stateType = stateType;
+		variant.s0 = s0;
+		variant.ng = ng;
+		variant.goals = goals;
+		
+		// A slot merges at most maxSuccessors moves, so tabulate every combination of counts once.
+		int counts = maxSuccessors + 1;
+		double probabilities[] = new double[counts * counts];
+		for (int f = 0; f < counts; f++) {
+			for (int d = 0; d < counts; d++) {
+				probabilities[f * counts + d] = variant.compute_probability(f, d);
+			}
+		}
+		
+		variant.T = new double[S.length];
+		for (int i = 0; i < S.length; i++) {
+			if (S[i] >= 0) {
+				variant.T[i] = probabilities[forwardCounts[i] * counts + deviateCounts[i]];
+			}
+		}
+		if (compactStorage) {
+			variant.compact_probabilities();
 		}
 		
-		// There is one observation for each light spot, so figure out how many there are.
+		variant.R = new double[n];
+		for (int s = 0; s < n; s++) {
+			variant.R[s] = parameters.getReward(stateType[s], ssp);
+		}
+		
+		variant.horizon = parameters.horizon;
+		variant.gamma = parameters.discountFactor;
+		variant.z = 0;
+		variant.r = 0;
+		variant.frozen = true;
+		
+		return variant;
+	}
+	
+	/**
+	 * Create the observations, one for each reachable light spot plus "in the dark" and "absorbing".
+	 * @param 	cells	The x-by-y grid's cells, row-major.
+	 * @param 	w		The width of the grid.
+	 * @param 	h		The height of the grid.
+	 */
+	private void create_observations(byte cells[], int w, int h) {
+		// There is one observation for each reachable light spot, so figure out how many there are.
 		z = 0;
-		for (int y = 0; y < h; y++) {
-			for (int x = 0; x < w; x++) {
-				if (grid[x][y] == GridPanel.GridCellType.LIGHT) {
-					z++;
-				}
+		for (int c = 0; c < w * h; c++) {
+			if (cells[c] == GridPanel.GridCellType.LIGHT && cellState[c] >= 0) {
+				z++;
 			}
 		}
 		
@@ -329,262 +1013,412 @@ public class GridMarkov {
 		
 		// Also, for the sake of easy in programming, store the observation index in a grid,
 		// as well as the four areas around it, assuming they are not also lights.
-		int observationGrid[][] = new int[w][h];
-		for (int y = 0; y < h; y++) {
-			for (int x = 0; x < w; x++) {
-				observationGrid[x][y] = inTheDarkObservation;
-			}	
-		}
+		int observationGrid[] = new int[w * h];
+		Arrays.fill(observationGrid, inTheDarkObservation);
 		
 		int o = 0;
 		for (int y = 0; y < h; y++) {
 			for (int x = 0; x < w; x++) {
+				int c = y * w + x;
+				if (cellState[c] < 0) {
+					continue; // Pruned.
+				}
+				
 				// The agent always knows if it is in an absorbing state, so these count as
 				// lights too; however, they do not emit towards empty neighbor cells like lights
 				// do. Thus, check for the light state, 
-				if (grid[x][y] == GridPanel.GridCellType.LIGHT) {
-					observationGrid[x][y] = o;
+				if (cells[c] == GridPanel.GridCellType.LIGHT) {
+					observationGrid[c] = o;
 					
 					// For each neighboring cell, if it is an empty cell, set it
 					// with this observation. These get set to +z to mark that they
 					// are dim light.
-					if (x > 0 && grid[x - 1][y] == GridPanel.GridCellType.EMPTY) {
-						observationGrid[x - 1][y] = o + z;
+					if (x > 0 && cells[c - 1] == GridPanel.GridCellType.EMPTY) {
+						observationGrid[c - 1] = o + z;
 					}
-					if (y > 0 && grid[x][y - 1] == GridPanel.GridCellType.EMPTY) {
-						observationGrid[x][y - 1] = o + z;
+					if (y > 0 && cells[c - w] == GridPanel.GridCellType.EMPTY) {
+						observationGrid[c - w] = o + z;
 					}
-					if (x < w - 1 && grid[x + 1][y] == GridPanel.GridCellType.EMPTY) {
-						observationGrid[x + 1][y] = o + z;
+					if (x < w - 1 && cells[c + 1] == GridPanel.GridCellType.EMPTY) {
+						observationGrid[c + 1] = o + z;
 					}
-					if (y < h - 1 && grid[x][y + 1] == GridPanel.GridCellType.EMPTY) {
-						observationGrid[x][y + 1] = o + z;
+					if (y < h - 1 && cells[c + w] == GridPanel.GridCellType.EMPTY) {
+						observationGrid[c + w] = o + z;
 					}
 					
 					o++;
-				} else if (grid[x][y] != GridPanel.GridCellType.EMPTY) {
+				} else if (cells[c] != GridPanel.GridCellType.EMPTY) {
 					// Logically, this must be a non-light, non-empty cell (i.e., an absorbing state of some kind).
-					observationGrid[x][y] = absorbingObservation;
+					observationGrid[c] = absorbingObservation;
 				}
 			}
 		}
 		
-		// Create the observation transitions.
-		O = new double[m][n][z];
+		// Create the observation transitions, which are the same for every action. Each state has
+		// at most two non-zero observations, so only those are stored.
+		Z = new int[n * MAX_OBSERVATIONS];
+		O = new double[n * MAX_OBSERVATIONS];
+		Arrays.fill(Z, -1);
+		
 		for (int sp = 0; sp < n - 1; sp++) { // Note: The minus one is because the final state is a terminal state.
 			// Get the grid location to figure out if this state is a "light"
 			// state or, if not, possibly a "dim light" state.
-			int x = (int)(sp % w);
-			int y = (int)(sp / w);
-			
-			for (int a = 0; a < m; a++) {
-				for (o = 0; o < z; o++) {
-					O[a][sp][o] = 0.0;
-				}
-			}
+			int c = stateCell[sp];
 			
-			for (int a = 0; a < m; a++) {
-				// Handle the "in the dark" case, then the "absorbing" case, then the "dim light" case, then the "light" case.
-				if (observationGrid[x][y] == inTheDarkObservation) {
-					O[a][sp][inTheDarkObservation] = 1.0;
-				} else if (observationGrid[x][y] == absorbingObservation) {
-					O[a][sp][absorbingObservation] = 1.0;
-				} else if (observationGrid[x][y] >= z) {
-					O[a][sp][observationGrid[x][y] - z] = DIM_LIGHT_LOCALIZATION_PROBABILITY;
-					O[a][sp][inTheDarkObservation] = 1.0 - DIM_LIGHT_LOCALIZATION_PROBABILITY;
-				} else {
-					O[a][sp][observationGrid[x][y]] = LIGHT_LOCALIZATION_PROBABILITY;
-					O[a][sp][inTheDarkObservation] = 1.0 - LIGHT_LOCALIZATION_PROBABILITY;
-				}
+			// Handle the "in the dark" case, then the "absorbing" case, then the "dim light" case, then the "light" case.
+			if (observationGrid[c] == inTheDarkObservation) {
+				add_observation(sp, inTheDarkObservation, 1.0);
+			} else if (observationGrid[c] == absorbingObservation) {
+				add_observation(sp, absorbingObservation, 1.0);
+			} else if (observationGrid[c] >= z) {
+				add_observation(sp, observationGrid[c] - z, parameters.dimLightLocalizationProbability);
+				add_observation(sp, inTheDarkObservation, 1.0 - parameters.dimLightLocalizationProbability);
+			} else {
+				add_observation(sp, observationGrid[c], parameters.lightLocalizationProbability);
+				add_observation(sp, inTheDarkObservation, 1.0 - parameters.lightLocalizationProbability);
 			}
 		}
 		
 		// Handle the terminal state now. The only reason this is separate from the code above is due to the fact that
 		// it does not have an x-y location (in observationGrid or the grid itself).
-		for (int a = 0; a < m; a++) {
-			for (o = 0; o < z; o++) {
-				O[a][terminalState][o] = 0.0;
+		add_observation(terminalState, absorbingObservation, 1.0);
+	}
+	
+	/**
+	 * Add a non-zero observation of reaching a state.
+	 * @param	sp	The state reached.
+	 * @param	o	The observation.
+	 * @param	p	The probability of the observation; nothing is stored if it is zero.
+	 */
+	private void add_observation(int sp, int o, double p) {
+		if (p <= 0.0) {
+			return;
+		}
+		
+		int i = sp * MAX_OBSERVATIONS;
+		while (Z[i] >= 0) {
+			i++;
+		}
+		Z[i] = o;
+		O[i] = p;
+	}
+	
+	/**
+	 * Get the probability of an observation after reaching a state, with any action.
+	 * @param	sp	The state reached.
+	 * @param	o	The observation.
+	 * @return	The probability.
+	 */
+	public double getObservationProbability(int sp, int o) {
+		for (int i = sp * MAX_OBSERVATIONS; i < (sp + 1) * MAX_OBSERVATIONS; i++) {
+			if (Z[i] == o) {
+				return O[i];
 			}
-			O[a][terminalState][absorbingObservation] = 1.0;
 		}
-
-		// Create the rewards.
-		R = new double[n];
-		s = 0;
-		for (int y = 0; y < h; y++) {
-			for (int x = 0; x < w; x++) {
-				if (grid[x][y] == GridPanel.GridCellType.EMPTY) {
-					if (ssp) {
-						R[s] = EMPTY_COST;
-					} else {
-						R[s] = EMPTY_REWARD;
-					}
-				} else if (grid[x][y] == GridPanel.GridCellType.OBSTACLE) {
-					if (ssp) {
-						R[s] = OBSTACLE_COST;
-					} else {
-						R[s] = OBSTACLE_REWARD;
-					}
-				} else if (grid[x][y] == GridPanel.GridCellType.SUCCESS) {
-					if (ssp) {
-						R[s] = SUCCESS_COST;
-					} else {
-						R[s] = SUCCESS_REWARD;
-					}
-				} else if (grid[x][y] == GridPanel.GridCellType.FAILURE) {
-					if (ssp) {
-						R[s] = FAILURE_COST;
-					} else {
-						R[s] = FAILURE_REWARD;
-					}
-				} else if (grid[x][y] == GridPanel.GridCellType.DEAD_END) {
-					if (ssp) {
-						R[s] = DEAD_END_COST;
-					} else {
-						R[s] = DEAD_END_REWARD;
-					}
-				} else if (grid[x][y] == GridPanel.GridCellType.LIGHT) {
-					if (ssp) {
-						R[s] = LIGHT_COST;
-					} else {
-						R[s] = LIGHT_REWARD;
-					}
-				} else if (grid[x][y] == GridPanel.GridCellType.INITIAL) {
-					if (ssp) {
-						R[s] = INITIAL_COST;
-					} else {
-						R[s] = INITIAL_REWARD;
-					}
+		return 0.0;
+	}
+	
+	/**
+	 * Get the non-zero observations of reaching each state, whatever the action. Those of state sp
+	 * start at index sp * getMaxObservations(), with -1 marking unused slots.
+	 * @return	The observations, or null if the POMDP was not created; read only (see snapshot).
+	 */
+	public int[] getObservations() {
+		return Z;
+	}
+	
+	/**
+	 * Get the probabilities of the observations, indexed like getObservations.
+	 * @return	The probabilities, or null if the POMDP was not created; read only (see snapshot).
+	 */
+	public double[] getObservationProbabilities() {
+		return O;
+	}
+	
+	/**
+	 * Get the number of observation slots of each state.
+	 * @return	The number of observation slots.
+	 */
+	public int getMaxObservations() {
+		return MAX_OBSERVATIONS;
+	}
+	
+	/**
+	 * Get the number of observations.
+	 * @return	The number of observations.
+	 */
+	public int getNumObservations() {
+		return z;
+	}
+	
+	/**
+	 * Belief points under construction, stored like the final ones: MAX_BELIEF_STATES slots each.
+	 */
+	private static class BeliefList {
+		public int states[] = new int[16 * MAX_BELIEF_STATES];
+		public double probabilities[] = new double[16 * MAX_BELIEF_STATES];
+		public int size = 0;
+		
+		/**
+		 * Add a belief point, sorting its states and leaving out zero probabilities.
+		 * @param	pointStates			The states.
+		 * @param	pointProbabilities	Their probabilities.
+		 * @param	count				The number of states.
+		 */
+		public void add(int pointStates[], double pointProbabilities[], int count) {
+			if ((size + 1) * MAX_BELIEF_STATES > states.length) {
+				states = Arrays.copyOf(states, 2 * states.length);
+				probabilities = Arrays.copyOf(probabilities, 2 * probabilities.length);
+			}
+			
+			int start = size * MAX_BELIEF_STATES;
+			int k = 0;
+			for (int j = 0; j < count; j++) {
+				if (pointProbabilities[j] <= 0.0) {
+					continue;
+				}
+				
+				// Insert in increasing order of state.
+				int i = start + k;
+				while (i > start && states[i - 1] > pointStates[j]) {
+					states[i] = states[i - 1];
+					probabilities[i] = probabilities[i - 1];
+					i--;
 				}
-				s++;
+				states[i] = pointStates[j];
+				probabilities[i] = pointProbabilities[j];
+				k++;
 			}
+			for (; k < MAX_BELIEF_STATES; k++) {
+				states[start + k] = -1;
+				probabilities[start + k] = 0.0;
+			}
+			
+			size++;
 		}
-
-		// The terminal state has it's own reward (of zero).
-		if (ssp) {
-			R[terminalState] = TERMINAL_STATE_COST;
-		} else {
-			R[terminalState] = TERMINAL_STATE_REWARD;
+	}
+	
+	/**
+	 * A belief point of the final arrays, compared by its states and probabilities to remove duplicates.
+	 */
+	private class BeliefKey {
+		private int i;
+		
+		public BeliefKey(int i) {
+			this.i = i;
 		}
-
-		// To define the set of beliefs, we must first compute the number of belief points. These belief points
-		// come in a few varieties: (1) collapsed belief points over each non-obstacle state, and (2) distributed
-		// belief over empty/light cells' neighbors, that are also empty/light.
-		r = 0;
 		
-		for (int y = 0; y < h; y++) {
-			for (int x = 0; x < w; x++) {
-				// For (1).
-				if (grid[x][y] != GridPanel.GridCellType.OBSTACLE) {
-					r++;
+		@Override
+		public int hashCode() {
+			int hash = 1;
+			for (int j = i * MAX_BELIEF_STATES; j < (i + 1) * MAX_BELIEF_STATES; j++) {
+				long bits = Double.doubleToLongBits(B[j]);
+				hash = 31 * hash + BS[j];
+				hash = 31 * hash + (int)(bits ^ (bits >>> 32));
+			}
+			return hash;
+		}
+		
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof BeliefKey)) {
+				return false;
+			}
+			int k = ((BeliefKey)other).i;
+			for (int j = 0; j < MAX_BELIEF_STATES; j++) {
+				if (BS[i * MAX_BELIEF_STATES + j] != BS[k * MAX_BELIEF_STATES + j] ||
+						B[i * MAX_BELIEF_STATES + j] != B[k * MAX_BELIEF_STATES + j]) {
+					return false;
 				}
-				
-				// For (2).
-				if (is_cell_emptyish(grid[x][y])) {
-					r++;
+			}
+			return true;
+		}
+	}
+	
+	/**
+	 * Create the belief points. These come in a few varieties: (1) collapsed belief points over each
+	 * non-obstacle state, (2) distributed belief over empty/light cells' neighbors, that are also
+	 * empty/light, and optionally (3) belief split between two neighboring empty/light cells. Large
+	 * grids are split into blocks of rows created in parallel. Identical points are only kept once.
+	 * @param 	cells	The x-by-y grid's cells, row-major.
+	 * @param 	w		The width of the grid.
+	 * @param 	h		The height of the grid.
+	 * @return	The success of creating every belief point.
+	 */
+	private boolean create_beliefs(final byte cells[], final int w, final int h) {
+		int numBlocks = 1;
+		if ((long)w * h >= PARALLEL_BELIEF_CELLS) {
+			numBlocks = Math.min(h, 4 * Runtime.getRuntime().availableProcessors());
+		}
+		
+		// Each block of rows has a list for each variety.
+		final BeliefList lists[][] = new BeliefList[numBlocks][3];
+		
+		if (numBlocks == 1) {
+			create_belief_rows(cells, w, h, 0, h, lists[0]);
+		} else {
+			ArrayList<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+			for (int b = 0; b < numBlocks; b++) {
+				final int block = b;
+				final int y0 = (int)((long)b * h / numBlocks);
+				final int y1 = (int)((long)(b + 1) * h / numBlocks);
+				tasks.add(new Callable<Void>() {
+					@Override
+					public Void call() {
+						create_belief_rows(cells, w, h, y0, y1, lists[block]);
+						return null;
+					}
+				});
+			}
+			
+			ExecutorService executor = Executors.newFixedThreadPool(Math.min(numBlocks, Runtime.getRuntime().availableProcessors()));
+			try {
+				for (Future<Void> future : executor.invokeAll(tasks)) {
+					future.get();
 				}
-				
-//				if (x > 0 && (grid[x - 1][y] == GridPanel.GridCellType.EMPTY || grid[x - 1][y] == GridPanel.GridCellType.LIGHT)) {
-//					r++;
-//				}
-//				if (y > 0 && (grid[x][y - 1] == GridPanel.GridCellType.EMPTY || grid[x][y - 1] == GridPanel.GridCellType.LIGHT)) {
-//					r++;
-//				}
-//				if (x < w - 1 && (grid[x + 1][y] == GridPanel.GridCellType.EMPTY || grid[x + 1][y] == GridPanel.GridCellType.LIGHT)) {
-//					r++;
-//				}
-//				if (y < h - 1 && (grid[x][y + 1] == GridPanel.GridCellType.EMPTY || grid[x][y + 1] == GridPanel.GridCellType.LIGHT)) {
-//					r++;
-//				}
+			} catch (Exception e) {
+				System.out.println("Failed to create the belief points.");
+				e.printStackTrace();
+				return false;
+			} finally {
+				executor.shutdown();
 			}
 		}
 		
-		r++; // Terminal state has a belief point.
+		// The terminal state has a belief point, after (1).
+		BeliefList terminal = new BeliefList();
+		terminal.add(new int[] {terminalState}, new double[] {1.0}, 1);
 		
-		B = new double[r][n];
-		for (int i = 0; i < r; i++) {
-			for (s = 0; s < n; s++) {
-				B[i][s] = 0.0;
+		int capacity = terminal.size;
+		for (int b = 0; b < numBlocks; b++) {
+			for (int kind = 0; kind < 3; kind++) {
+				capacity += (lists[b][kind] != null ? lists[b][kind].size : 0);
 			}
 		}
 		
-		// Now actually create (1).
-		int i = 0;
-		for (int y = 0; y < h; y++) {
-			for (int x = 0; x < w; x++) {
-				if (grid[x][y] != GridPanel.GridCellType.OBSTACLE) {
-					B[i][y * w + x] = 1.0;
-					i++;
-				}
+		// Concatenate the lists in order, skipping duplicates.
+		BS = new int[capacity * MAX_BELIEF_STATES];
+		B = new double[capacity * MAX_BELIEF_STATES];
+		r = 0;
+		HashSet<BeliefKey> keys = new HashSet<BeliefKey>();
+		for (int kind = 0; kind < 3; kind++) {
+			for (int b = 0; b < numBlocks; b++) {
+				append_beliefs(lists[b][kind], keys);
+			}
+			if (kind == 0) {
+				append_beliefs(terminal, keys);
 			}
 		}
 		
-		// Create the terminal state belief point.
-		B[i][terminalState] = 1.0;
-		i++;
+		BS = Arrays.copyOf(BS, r * MAX_BELIEF_STATES);
+		B = Arrays.copyOf(B, r * MAX_BELIEF_STATES);
 		
-		// Actually create (2).
-		for (int y = 0; y < h; y++) {
-			for (int x = 0; x < w; x++) {
-				if (is_cell_emptyish(grid[x][y])) {
-					// First count the neighbors that are valid.
-					int numNeighbors = 0;
-					if (x > 0 && is_cell_emptyish(grid[x - 1][y])) {
-						numNeighbors++;
-					}
-					if (y > 0 && is_cell_emptyish(grid[x][y - 1])) {
-						numNeighbors++;
-					}
-					if (x < w - 1 && is_cell_emptyish(grid[x + 1][y])) {
-						numNeighbors++;
-					}
-					if (y < h - 1 && is_cell_emptyish(grid[x][y + 1])) {
-						numNeighbors++;
-					}
-					
-					// Assign the probability for the state at <x, y>.
-					B[i][y * w + x] = CELL_AND_NEIGHBOR_PROBABILITY; 
-					
-					// Now actually assign the probabilities for the neighbors.
-					if (x > 0 && is_cell_emptyish(grid[x - 1][y])) {
-						B[i][y * w + (x - 1)] = (1.0 - CELL_AND_NEIGHBOR_PROBABILITY) / (double)numNeighbors;
-					}
-					if (y > 0 && is_cell_emptyish(grid[x][y - 1])) {
-						B[i][(y - 1) * w + x] = (1.0 - CELL_AND_NEIGHBOR_PROBABILITY) / (double)numNeighbors;
-					}
-					if (x < w - 1 && is_cell_emptyish(grid[x + 1][y])) {
-						B[i][y * w + (x + 1)] = (1.0 - CELL_AND_NEIGHBOR_PROBABILITY) / (double)numNeighbors;
-					}
-					if (y < h - 1 && is_cell_emptyish(grid[x][y + 1])) {
-						B[i][(y + 1) * w + x] = (1.0 - CELL_AND_NEIGHBOR_PROBABILITY) / (double)numNeighbors;
-					}
-					
-					i++;
-				}
+		return true;
+	}
+	
+	/**
+	 * Append belief points to the final arrays, unless they are already there.
+	 * @param	list	The belief points.
+	 * @param	keys	The belief points already there.
+	 */
+	private void append_beliefs(BeliefList list, HashSet<BeliefKey> keys) {
+		if (list == null) {
+			return;
+		}
+		
+		for (int i = 0; i < list.size; i++) {
+			System.arraycopy(list.states, i * MAX_BELIEF_STATES, BS, r * MAX_BELIEF_STATES, MAX_BELIEF_STATES);
+			System.arraycopy(list.probabilities, i * MAX_BELIEF_STATES, B, r * MAX_BELIEF_STATES, MAX_BELIEF_STATES);
+			if (keys.add(new BeliefKey(r))) {
+				r++;
 			}
 		}
+	}
+	
+	/**
+	 * Create the belief points of a block of rows.
+	 * @param 	cells	The x-by-y grid's cells, row-major.
+	 * @param 	w		The width of the grid.
+	 * @param 	h		The height of the grid.
+	 * @param	y0		The first row.
+	 * @param	y1		The row after the last one.
+	 * @param	lists	The lists to add the belief points of each variety to.
+	 */
+	private void create_belief_rows(byte cells[], int w, int h, int y0, int y1, BeliefList lists[]) {
+		lists[0] = new BeliefList();
+		lists[1] = new BeliefList();
+		lists[2] = (neighborBeliefs ? new BeliefList() : null);
 		
-		// Assign the initial true state and thus belief state.
-		s = 0;
-		for (int y = 0; y < h; y++) {
+		int pointStates[] = new int[MAX_BELIEF_STATES];
+		double pointProbabilities[] = new double[MAX_BELIEF_STATES];
+		
+		for (int y = y0; y < y1; y++) {
 			for (int x = 0; x < w; x++) {
-				if (grid[x][y] == GridPanel.GridCellType.INITIAL) {
-					s0 = s;
-					break;
+				int c = y * w + x;
+				if (cellState[c] < 0) {
+					continue; // Pruned.
 				}
 				
-				s++;
-			}
-			
-			if (s0 >= 0) {
-				break;
+				// Create (1).
+				if (cells[c] != GridPanel.GridCellType.OBSTACLE) {
+					pointStates[0] = resolve_state(x, y, w, h);
+					pointProbabilities[0] = 1.0;
+					lists[0].add(pointStates, pointProbabilities, 1);
+				}
+				
+				if (!is_cell_emptyish(cells[c])) {
+					continue;
+				}
+				
+				// Create (2). First count the neighbors that are valid.
+				int numNeighbors = 0;
+				if (x > 0 && is_cell_emptyish(cells[c - 1])) {
+					numNeighbors++;
+				}
+				if (y > 0 && is_cell_emptyish(cells[c - w])) {
+					numNeighbors++;
+				}
+				if (x < w - 1 && is_cell_emptyish(cells[c + 1])) {
+					numNeighbors++;
+				}
+				if (y < h - 1 && is_cell_emptyish(cells[c + w])) {
+					numNeighbors++;
+				}
+				
+				// Assign the probability for the state at <x, y>, then the neighbors.
+				int count = 0;
+				pointStates[count] = resolve_state(x, y, w, h);
+				pointProbabilities[count++] = parameters.cellAndNeighborProbability;
+				
+				double neighborProbability = (1.0 - parameters.cellAndNeighborProbability) / (double)numNeighbors;
+				if (x > 0 && is_cell_emptyish(cells[c - 1])) {
+					pointStates[count] = resolve_state(x - 1, y, w, h);
+					pointProbabilities[count++] = neighborProbability;
+				}
+				if (y > 0 && is_cell_emptyish(cells[c - w])) {
+					pointStates[count] = resolve_state(x, y - 1, w, h);
+					pointProbabilities[count++] = neighborProbability;
+				}
+				if (x < w - 1 && is_cell_emptyish(cells[c + 1])) {
+					pointStates[count] = resolve_state(x + 1, y, w, h);
+					pointProbabilities[count++] = neighborProbability;
+				}
+				if (y < h - 1 && is_cell_emptyish(cells[c + w])) {
+					pointStates[count] = resolve_state(x, y + 1, w, h);
+					pointProbabilities[count++] = neighborProbability;
+				}
+				lists[1].add(pointStates, pointProbabilities, count);
+				
+				// Create (3). Each pair is seen from both cells; the duplicate is removed later.
+				if (neighborBeliefs) {
+					for (int k = 1; k < count; k++) {
+						int pairStates[] = {pointStates[0], pointStates[k]};
+						double pairProbabilities[] = {0.5, 0.5};
+						lists[2].add(pairStates, pairProbabilities, 2);
+					}
+				}
 			}
 		}
-		
-		// Assign the goal state.
-		ng = 1;
-		goals = new int[ng];
-		goals[0] = terminalState;
 	}
 	
 	private int computeMaxSuccessors() {
@@ -593,8 +1427,8 @@ public class GridMarkov {
 		for (int s = 0; s < n; s++) {
 			for (int a = 0; a < m; a++) {
 				int sans = 0;
-				for (int sp = 0; sp < n; sp++) {
-					if (T[s][a][sp] > 0.0) {
+				for (int i = (s * m + a) * maxSuccessors; i < (s * m + a + 1) * maxSuccessors; i++) {
+					if (S[i] >= 0) {
 						sans++;
 					}
 				}
@@ -609,11 +1443,31 @@ public class GridMarkov {
 	}
 	
 	public boolean saveMDP(File file) {
+		try {
+			FileWriter fileWriter = new FileWriter(file);
+			boolean saved = saveMDP(fileWriter);
+			fileWriter.close();
+			
+			if (!saved) {
+				System.out.println("Failed to save the MDP to file '" + file.getName() + "'.");
+			}
+			return saved;
+		} catch (Exception e) {
+			System.out.println("Failed to save the MDP to file '" + file.getName() + "'.");
+			return false;
+		}
+	}
+	
+	/**
+	 * Write the MDP to a stream, e.g., to export without intermediate files. The writer is not closed.
+	 * @param	fileWriter	The writer.
+	 * @return	The success of writing.
+	 */
+	public boolean saveMDP(Writer fileWriter) {
 		// Determine the maximum number of successors.
 		int ns = computeMaxSuccessors();
 		
 		try {
-			FileWriter fileWriter = new FileWriter(file);
 
 			// Write the first line ("header") for the raw MDP file: <n, ns, m, k, s0, ng, h, g>.
 			fileWriter.write(Integer.toString(n) + "," + Integer.toString(ns) + "," + Integer.toString(m) + ",1," + Integer.toString(s0) + "," + Integer.toString(ng) + "," + Integer.toString(horizon) + "," + Double.toString(gamma) + "\n");
@@ -631,9 +1485,9 @@ public class GridMarkov {
 			for (int a = 0; a < m; a++) {
 				for (int s = 0; s < n; s++) {
 					int sans = 0;
-					for (int sp = 0; sp < n; sp++) {
-						if (T[s][a][sp] > 0.0) {
-							fileWriter.write(Integer.toString(sp));
+					for (int i = (s * m + a) * maxSuccessors; i < (s * m + a + 1) * maxSuccessors; i++) {
+						if (S[i] >= 0) {
+							fileWriter.write(Integer.toString(S[i]));
 							if (sans != ns - 1) {
 								fileWriter.write(",");
 							}
@@ -658,9 +1512,9 @@ public class GridMarkov {
 			for (int a = 0; a < m; a++) {
 				for (int s = 0; s < n; s++) {
 					int sans = 0;
-					for (int sp = 0; sp < n; sp++) {
-						if (T[s][a][sp] > 0.0) {
-							fileWriter.write(Double.toString(T[s][a][sp]));
+					for (int i = (s * m + a) * maxSuccessors; i < (s * m + a + 1) * maxSuccessors; i++) {
+						if (S[i] >= 0) {
+							fileWriter.write(Double.toString(getProbability(i)));
 							if (sans != ns - 1) {
 								fileWriter.write(",");
 							}
@@ -695,9 +1549,8 @@ public class GridMarkov {
 				}
 			}
 
-			fileWriter.close();
+			fileWriter.flush();
 		} catch (Exception e) {
-			System.out.println("Failed to save the MDP to file '" + file.getName() + "'.");
 			return false;
 		}
 
@@ -709,8 +1562,8 @@ public class GridMarkov {
 
 		for (int i = 0; i < r; i++) {
 			int ri = 0;
-			for (int s = 0; s < n; s++) {
-				if (B[i][s] > 0.0) {
+			for (int j = i * MAX_BELIEF_STATES; j < (i + 1) * MAX_BELIEF_STATES; j++) {
+				if (BS[j] >= 0) {
 					ri++;
 				}
 			}
@@ -723,24 +1576,120 @@ public class GridMarkov {
 		return rz;
 	}
 	
+	/**
+	 * Compute the maximum number of non-zero observations of a state.
+	 * @return	The maximum number of observations.
+	 */
+	private int computeMaxObservations() {
+		int zs = 0;
+		
+		for (int sp = 0; sp < n; sp++) {
+			int so = 0;
+			for (int i = sp * MAX_OBSERVATIONS; i < (sp + 1) * MAX_OBSERVATIONS; i++) {
+				if (Z[i] >= 0) {
+					so++;
+				}
+			}
+			
+			if (so > zs) {
+				zs = so;
+			}
+		}
+		
+		return zs;
+	}
+	
 	public boolean savePOMDP(File file) {
+		return save_pomdp(file, false);
+	}
+	
+	/**
+	 * Save the POMDP with sparse observations. The header gains zs, the maximum number of non-zero
+	 * observations of a state: <n, ns, m, z, zs, r, rz, k, s0, h, g>. Instead of m * z lines of n
+	 * observation probabilities, the observations are the same for every action and written like
+	 * the successors: n lines of zs observations (padded with -1), then n lines of their
+	 * probabilities (padded with 0.0). Everything else is as in savePOMDP.
+	 * @param	file	The file to save to.
+	 * @return	The success of saving.
+	 */
+	public boolean saveSparsePOMDP(File file) {
+		return save_pomdp(file, true);
+	}
+	
+	/**
+	 * Save the POMDP to a file, with dense or sparse observations.
+	 * @param	file	The file to save to.
+	 * @param	sparse	Write sparse observations or not.
+	 * @return	The success of saving.
+	 */
+	private boolean save_pomdp(File file, boolean sparse) {
+		if (O == null || B == null) {
+			System.out.println("Failed to save the POMDP to file '" + file.getName() + "'. The model has no observations or beliefs.");
+			return false;
+		}
+		
+		try {
+			FileWriter fileWriter = new FileWriter(file);
+			boolean saved = save_pomdp(fileWriter, sparse);
+			fileWriter.close();
+			
+			if (!saved) {
+				System.out.println("Failed to save the POMDP to file '" + file.getName() + "'.");
+			}
+			return saved;
+		} catch (Exception e) {
+			System.out.println("Failed to save the POMDP to file '" + file.getName() + "'.");
+			return false;
+		}
+	}
+	
+	/**
+	 * Write the POMDP to a stream, e.g., to export without intermediate files. The writer is not closed.
+	 * @param	fileWriter	The writer.
+	 * @return	The success of writing, which requires the observations and beliefs.
+	 */
+	public boolean savePOMDP(Writer fileWriter) {
+		return save_pomdp(fileWriter, false);
+	}
+	
+	/**
+	 * Write the POMDP with sparse observations (see saveSparsePOMDP) to a stream. The writer is not closed.
+	 * @param	fileWriter	The writer.
+	 * @return	The success of writing, which requires the observations and beliefs.
+	 */
+	public boolean saveSparsePOMDP(Writer fileWriter) {
+		return save_pomdp(fileWriter, true);
+	}
+	
+	/**
+	 * Write the POMDP to a stream, with dense or sparse observations.
+	 * @param	fileWriter	The writer.
+	 * @param	sparse		Write sparse observations or not.
+	 * @return	The success of writing.
+	 */
+	private boolean save_pomdp(Writer fileWriter, boolean sparse) {
 		// Determine the maximum number of successors, as well as the maximum number of non-zero belief points.
+		if (O == null || B == null) {
+			return false;
+		}
+		
 		int ns = computeMaxSuccessors();
+		int zs = computeMaxObservations();
 		int rz = computeMaxNonZeroBeliefs();
 		
 		try {
-			FileWriter fileWriter = new FileWriter(file);
 
-			// Write the first line ("header") for the raw POMDP file: <n, ns, m, z, r, rz, k, s0, h, g>.
-			fileWriter.write(Integer.toString(n) + "," + Integer.toString(ns) + "," + Integer.toString(m) + "," + Integer.toString(z) + "," + Integer.toString(r) + "," + Integer.toString(rz) + ",1," + Integer.toString(s0) + "," + Integer.toString(horizon) + "," + Double.toString(gamma) + "\n");
+			// Write the first line ("header") for the raw POMDP file: <n, ns, m, z, r, rz, k, s0, h, g>,
+			// or with sparse observations, <n, ns, m, z, zs, r, rz, k, s0, h, g>.
+			fileWriter.write(Integer.toString(n) + "," + Integer.toString(ns) + "," + Integer.toString(m) + "," + Integer.toString(z) + "," + (sparse ? Integer.toString(zs) + "," : "") + Integer.toString(r) + "," + Integer.toString(rz) + ",1," + Integer.toString(s0) + "," + Integer.toString(horizon) + "," + Double.toString(gamma) + "\n");
 
 			// Save the successor states.
 			for (int a = 0; a < m; a++) {
 				for (int s = 0; s < n; s++) {
 					int sans = 0;
-					for (int sp = 0; sp < n; sp++) {
-						if (T[s][a][sp] > 0.0) {
-							fileWriter.write(Integer.toString(sp));
+					for (int i = (s * m + a) * maxSuccessors; i < (s * m + a + 1) * maxSuccessors; i++) {
+						if (S[i] >= 0) {
+							fileWriter.write(Integer.toString(S[i]));
 							if (sans != ns - 1) {
 								fileWriter.write(",");
 							}
@@ -765,9 +1714,9 @@ public class GridMarkov {
 			for (int a = 0; a < m; a++) {
 				for (int s = 0; s < n; s++) {
 					int sans = 0;
-					for (int sp = 0; sp < n; sp++) {
-						if (T[s][a][sp] > 0.0) {
-							fileWriter.write(Double.toString(T[s][a][sp]));
+					for (int i = (s * m + a) * maxSuccessors; i < (s * m + a + 1) * maxSuccessors; i++) {
+						if (S[i] >= 0) {
+							fileWriter.write(Double.toString(getProbability(i)));
 							if (sans != ns - 1) {
 								fileWriter.write(",");
 							}
@@ -789,17 +1738,67 @@ public class GridMarkov {
 			}
 
 			// Save the observation transitions.
-			for (int a = 0; a < m; a++) {
-				for (int o = 0; o < z; o++) {
-					for (int sp = 0; sp < n; sp++) {
-						fileWriter.write(Double.toString(O[a][sp][o]));
-						if (sp != n - 1) {
+			if (sparse) {
+				for (int sp = 0; sp < n; sp++) {
+					int so = 0;
+					for (int i = sp * MAX_OBSERVATIONS; i < (sp + 1) * MAX_OBSERVATIONS; i++) {
+						if (Z[i] >= 0) {
+							fileWriter.write(Integer.toString(Z[i]));
+							if (so != zs - 1) {
+								fileWriter.write(",");
+							}
+							so++;
+						}
+					}
+
+					// Finish up the remaining ones with "-1".
+					for (int i = so; i < zs; i++) {
+						fileWriter.write("-1");
+
+						if (i != zs - 1) {
+							fileWriter.write(",");
+						}
+					}
+
+					fileWriter.write("\n");
+				}
+
+				for (int sp = 0; sp < n; sp++) {
+					int so = 0;
+					for (int i = sp * MAX_OBSERVATIONS; i < (sp + 1) * MAX_OBSERVATIONS; i++) {
+						if (Z[i] >= 0) {
+							fileWriter.write(Double.toString(O[i]));
+							if (so != zs - 1) {
+								fileWriter.write(",");
+							}
+							so++;
+						}
+					}
+
+					// Finish up the remaining ones with a "0.0".
+					for (int i = so; i < zs; i++) {
+						fileWriter.write("0.0");
+
+						if (i != zs - 1) {
 							fileWriter.write(",");
 						}
 					}
 
 					fileWriter.write("\n");
 				}
+			} else {
+				for (int a = 0; a < m; a++) {
+					for (int o = 0; o < z; o++) {
+						for (int sp = 0; sp < n; sp++) {
+							fileWriter.write(Double.toString(getObservationProbability(sp, o)));
+							if (sp != n - 1) {
+								fileWriter.write(",");
+							}
+						}
+
+						fileWriter.write("\n");
+					}
+				}
 			}
 
 			// Save the rewards.
@@ -817,9 +1816,9 @@ public class GridMarkov {
 			// Save the non-zero belief point states.
 			for (int i = 0; i < r; i++) {
 				int ri = 0;
-				for (int s = 0; s < n; s++) {
-					if (B[i][s] > 0.0) {
-						fileWriter.write(Integer.toString(s));
+				for (int j = i * MAX_BELIEF_STATES; j < (i + 1) * MAX_BELIEF_STATES; j++) {
+					if (BS[j] >= 0) {
+						fileWriter.write(Integer.toString(BS[j]));
 						if (ri != rz - 1) {
 							fileWriter.write(",");
 						}
@@ -842,9 +1841,9 @@ public class GridMarkov {
 			// Save the belief points.
 			for (int i = 0; i < r; i++) {
 				int ri = 0;
-				for (int s = 0; s < n; s++) {
-					if (B[i][s] > 0.0) {
-						fileWriter.write(Double.toString(B[i][s]));
+				for (int j = i * MAX_BELIEF_STATES; j < (i + 1) * MAX_BELIEF_STATES; j++) {
+					if (BS[j] >= 0) {
+						fileWriter.write(Double.toString(B[j]));
 						if (ri != rz - 1) {
 							fileWriter.write(",");
 						}
@@ -866,13 +1865,295 @@ public class GridMarkov {
 				}
 			}
 
-			fileWriter.close();
+			fileWriter.flush();
 		} catch (Exception e) {
-			System.out.println("Failed to save the POMDP to file '" + file.getName() + "'.");
 			return false;
 		}
 
 		return true;
 	}
 
+	/**
+	 * Compute a content hash of everything create would build from: the grid, the SSP flag, the
+	 * creation options, and the model parameters (probabilities, rewards, costs, gamma, horizon).
+	 * Two grids with the same hash create the same model.
+	 * @param 	grid	The grid.
+	 * @param	ssp		Make the SSP version with costs or not.
+	 * @return	The hash, as a hexadecimal string.
+	 */
+	public String computeHash(GridCells grid, boolean ssp) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			
+			DigestOutputStream stream = new DigestOutputStream(digest);
+			DataOutputStream data = new DataOutputStream(stream);
+			
+			data.writeInt(BINARY_VERSION);
+			data.writeInt(grid.getWidth());
+			data.writeInt(grid.getHeight());
+			data.write(grid.getCells());
+			
+			data.writeBoolean(ssp);
+			data.writeBoolean(pruneUnreachable);
+			data.writeBoolean(pomdp);
+			data.writeBoolean(compactStorage);
+			data.writeBoolean(neighborBeliefs);
+			
+			int actions[] = actionModel.toArray();
+			for (int i = 0; i < actions.length; i++) {
+				data.writeInt(actions[i]);
+			}
+			
+			double values[] = parameters.toArray();
+			for (int i = 0; i < values.length; i++) {
+				data.writeDouble(values[i]);
+			}
+			data.flush();
+			
+			StringBuilder hex = new StringBuilder();
+			for (byte b : digest.digest()) {
+				hex.append(String.format("%02x", b));
+			}
+			return hex.toString();
+		} catch (Exception e) {
+			System.out.println("Failed to hash the grid.");
+			return null;
+		}
+	}
+	
+	/** An output stream which feeds everything written to it into a message digest. */
+	private static class DigestOutputStream extends java.io.OutputStream {
+		private MessageDigest digest;
+		
+		public DigestOutputStream(MessageDigest digest) {
+			this.digest = digest;
+		}
+		
+		@Override
+		public void write(int b) {
+			digest.update((byte)b);
+		}
+		
+		@Override
+		public void write(byte b[], int offset, int length) {
+			digest.update(b, offset, length);
+		}
+	}
+	
+	/**
+	 * Save the created model in a compact binary format, which loadBinary reads back without
+	 * running create.
+	 * @param	file	The file to save to.
+	 * @return	The success of saving.
+	 */
+	public boolean saveBinary(File file) {
+		DataOutputStream data = null;
+		
+		try {
+			data = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+			
+			data.writeInt(BINARY_VERSION);
+			data.writeInt(width);
+			data.writeInt(height);
+			data.writeBoolean(ssp);
+			data.writeBoolean(pruneUnreachable);
+			data.writeBoolean(pomdp);
+			data.writeBoolean(compactStorage);
+			data.writeBoolean(neighborBeliefs);
+			data.writeUTF(actionModel.getName());
+			write_ints(data, actionModel.toArray());
+			write_doubles(data, parameters.toArray());
+			
+			data.writeInt(n);
+			data.writeInt(terminalState);
+			data.writeInt(numPrunedStates);
+			write_ints(data, cellState);
+			write_ints(data, stateCell);
+			
+			data.writeInt(m);
+			data.writeInt(maxSuccessors);
+			write_ints(data, S);
+			data.writeBoolean(TCodes != null);
+			if (TCodes != null) {
+				data.writeInt(TCodes.length);
+				data.write(TCodes);
+				write_doubles(data, TTable);
+			} else {
+				write_doubles(data, T);
+			}
+			write_doubles(data, R);
+			
+			data.writeInt(s0);
+			write_ints(data, goals);
+			data.writeInt(horizon);
+			data.writeDouble(gamma);
+			
+			data.writeBoolean(O != null && B != null);
+			if (O != null && B != null) {
+				data.writeInt(z);
+				data.writeInt(inTheDarkObservation);
+				data.writeInt(absorbingObservation);
+				write_ints(data, Z);
+				write_doubles(data, O);
+				
+				data.writeInt(r);
+				write_ints(data, BS);
+				write_doubles(data, B);
+			}
+			
+			data.close();
+			data = null;
+		} catch (Exception e) {
+			System.out.println("Failed to save the binary model to file '" + file.getName() + "'.");
+			return false;
+		} finally {
+			close(data);
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Load a model saved by saveBinary, replacing this one, including the creation options, action
+	 * model, and parameters it was created with. The file is read completely before anything is
+	 * replaced, so a truncated or corrupt file leaves this model unchanged.
+	 * @param	file	The file to load.
+	 * @return	The success of loading.
+	 * @throws	IllegalStateException	If this model is a snapshot.
+	 */
+	public boolean loadBinary(File file) {
+		check_not_frozen();
+		
+		// No array in the file can be longer than the file itself.
+		long maxLength = file.length();
+		
+		GridMarkov loaded = new GridMarkov();
+		DataInputStream data = null;
+		
+		try {
+			data = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			
+			if (data.readInt() != BINARY_VERSION) {
+				System.out.println("File '" + file.getName() + "' has an unsupported binary model version.");
+				return false;
+			}
+			
+			loaded.width = data.readInt();
+			loaded.height = data.readInt();
+			loaded.ssp = data.readBoolean();
+			loaded.pruneUnreachable = data.readBoolean();
+			loaded.pomdp = data.readBoolean();
+			loaded.compactStorage = data.readBoolean();
+			loaded.neighborBeliefs = data.readBoolean();
+			loaded.actionModel = GridActionModel.fromArray(data.readUTF(), read_ints(data, maxLength));
+			loaded.parameters = GridMarkovParameters.fromArray(read_doubles(data, maxLength));
+			if (loaded.actionModel == null || loaded.parameters == null) {
+				throw new java.io.IOException("Invalid action model or parameters.");
+			}
+			
+			loaded.n = data.readInt();
+			loaded.terminalState = data.readInt();
+			loaded.numPrunedStates = data.readInt();
+			loaded.cellState = read_ints(data, maxLength);
+			loaded.stateCell = read_ints(data, maxLength);
+			
+			loaded.m = data.readInt();
+			loaded.maxSuccessors = data.readInt();
+			loaded.S = read_ints(data, maxLength);
+			if (data.readBoolean()) {
+				int length = data.readInt();
+				if (length < 0 || length > maxLength) {
+					throw new java.io.IOException("Invalid array length.");
+				}
+				loaded.TCodes = new byte[length];
+				data.readFully(loaded.TCodes);
+				loaded.TTable = read_doubles(data, maxLength);
+			} else {
+				loaded.T = read_doubles(data, maxLength);
+			}
+			loaded.R = read_doubles(data, maxLength);
+			
+			loaded.s0 = data.readInt();
+			loaded.goals = read_ints(data, maxLength);
+			loaded.ng = loaded.goals.length;
+			loaded.horizon = data.readInt();
+			loaded.gamma = data.readDouble();
+			
+			if (data.readBoolean()) {
+				loaded.z = data.readInt();
+				loaded.inTheDarkObservation = data.readInt();
+				loaded.absorbingObservation = data.readInt();
+				loaded.Z = read_ints(data, maxLength);
+				loaded.O = read_doubles(data, maxLength);
+				
+				loaded.r = data.readInt();
+				loaded.BS = read_ints(data, maxLength);
+				loaded.B = read_doubles(data, maxLength);
+			} else {
+				loaded.z = 0;
+				loaded.r = 0;
+			}
+		} catch (Exception e) {
+			System.out.println("Failed to load the binary model from file '" + file.getName() + "'.");
+			return false;
+		} finally {
+			close(data);
+		}
+		
+		// The counts and cell types used by createVariant are not saved; those stay null.
+		copy_model(loaded);
+		
+		return true;
+	}
+	
+	/**
+	 * Close a stream, if any, ignoring any failure to.
+	 * @param	stream	The stream, or null.
+	 */
+	private static void close(java.io.Closeable stream) {
+		if (stream != null) {
+			try {
+				stream.close();
+			} catch (Exception e) { }
+		}
+	}
+
+	private static void write_ints(DataOutputStream data, int values[]) throws java.io.IOException {
+		data.writeInt(values.length);
+		for (int i = 0; i < values.length; i++) {
+			data.writeInt(values[i]);
+		}
+	}
+	
+	private static void write_doubles(DataOutputStream data, double values[]) throws java.io.IOException {
+		data.writeInt(values.length);
+		for (int i = 0; i < values.length; i++) {
+			data.writeDouble(values[i]);
+		}
+	}
+	
+	private static int[] read_ints(DataInputStream data, long maxLength) throws java.io.IOException {
+		int length = data.readInt();
+		if (length < 0 || length > maxLength / 4) {
+			throw new java.io.IOException("Invalid array length.");
+		}
+		int values[] = new int[length];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = data.readInt();
+		}
+		return values;
+	}
+	
+	private static double[] read_doubles(DataInputStream data, long maxLength) throws java.io.IOException {
+		int length = data.readInt();
+		if (length < 0 || length > maxLength / 8) {
+			throw new java.io.IOException("Invalid array length.");
+		}
+		double values[] = new double[length];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = data.readDouble();
+		}
+		return values;
+	}
+
 }
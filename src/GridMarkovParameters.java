@@ -0,0 +1,227 @@
+/**
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2014 Kyle Hollins Wray, University of Massachusetts
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of
+ *  this software and associated documentation files (the "Software"), to deal in
+ *  the Software without restriction, including without limitation the rights to
+ *  use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ *  the Software, and to permit persons to whom the Software is furnished to do so,
+ *  subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ *  FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ *  IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *  CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * The parameters of the model GridMarkov creates from a grid: the movement probabilities,
+ * the localization probabilities of lights, the belief points, the rewards (MDP) and costs
+ * (SSP) of each cell type, and the horizon and discount factor written to the exports. The
+ * defaults are the values the models have always used.
+ */
+public class GridMarkovParameters {
+
+	/** The probability of moving in the chosen direction. */
+	public double forwardProbability = 0.8;
+
+	/** The probability of deviating to each of the two perpendicular directions. */
+	public double deviateProbability = 0.1;
+
+	/** The probability of observing a light while on it. */
+	public double lightLocalizationProbability = 1.0;
+
+	/** The probability of observing a light while on an empty cell next to it. */
+	public double dimLightLocalizationProbability = 0.8;
+
+	/** The probability of the cell itself in each belief point; its neighbors share the rest. */
+	public double cellAndNeighborProbability = 0.75;
+
+	/** The reward (MDP) of each step on an empty cell. */
+	public double emptyReward = -0.03;
+
+	/** The reward of each step on an obstacle, which no move enters. */
+	public double obstacleReward = 0.0;
+
+	/** The reward of reaching a success cell, received once before the terminal state. */
+	public double successReward = 1.0;
+
+	/** The reward of reaching a failure cell, received once before the terminal state. */
+	public double failureReward = -1.0;
+
+	/** The reward of each step on a dead end, which is never left. */
+	public double deadEndReward = -1.0;
+
+	/** The reward of each step in the absorbing terminal state. */
+	public double terminalStateReward = 0.0;
+
+	/** The reward of each step on a light. */
+	public double lightReward = -0.03;
+
+	/** The reward of each step on the initial cell. */
+	public double initialReward = -0.03;
+
+	/** The cost (SSP) of each step on an empty cell. */
+	public double emptyCost = 1.0;
+
+	/** The cost of each step on an obstacle, which no move enters. */
+	public double obstacleCost = 0.0;
+
+	/** The cost of reaching a success cell, paid once before the terminal state. */
+	public double successCost = 0.0;
+
+	/** The cost of reaching a failure cell, paid once before the terminal state. */
+	public double failureCost = 100.0;
+
+	/** The cost of each step on a dead end, which is never left. */
+	public double deadEndCost = 100.0;
+
+	/** The cost of each step in the absorbing terminal state. */
+	public double terminalStateCost = 0.0;
+
+	/** The cost of each step on a light. */
+	public double lightCost = 1.0;
+
+	/** The cost of each step on the initial cell. */
+	public double initialCost = 1.0;
+
+	/** The horizon written to the exports. */
+	public int horizon = 250;
+
+	/** The discount factor written to the exports. */
+	public double discountFactor = 0.9;
+
+	/**
+	 * The constructor for the GridMarkovParameters class, with the default parameters.
+	 */
+	public GridMarkovParameters() {
+	}
+
+	/**
+	 * The copy constructor for the GridMarkovParameters class, e.g., to vary one parameter.
+	 * @param	other	The parameters to copy.
+	 */
+	public GridMarkovParameters(GridMarkovParameters other) {
+		forwardProbability = other.forwardProbability;
+		deviateProbability = other.deviateProbability;
+		lightLocalizationProbability = other.lightLocalizationProbability;
+		dimLightLocalizationProbability = other.dimLightLocalizationProbability;
+		cellAndNeighborProbability = other.cellAndNeighborProbability;
+
+		emptyReward = other.emptyReward;
+		obstacleReward = other.obstacleReward;
+		successReward = other.successReward;
+		failureReward = other.failureReward;
+		deadEndReward = other.deadEndReward;
+		terminalStateReward = other.terminalStateReward;
+		lightReward = other.lightReward;
+		initialReward = other.initialReward;
+
+		emptyCost = other.emptyCost;
+		obstacleCost = other.obstacleCost;
+		successCost = other.successCost;
+		failureCost = other.failureCost;
+		deadEndCost = other.deadEndCost;
+		terminalStateCost = other.terminalStateCost;
+		lightCost = other.lightCost;
+		initialCost = other.initialCost;
+
+		horizon = other.horizon;
+		discountFactor = other.discountFactor;
+	}
+
+	/**
+	 * Get the reward (MDP) or cost (SSP) of a cell type.
+	 * @param	cellType	The type of the cell, or -1 for the terminal state.
+	 * @param	ssp			Get the cost or not.
+	 * @return	The reward or cost.
+	 */
+	public double getReward(int cellType, boolean ssp) {
+		if (cellType == GridPanel.GridCellType.EMPTY) {
+			return (ssp ? emptyCost : emptyReward);
+		} else if (cellType == GridPanel.GridCellType.OBSTACLE) {
+			return (ssp ? obstacleCost : obstacleReward);
+		} else if (cellType == GridPanel.GridCellType.SUCCESS) {
+			return (ssp ? successCost : successReward);
+		} else if (cellType == GridPanel.GridCellType.FAILURE) {
+			return (ssp ? failureCost : failureReward);
+		} else if (cellType == GridPanel.GridCellType.DEAD_END) {
+			return (ssp ? deadEndCost : deadEndReward);
+		} else if (cellType == GridPanel.GridCellType.LIGHT) {
+			return (ssp ? lightCost : lightReward);
+		} else if (cellType == GridPanel.GridCellType.INITIAL) {
+			return (ssp ? initialCost : initialReward);
+		} else {
+			return (ssp ? terminalStateCost : terminalStateReward);
+		}
+	}
+
+	/**
+	 * Get all the parameters as an array, in a fixed order, e.g., for hashing.
+	 * @return	The parameters.
+	 */
+	public double[] toArray() {
+		double values[] = {
+			forwardProbability, deviateProbability,
+			lightLocalizationProbability, dimLightLocalizationProbability, cellAndNeighborProbability,
+			emptyReward, obstacleReward, successReward, failureReward, deadEndReward,
+			terminalStateReward, lightReward, initialReward,
+			emptyCost, obstacleCost, successCost, failureCost, deadEndCost,
+			terminalStateCost, lightCost, initialCost,
+			horizon, discountFactor
+		};
+		return values;
+	}
+
+	/**
+	 * Create the parameters from the array of toArray, e.g., as saved with a model.
+	 * @param	values	The parameters, in the order of toArray.
+	 * @return	The parameters, or null if the array has the wrong length.
+	 */
+	public static GridMarkovParameters fromArray(double values[]) {
+		if (values.length != new GridMarkovParameters().toArray().length) {
+			System.out.println("Invalid number of model parameters.");
+			return null;
+		}
+
+		GridMarkovParameters parameters = new GridMarkovParameters();
+		int i = 0;
+
+		parameters.forwardProbability = values[i++];
+		parameters.deviateProbability = values[i++];
+		parameters.lightLocalizationProbability = values[i++];
+		parameters.dimLightLocalizationProbability = values[i++];
+		parameters.cellAndNeighborProbability = values[i++];
+
+		parameters.emptyReward = values[i++];
+		parameters.obstacleReward = values[i++];
+		parameters.successReward = values[i++];
+		parameters.failureReward = values[i++];
+		parameters.deadEndReward = values[i++];
+		parameters.terminalStateReward = values[i++];
+		parameters.lightReward = values[i++];
+		parameters.initialReward = values[i++];
+
+		parameters.emptyCost = values[i++];
+		parameters.obstacleCost = values[i++];
+		parameters.successCost = values[i++];
+		parameters.failureCost = values[i++];
+		parameters.deadEndCost = values[i++];
+		parameters.terminalStateCost = values[i++];
+		parameters.lightCost = values[i++];
+		parameters.initialCost = values[i++];
+
+		parameters.horizon = (int)values[i++];
+		parameters.discountFactor = values[i++];
+
+		return parameters;
+	}
+
+}
@@ -0,0 +1,390 @@
+/**
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2014 Kyle Hollins Wray, University of Massachusetts
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of
+ *  this software and associated documentation files (the "Software"), to deal in
+ *  the Software without restriction, including without limitation the rights to
+ *  use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ *  the Software, and to permit persons to whom the Software is furnished to do so,
+ *  subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ *  FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ *  IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *  CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * A cache directory of previously created models and solved policies, keyed by a hash of
+ * the grid contents and model parameters (see GridMarkov.computeHash). A hit skips create
+ * (and the solve) entirely. The least recently used files are evicted once the directory
+ * exceeds its size cap. The public methods are synchronized, so one cache can be shared between
+ * threads, though they then create and solve one grid at a time.
+ */
+public class GridModelCache {
+
+	/** The file extension of cached models. */
+	private static final String MODEL_EXTENSION = ".model";
+
+	/** The file extension of cached solutions. */
+	private static final String SOLUTION_EXTENSION = ".policy";
+
+	/** The cache directory. */
+	private File directory;
+
+	/** The maximum total size of the cached files, in bytes. */
+	private long maxBytes;
+
+	/** The size of each cached file, from least to most recently used. */
+	private LinkedHashMap<String, Long> entries;
+
+	/** The total size of the cached files, in bytes. */
+	private long totalBytes;
+
+	/** The number of cache hits. */
+	private int hits;
+
+	/** The number of cache misses. */
+	private int misses;
+
+	/** The total size of the models and solutions loaded instead of being created, in bytes. */
+	private long bytesSaved;
+
+	/**
+	 * A solved grid: the value and policy (action) of each cell.
+	 */
+	public static class Solution {
+		/** The width of the grid. */
+		public int width;
+
+		/** The height of the grid. */
+		public int height;
+
+		/** The value of each cell (y * w + x), or NaN if the cell was pruned. */
+		public double values[];
+
+		/** The policy (action) of each cell (y * w + x), or -1 if the cell was pruned. */
+		public int policy[];
+
+		/** The number of sweeps the solve took. */
+		public int iterations;
+	}
+
+	/**
+	 * The constructor for the GridModelCache class, which indexes the files already in the directory.
+	 * @param	directory	The cache directory, created if it does not exist.
+	 * @param	maxBytes	The maximum total size of the cached files, in bytes.
+	 */
+	public GridModelCache(File directory, long maxBytes) {
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+		this.entries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+		this.totalBytes = 0;
+		this.hits = 0;
+		this.misses = 0;
+		this.bytesSaved = 0;
+
+		directory.mkdirs();
+
+		File files[] = directory.listFiles();
+		if (files == null) {
+			return;
+		}
+
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File a, File b) {
+				return Long.compare(a.lastModified(), b.lastModified());
+			}
+		});
+
+		for (File file : files) {
+			if (file.getName().endsWith(MODEL_EXTENSION) || file.getName().endsWith(SOLUTION_EXTENSION)) {
+				entries.put(file.getName(), file.length());
+				totalBytes += file.length();
+			} else if (file.getName().endsWith(".tmp")) {
+				file.delete();
+			}
+		}
+
+		evict();
+	}
+
+	/**
+	 * Get the model of a grid, loading it from the cache or creating (and caching) it.
+	 * @param 	grid	The grid.
+	 * @param	ssp		Make the SSP version with costs or not.
+	 * @param	pomdp	Create the POMDP observations and beliefs or not.
+	 * @return	The model, an immutable snapshot (see GridMarkov.snapshot), or null if it could not be created.
+	 */
+	public synchronized GridMarkov getModel(GridCells grid, boolean ssp, boolean pomdp) {
+		GridMarkov model = new GridMarkov();
+		model.setCreatePOMDP(pomdp);
+
+		String name = model.computeHash(grid, ssp) + MODEL_EXTENSION;
+		File file = new File(directory, name);
+
+		if (entries.containsKey(name) && model.loadBinary(file)) {
+			hit(name, file);
+			return model.snapshot();
+		}
+
+		misses++;
+
+		model = model.create(grid, ssp);
+		if (model == null) {
+			return null;
+		}
+
+		File temporary = new File(directory, name + ".tmp");
+		if (model.saveBinary(temporary)) {
+			store(name, temporary, file);
+		}
+
+		return model;
+	}
+
+	/**
+	 * Solve a grid with value iteration, loading the solution from the cache or creating the
+	 * model, solving it, and caching the solution. A hit needs no model at all.
+	 * @param 	grid	The grid.
+	 * @param	ssp		Make the SSP version with costs or not.
+	 * @param	gamma	The discount factor.
+	 * @param	epsilon	The convergence criterion.
+	 * @return	The solution.
+	 */
+	public synchronized Solution solve(GridCells grid, boolean ssp, double gamma, double epsilon) {
+		GridMarkov model = new GridMarkov();
+		model.setCreatePOMDP(false);
+
+		String hash = model.computeHash(grid, ssp);
+		String name = hash + "-" + Long.toHexString(Double.doubleToLongBits(gamma))
+				+ "-" + Long.toHexString(Double.doubleToLongBits(epsilon)) + SOLUTION_EXTENSION;
+		File file = new File(directory, name);
+
+		if (entries.containsKey(name)) {
+			Solution solution = load_solution(file);
+			if (solution != null) {
+				hit(name, file);
+				return solution;
+			}
+		}
+
+		misses++;
+
+		model.create(grid, ssp);
+
+		GridValueIteration solver = new GridValueIteration(model);
+		solver.solve(gamma, epsilon);
+
+		Solution solution = toSolution(model, solver.getValues(), solver.getPolicy(), solver.getIterations());
+
+		File temporary = new File(directory, name + ".tmp");
+		if (save_solution(solution, temporary)) {
+			store(name, temporary, file);
+		}
+
+		return solution;
+	}
+
+	/**
+	 * Convert the values and policy of a model's states into a solution over its grid cells.
+	 * @param	model		The model.
+	 * @param	V			The value of each state.
+	 * @param	pi			The policy (action) of each state.
+	 * @param	iterations	The number of sweeps the solve took.
+	 * @return	The solution.
+	 */
+	public static Solution toSolution(GridMarkov model, double V[], int pi[], int iterations) {
+		int w = model.getGridWidth();
+		int h = model.getGridHeight();
+
+		Solution solution = new Solution();
+		solution.width = w;
+		solution.height = h;
+		solution.values = new double[w * h];
+		solution.policy = new int[w * h];
+		solution.iterations = iterations;
+		for (int y = 0; y < h; y++) {
+			for (int x = 0; x < w; x++) {
+				int s = model.getCellState(x, y);
+				solution.values[y * w + x] = (s >= 0 ? V[s] : Double.NaN);
+				solution.policy[y * w + x] = (s >= 0 ? pi[s] : -1);
+			}
+		}
+
+		return solution;
+	}
+
+	/**
+	 * Get the number of cache hits.
+	 * @return	The number of hits.
+	 */
+	public synchronized int getHits() {
+		return hits;
+	}
+
+	/**
+	 * Get the number of cache misses.
+	 * @return	The number of misses.
+	 */
+	public synchronized int getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Get the total size of the models and solutions loaded instead of being created.
+	 * @return	The bytes saved.
+	 */
+	public synchronized long getBytesSaved() {
+		return bytesSaved;
+	}
+
+	/**
+	 * Get the total size of the cached files.
+	 * @return	The size, in bytes.
+	 */
+	public synchronized long getTotalBytes() {
+		return totalBytes;
+	}
+
+	/**
+	 * Get the number of cached files.
+	 * @return	The number of files.
+	 */
+	public synchronized int getNumEntries() {
+		return entries.size();
+	}
+
+	/**
+	 * Print the cache statistics.
+	 */
+	public synchronized void printStatistics() {
+		System.out.println("Cache: " + hits + " hits, " + misses + " misses, " + bytesSaved + " bytes saved, "
+				+ entries.size() + " files (" + totalBytes + " of " + maxBytes + " bytes).");
+	}
+
+	/**
+	 * Record a hit on a cached file, making it the most recently used.
+	 * @param	name	The file name.
+	 * @param	file	The file.
+	 */
+	private void hit(String name, File file) {
+		hits++;
+		bytesSaved += entries.get(name);
+		file.setLastModified(System.currentTimeMillis());
+	}
+
+	/**
+	 * Move a fully written temporary file into place and evict to stay under the size cap.
+	 * @param	name		The file name.
+	 * @param	temporary	The temporary file.
+	 * @param	file		The file.
+	 */
+	private void store(String name, File temporary, File file) {
+		file.delete();
+		if (!temporary.renameTo(file)) {
+			System.out.println("Failed to store file '" + name + "' in the cache.");
+			temporary.delete();
+			return;
+		}
+
+		Long previous = entries.put(name, file.length());
+		if (previous != null) {
+			totalBytes -= previous;
+		}
+		totalBytes += file.length();
+
+		evict();
+	}
+
+	/**
+	 * Delete the least recently used files until the cache fits its size cap.
+	 */
+	private void evict() {
+		Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+		while (totalBytes > maxBytes && iterator.hasNext()) {
+			Map.Entry<String, Long> entry = iterator.next();
+			new File(directory, entry.getKey()).delete();
+			totalBytes -= entry.getValue();
+			iterator.remove();
+		}
+	}
+
+	/**
+	 * Save a solution.
+	 * @param	solution	The solution.
+	 * @param	file		The file to save to.
+	 * @return	The success of saving.
+	 */
+	private boolean save_solution(Solution solution, File file) {
+		try {
+			DataOutputStream data = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+
+			data.writeInt(solution.width);
+			data.writeInt(solution.height);
+			data.writeInt(solution.iterations);
+			for (int i = 0; i < solution.width * solution.height; i++) {
+				data.writeDouble(solution.values[i]);
+				data.writeByte(solution.policy[i]);
+			}
+
+			data.close();
+		} catch (Exception e) {
+			System.out.println("Failed to save the solution to file '" + file.getName() + "'.");
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Load a solution.
+	 * @param	file	The file to load.
+	 * @return	The solution, or null if it could not be loaded.
+	 */
+	private Solution load_solution(File file) {
+		try {
+			DataInputStream data = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+			Solution solution = new Solution();
+			solution.width = data.readInt();
+			solution.height = data.readInt();
+			solution.iterations = data.readInt();
+			solution.values = new double[solution.width * solution.height];
+			solution.policy = new int[solution.width * solution.height];
+			for (int i = 0; i < solution.width * solution.height; i++) {
+				solution.values[i] = data.readDouble();
+				solution.policy[i] = data.readByte();
+			}
+
+			data.close();
+			return solution;
+		} catch (Exception e) {
+			System.out.println("Failed to load the solution from file '" + file.getName() + "'.");
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,1218 @@
+/**
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2014 Kyle Hollins Wray, University of Massachusetts
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of
+ *  this software and associated documentation files (the "Software"), to deal in
+ *  the Software without restriction, including without limitation the rights to
+ *  use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ *  the Software, and to permit persons to whom the Software is furnished to do so,
+ *  subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ *  FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ *  IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *  CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+/**
+ * A reader and validator of raw models in the layout of GridMarkov.saveMDP, savePOMDP, and
+ * saveSparsePOMDP. The
+ * file is split into line-aligned chunks which are parsed in parallel: a first pass counts the
+ * lines of each chunk, so the second knows which block (successors, probabilities, observations,
+ * rewards, beliefs) each line belongs to. Observations are kept sparsely. The header, the number
+ * of lines and fields, the successor bounds, and the probability sums are validated, and the
+ * first errors are reported with their line numbers.
+ */
+public class GridModelReader {
+
+	/** The size of the buffer each thread reads the file with. */
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	/** The longest number accepted, in characters. */
+	private static final int MAX_FIELD_LENGTH = 64;
+
+	/** The tolerance of probability sums. */
+	private static final double SUM_TOLERANCE = 1e-6;
+
+	/** The number of chunks per thread, to balance the load. */
+	private static final int CHUNKS_PER_THREAD = 4;
+
+	/** The blocks of lines of a file. */
+	private static final int HEADER = 0;
+	private static final int GOALS = 1;
+	private static final int SUCCESSORS = 2;
+	private static final int PROBABILITIES = 3;
+	private static final int OBSERVATIONS = 4;
+	private static final int SPARSE_OBSERVATIONS = 5;
+	private static final int SPARSE_OBSERVATION_PROBABILITIES = 6;
+	private static final int REWARDS = 7;
+	private static final int BELIEF_STATES = 8;
+	private static final int BELIEF_PROBABILITIES = 9;
+	private static final int END = 10;
+	private static final String blockName[] = {
+		"header", "goals", "successors", "probabilities", "observations", "sparse observations",
+		"sparse observation probabilities", "rewards", "belief states", "belief probabilities", "end"
+	};
+
+	private static final double POWERS_OF_TEN[] = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+
+	/** The number of threads parsing at once. */
+	private int numThreads;
+
+	/** The number of errors kept and printed. */
+	private int maxErrors;
+
+	private boolean pomdp;
+	private boolean sparseObservations;
+	private int n;
+	private int ns;
+	private int m;
+	private int z;
+	private int zs;
+	private int r;
+	private int rz;
+	private int k;
+	private int s0;
+	private int ng;
+	private int horizon;
+	private double gamma;
+
+	private int goals[];
+	private int S[]; // The successors of state-action pair (s, a) start at (s * m + a) * ns, as in GridMarkov.
+	private double T[];
+	private double R[]; // The reward of state s for action a is at a * n + s.
+	private int observationStart[]; // The observations of (a, sp) are at observationStart[a * n + sp] up to that of the next; sparse ones at observationStart[sp].
+	private int sparseObservationStates[]; // While parsing sparse observations, those of sp are at sp * zs, padded with -1.
+	private double sparseObservationProbabilities[];
+	private int observations[];
+	private double observationProbabilities[];
+	private int beliefStates[]; // The states of belief point i are at i * rz, padded with -1.
+	private double beliefProbabilities[];
+
+	/** The first line of each block, and the number of lines of the file. */
+	private long blockStart[];
+
+	/** The first errors, sorted by line. */
+	private ArrayList<String> errors;
+
+	/** The total number of errors. */
+	private long numErrors;
+
+	/** The throughput of the last read, in bytes per second. */
+	private double bytesPerSecond;
+
+	/** An error found while reading, with its line for sorting. */
+	private static class Error {
+		public long line;
+		public String message;
+
+		/**
+		 * The constructor for the Error class.
+		 * @param	line	The line, counted from 0.
+		 * @param	message	The message.
+		 */
+		public Error(long line, String message) {
+			this.line = line;
+			this.message = message;
+		}
+	}
+
+	/** The state of a thread parsing one chunk of the file. */
+	private class Chunk {
+		public long start;
+		public long end;
+		public long firstLine;
+		public long numLines;
+		public boolean endsWithNewline;
+
+		public ArrayList<Error> chunkErrors = new ArrayList<Error>();
+		public long numChunkErrors = 0;
+
+		// The non-zero observations found in the chunk, in line order.
+		public int observationKeys[] = new int[0];
+		public int observationValues[] = new int[0];
+		public double observationWeights[] = new double[0];
+		public int numObservations = 0;
+
+		/**
+		 * Record an error found in the chunk, keeping only the first ones.
+		 * @param	line	The line, counted from 0.
+		 * @param	message	The message.
+		 */
+		public void error(long line, String message) {
+			numChunkErrors++;
+			if (chunkErrors.size() < maxErrors) {
+				chunkErrors.add(new Error(line, message));
+			}
+		}
+
+		/**
+		 * Record a non-zero observation found in the chunk.
+		 * @param	key		The successor-action pair, as a * n + sp.
+		 * @param	o		The observation.
+		 * @param	p		The probability.
+		 */
+		public void addObservation(int key, int o, double p) {
+			if (numObservations == observationKeys.length) {
+				int capacity = Math.max(16, 2 * numObservations);
+				observationKeys = Arrays.copyOf(observationKeys, capacity);
+				observationValues = Arrays.copyOf(observationValues, capacity);
+				observationWeights = Arrays.copyOf(observationWeights, capacity);
+			}
+			observationKeys[numObservations] = key;
+			observationValues[numObservations] = o;
+			observationWeights[numObservations] = p;
+			numObservations++;
+		}
+	}
+
+	/**
+	 * The constructor for the GridModelReader class.
+	 */
+	public GridModelReader() {
+		this.numThreads = Runtime.getRuntime().availableProcessors();
+		this.maxErrors = 10;
+		this.errors = new ArrayList<String>();
+		this.numErrors = 0;
+		this.bytesPerSecond = 0.0;
+	}
+
+	/**
+	 * Read and validate a model from the command line.
+	 * @param	args	The file, and optionally the number of threads.
+	 */
+	public static void main(String[] args) {
+		if (args.length < 1) {
+			System.out.println("Usage: GridModelReader <mdp or pomdp file> [threads]");
+			return;
+		}
+
+		GridModelReader reader = new GridModelReader();
+		if (args.length > 1) {
+			reader.setNumThreads(Integer.parseInt(args[1]));
+		}
+		reader.read(new File(args[0]));
+	}
+
+	/**
+	 * Set the number of threads parsing at once.
+	 * @param	numThreads	The number of threads; the default is the number of processors.
+	 */
+	public void setNumThreads(int numThreads) {
+		this.numThreads = Math.max(1, numThreads);
+	}
+
+	/**
+	 * Set the number of errors kept and printed.
+	 * @param	maxErrors	The number of errors.
+	 */
+	public void setMaxErrors(int maxErrors) {
+		this.maxErrors = Math.max(0, maxErrors);
+	}
+
+	/**
+	 * Read and validate a model, printing the throughput and the first errors.
+	 * @param	file	The .mdp or .pomdp file; the kind is detected from the header.
+	 * @return	True if the model was read without errors.
+	 */
+	public boolean read(File file) {
+		errors = new ArrayList<String>();
+		numErrors = 0;
+
+		long startTime = System.nanoTime();
+
+		try {
+			RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+			FileChannel channel = randomAccessFile.getChannel();
+			try {
+				read(channel);
+			} finally {
+				randomAccessFile.close();
+			}
+		} catch (Exception e) {
+			System.out.println("Failed to read the model from file '" + file.getName() + "'.");
+			return false;
+		}
+
+		double seconds = (System.nanoTime() - startTime) / 1e9;
+		bytesPerSecond = file.length() / seconds;
+
+		System.out.println("Read " + (sparseObservations ? "sparse POMDP" : (pomdp ? "POMDP" : "MDP")) + " '" + file.getName() + "' (" + file.length() + " bytes) in " +
+				String.format("%.2f", seconds) + " s (" + String.format("%.1f", bytesPerSecond / 1e6) + " MB/s) with " +
+				numErrors + " errors.");
+		for (String error : errors) {
+			System.out.println("  " + error);
+		}
+		if (numErrors > errors.size()) {
+			System.out.println("  ...");
+		}
+
+		return (numErrors == 0);
+	}
+
+	/**
+	 * Read and validate a model from an open file.
+	 * @param	channel	The file.
+	 */
+	private void read(final FileChannel channel) throws Exception {
+		long size = channel.size();
+
+		// The header is parsed on its own, since it defines the layout of everything else.
+		long headerEnd = read_header(channel);
+		if (headerEnd < 0) {
+			return;
+		}
+
+		allocate();
+
+		// Split the rest into line-aligned chunks.
+		int numChunks = (int)Math.max(1, Math.min(numThreads * CHUNKS_PER_THREAD, (size - headerEnd) / BUFFER_SIZE + 1));
+		final Chunk chunks[] = new Chunk[numChunks];
+		long previous = headerEnd;
+		for (int c = 0; c < numChunks; c++) {
+			chunks[c] = new Chunk();
+			chunks[c].start = previous;
+			if (c == numChunks - 1) {
+				chunks[c].end = size;
+			} else {
+				chunks[c].end = Math.max(previous, next_line(channel, headerEnd + (c + 1) * (size - headerEnd) / numChunks));
+			}
+			previous = chunks[c].end;
+		}
+
+		// First pass: count the lines of each chunk, which gives the first line of the next.
+		ArrayList<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (final Chunk chunk : chunks) {
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					count_lines(channel, chunk);
+					return null;
+				}
+			});
+		}
+		run(tasks);
+
+		long line = 1;
+		for (Chunk chunk : chunks) {
+			chunk.firstLine = line;
+			line += chunk.numLines;
+		}
+		Chunk last = chunks[numChunks - 1];
+		if (last.end > last.start && !last.endsWithNewline) {
+			line++; // The final line has no newline.
+		}
+		ArrayList<Error> allErrors = new ArrayList<Error>();
+		if (line != blockStart[END]) {
+			add_error(allErrors, new Error(Math.min(line, blockStart[END]), "The file has " + line + " lines, but the header implies " + blockStart[END] + "."));
+		}
+
+		// Second pass: parse the lines of each chunk into the model.
+		tasks.clear();
+		for (final Chunk chunk : chunks) {
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					parse_chunk(channel, chunk);
+					return null;
+				}
+			});
+		}
+		run(tasks);
+
+		for (Chunk chunk : chunks) {
+			allErrors.addAll(chunk.chunkErrors);
+			numErrors += chunk.numChunkErrors;
+		}
+
+		if (sparseObservations) {
+			compress_observations(allErrors);
+		} else if (pomdp) {
+			merge_observations(chunks, allErrors);
+		}
+		validate_successors(allErrors);
+
+		Collections.sort(allErrors, new Comparator<Error>() {
+			@Override
+			public int compare(Error a, Error b) {
+				return Long.compare(a.line, b.line);
+			}
+		});
+		for (int i = 0; i < allErrors.size() && errors.size() < maxErrors; i++) {
+			errors.add("Line " + (allErrors.get(i).line + 1) + ": " + allErrors.get(i).message);
+		}
+	}
+
+	/**
+	 * Parse and validate the header, and compute where each block starts.
+	 * @param	channel	The file.
+	 * @return	The position after the header, or -1 if the header is invalid or implies more than
+	 * 			the file can hold.
+	 */
+	private long read_header(FileChannel channel) throws Exception {
+		long end = next_line(channel, 0);
+
+		ByteBuffer buffer = ByteBuffer.allocate((int)Math.min(end, MAX_FIELD_LENGTH * 10));
+		channel.read(buffer, 0);
+		String fields[] = new String(buffer.array(), 0, buffer.position(), "US-ASCII").trim().split(",");
+
+		pomdp = (fields.length == 10 || fields.length == 11);
+		sparseObservations = (fields.length == 11);
+		if (fields.length != 8 && fields.length != 10 && fields.length != 11) {
+			add_error(new Error(0, "The header has " + fields.length + " fields, but an MDP has 8, a POMDP 10, and a sparse POMDP 11."));
+			return -1;
+		}
+
+		try {
+			int i = 0;
+			n = Integer.parseInt(fields[i++].trim());
+			ns = Integer.parseInt(fields[i++].trim());
+			m = Integer.parseInt(fields[i++].trim());
+			if (pomdp) {
+				z = Integer.parseInt(fields[i++].trim());
+				zs = (sparseObservations ? Integer.parseInt(fields[i++].trim()) : 0);
+				r = Integer.parseInt(fields[i++].trim());
+				rz = Integer.parseInt(fields[i++].trim());
+				k = Integer.parseInt(fields[i++].trim());
+				s0 = Integer.parseInt(fields[i++].trim());
+				ng = 0;
+			} else {
+				z = 0;
+				zs = 0;
+				r = 0;
+				rz = 0;
+				k = Integer.parseInt(fields[i++].trim());
+				s0 = Integer.parseInt(fields[i++].trim());
+				ng = Integer.parseInt(fields[i++].trim());
+			}
+			horizon = Integer.parseInt(fields[i++].trim());
+			gamma = Double.parseDouble(fields[i++].trim());
+		} catch (NumberFormatException e) {
+			add_error(new Error(0, "The header has a malformed number."));
+			return -1;
+		}
+
+		if (n < 1 || ns < 1 || m < 1 || z < 0 || zs < 0 || r < 0 || rz < 0 || ng < 0) {
+			add_error(new Error(0, "The header has a negative or zero size."));
+			return -1;
+		}
+		if (zs > z) {
+			add_error(new Error(0, "The header has more observations per state (" + zs + ") than observations (" + z + ")."));
+			return -1;
+		}
+		if (ns > n || rz > n) {
+			add_error(new Error(0, "The header has more successors (" + ns + ") or belief states (" + rz + ") than states (" + n + ")."));
+			return -1;
+		}
+		if (k != 1) {
+			add_error(new Error(0, "The header has " + k + " reward functions, but only 1 is supported."));
+			return -1;
+		}
+		if (s0 < -1 || s0 >= n) {
+			add_error(new Error(0, "The initial state " + s0 + " is out of bounds."));
+		}
+		if (gamma < 0.0 || gamma > 1.0) {
+			add_error(new Error(0, "The discount factor " + gamma + " is not on [0, 1]."));
+		}
+
+		blockStart = new long[END + 1];
+		blockStart[HEADER] = 0;
+		blockStart[GOALS] = 1;
+		blockStart[SUCCESSORS] = blockStart[GOALS] + (pomdp ? 0 : 1);
+		blockStart[PROBABILITIES] = blockStart[SUCCESSORS] + (long)m * n;
+		blockStart[OBSERVATIONS] = blockStart[PROBABILITIES] + (long)m * n;
+		blockStart[SPARSE_OBSERVATIONS] = blockStart[OBSERVATIONS] + (sparseObservations ? 0 : (long)m * z);
+		blockStart[SPARSE_OBSERVATION_PROBABILITIES] = blockStart[SPARSE_OBSERVATIONS] + (sparseObservations ? n : 0);
+		blockStart[REWARDS] = blockStart[SPARSE_OBSERVATION_PROBABILITIES] + (sparseObservations ? n : 0);
+		blockStart[BELIEF_STATES] = blockStart[REWARDS] + m;
+		blockStart[BELIEF_PROBABILITIES] = blockStart[BELIEF_STATES] + r;
+		blockStart[END] = blockStart[BELIEF_PROBABILITIES] + r;
+
+		// Each line takes at least its newline, and each value a character and its separator, so
+		// sizes the file cannot hold are rejected before anything is allocated for them.
+		long size = channel.size();
+		if (blockStart[END] - 1 > size) {
+			add_error(new Error(0, "The header implies " + blockStart[END] + " lines, more than the file of " + size + " bytes can hold."));
+			return -1;
+		}
+		long maxValues = Math.min(Integer.MAX_VALUE - 8, size / 2 + 1);
+		long numValues[] = { (long)n * m * ns, (long)m * n, (long)r * rz, (sparseObservations ? (long)n * zs : 0), ng };
+		String valueName[] = { "successors", "rewards", "belief states", "sparse observations", "goals" };
+		for (int i = 0; i < numValues.length; i++) {
+			if (numValues[i] > maxValues) {
+				add_error(new Error(0, "The header implies " + numValues[i] + " " + valueName[i] + ", more than the file of " + size + " bytes can hold."));
+				return -1;
+			}
+		}
+
+		return end;
+	}
+
+	/**
+	 * Allocate the model for the sizes of the header.
+	 */
+	private void allocate() {
+		goals = new int[ng];
+		S = new int[n * m * ns];
+		T = new double[n * m * ns];
+		R = new double[m * n];
+		observationStart = null;
+		observations = null;
+		observationProbabilities = null;
+		sparseObservationStates = null;
+		sparseObservationProbabilities = null;
+		if (pomdp) {
+			beliefStates = new int[r * rz];
+			beliefProbabilities = new double[r * rz];
+			if (sparseObservations) {
+				sparseObservationStates = new int[n * zs];
+				sparseObservationProbabilities = new double[n * zs];
+			}
+		} else {
+			observationStart = null;
+			observations = null;
+			observationProbabilities = null;
+			beliefStates = null;
+			beliefProbabilities = null;
+		}
+	}
+
+	/**
+	 * Find the start of the line after a position.
+	 * @param	channel		The file.
+	 * @param	position	The position.
+	 * @return	The position after the next newline, or the size of the file if there is none.
+	 */
+	private long next_line(FileChannel channel, long position) throws Exception {
+		ByteBuffer buffer = ByteBuffer.allocate(4096);
+		while (position < channel.size()) {
+			buffer.clear();
+			int length = channel.read(buffer, position);
+			if (length <= 0) {
+				break;
+			}
+			byte bytes[] = buffer.array();
+			for (int i = 0; i < length; i++) {
+				if (bytes[i] == '\n') {
+					return position + i + 1;
+				}
+			}
+			position += length;
+		}
+		return channel.size();
+	}
+
+	/**
+	 * Count the newlines of a chunk.
+	 * @param	channel	The file.
+	 * @param	chunk	The chunk.
+	 */
+	private void count_lines(FileChannel channel, Chunk chunk) throws Exception {
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		byte bytes[] = buffer.array();
+
+		long numLines = 0;
+		byte lastByte = '\n';
+		for (long position = chunk.start; position < chunk.end; ) {
+			buffer.clear();
+			buffer.limit((int)Math.min(BUFFER_SIZE, chunk.end - position));
+			int length = channel.read(buffer, position);
+			if (length <= 0) {
+				break;
+			}
+			for (int i = 0; i < length; i++) {
+				if (bytes[i] == '\n') {
+					numLines++;
+				}
+			}
+			lastByte = bytes[length - 1];
+			position += length;
+		}
+
+		chunk.numLines = numLines;
+		chunk.endsWithNewline = (lastByte == '\n');
+	}
+
+	/**
+	 * Parse the lines of a chunk, field by field, into the model.
+	 * @param	channel	The file.
+	 * @param	chunk	The chunk.
+	 */
+	private void parse_chunk(FileChannel channel, Chunk chunk) throws Exception {
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		byte bytes[] = buffer.array();
+
+		byte field[] = new byte[MAX_FIELD_LENGTH];
+		int fieldLength = 0;
+		boolean fieldTooLong = false;
+
+		long line = chunk.firstLine;
+		int block = block_of(line);
+		int fieldIndex = 0;
+		double rowSum[] = new double[1];
+
+		for (long position = chunk.start; position < chunk.end; ) {
+			buffer.clear();
+			buffer.limit((int)Math.min(BUFFER_SIZE, chunk.end - position));
+			int length = channel.read(buffer, position);
+			if (length <= 0) {
+				break;
+			}
+
+			for (int i = 0; i < length; i++) {
+				byte b = bytes[i];
+				if (b == ',' || b == '\n') {
+					if (fieldTooLong) {
+						chunk.error(line, "Field " + (fieldIndex + 1) + " is too long.");
+					} else {
+						parse_field(chunk, line, block, fieldIndex, field, fieldLength, rowSum);
+					}
+					fieldIndex++;
+					fieldLength = 0;
+					fieldTooLong = false;
+
+					if (b == '\n') {
+						end_line(chunk, line, block, fieldIndex, rowSum);
+						line++;
+						block = block_of(line);
+						fieldIndex = 0;
+						rowSum[0] = 0.0;
+					}
+				} else if (b != '\r' && b != ' ') {
+					if (fieldLength < MAX_FIELD_LENGTH) {
+						field[fieldLength++] = b;
+					} else {
+						fieldTooLong = true;
+					}
+				}
+			}
+			position += length;
+		}
+
+		// The final line of the file has no newline.
+		if (fieldIndex > 0 || fieldLength > 0) {
+			parse_field(chunk, line, block, fieldIndex, field, fieldLength, rowSum);
+			end_line(chunk, line, block, fieldIndex + 1, rowSum);
+		}
+	}
+
+	/**
+	 * Get the block of a line.
+	 * @param	line	The line.
+	 * @return	The block.
+	 */
+	private int block_of(long line) {
+		int block = HEADER;
+		while (block < END && line >= blockStart[block + 1]) {
+			block++;
+		}
+		return block;
+	}
+
+	/**
+	 * Parse one field into the model, validating it.
+	 * @param	chunk		The chunk being parsed.
+	 * @param	line		The line of the field.
+	 * @param	block		The block of the line.
+	 * @param	f			The index of the field in the line.
+	 * @param	field		The characters of the field.
+	 * @param	length		The number of characters.
+	 * @param	rowSum		The sum of the probabilities of the line so far.
+	 */
+	private void parse_field(Chunk chunk, long line, int block, int f, byte field[], int length, double rowSum[]) {
+		if (block == END || f >= expected_fields(block)) {
+			return; // Reported at the end of the line or by the line count.
+		}
+		int row = (int)(line - blockStart[block]);
+
+		if (block == GOALS || block == SUCCESSORS || block == SPARSE_OBSERVATIONS || block == BELIEF_STATES) {
+			long value = parse_int(field, length);
+			if (value == Long.MIN_VALUE) {
+				chunk.error(line, "Field " + (f + 1) + " of the " + blockName[block] + " is not an integer.");
+				return;
+			}
+
+			int lowerBound = (block == GOALS ? 0 : -1);
+			int upperBound = (block == SPARSE_OBSERVATIONS ? z : n);
+			if (value < lowerBound || value >= upperBound) {
+				chunk.error(line, (block == SPARSE_OBSERVATIONS ? "Observation " : "State ") + value + " of the " + blockName[block] + " is out of bounds.");
+				return;
+			}
+
+			if (block == GOALS) {
+				goals[f] = (int)value;
+			} else if (block == SUCCESSORS) {
+				S[((row % n) * m + row / n) * ns + f] = (int)value;
+			} else if (block == SPARSE_OBSERVATIONS) {
+				sparseObservationStates[row * zs + f] = (int)value;
+			} else {
+				beliefStates[row * rz + f] = (int)value;
+			}
+		} else {
+			double value = parse_double(field, length);
+			if (Double.isNaN(value)) {
+				chunk.error(line, "Field " + (f + 1) + " of the " + blockName[block] + " is not a number.");
+				return;
+			}
+
+			if (block == REWARDS) {
+				R[row * n + f] = value;
+				return;
+			}
+
+			if (value < 0.0 || value > 1.0) {
+				chunk.error(line, "Probability " + value + " of the " + blockName[block] + " is not on [0, 1].");
+				return;
+			}
+			rowSum[0] += value;
+
+			if (block == PROBABILITIES) {
+				T[((row % n) * m + row / n) * ns + f] = value;
+			} else if (block == OBSERVATIONS) {
+				if (value > 0.0) {
+					chunk.addObservation((row / z) * n + f, row % z, value);
+				}
+			} else if (block == SPARSE_OBSERVATION_PROBABILITIES) {
+				sparseObservationProbabilities[row * zs + f] = value;
+			} else {
+				beliefProbabilities[row * rz + f] = value;
+			}
+		}
+	}
+
+	/**
+	 * Validate a line once all its fields are parsed.
+	 * @param	chunk		The chunk being parsed.
+	 * @param	line		The line.
+	 * @param	block		The block of the line.
+	 * @param	numFields	The number of fields of the line.
+	 * @param	rowSum		The sum of the probabilities of the line.
+	 */
+	private void end_line(Chunk chunk, long line, int block, int numFields, double rowSum[]) {
+		if (block == END) {
+			return; // Reported by the line count.
+		}
+
+		if (numFields != expected_fields(block)) {
+			chunk.error(line, "The " + blockName[block] + " line has " + numFields + " fields, but should have " + expected_fields(block) + ".");
+		} else if ((block == PROBABILITIES || block == SPARSE_OBSERVATION_PROBABILITIES || block == BELIEF_PROBABILITIES) &&
+				Math.abs(rowSum[0] - 1.0) > SUM_TOLERANCE) {
+			chunk.error(line, "The " + blockName[block] + " sum to " + rowSum[0] + ".");
+		}
+	}
+
+	/**
+	 * Get the number of fields of each line of a block.
+	 * @param	block	The block.
+	 * @return	The number of fields.
+	 */
+	private int expected_fields(int block) {
+		if (block == GOALS) {
+			return ng;
+		} else if (block == SUCCESSORS || block == PROBABILITIES) {
+			return ns;
+		} else if (block == SPARSE_OBSERVATIONS || block == SPARSE_OBSERVATION_PROBABILITIES) {
+			return zs;
+		} else if (block == OBSERVATIONS || block == REWARDS) {
+			return n;
+		} else if (block == BELIEF_STATES || block == BELIEF_PROBABILITIES) {
+			return rz;
+		} else {
+			return 0;
+		}
+	}
+
+	/**
+	 * Check that unused successor slots (-1) have no probability.
+	 * @param	allErrors	The errors found.
+	 */
+	private void validate_successors(ArrayList<Error> allErrors) {
+		for (int s = 0; s < n; s++) {
+			for (int a = 0; a < m; a++) {
+				for (int i = (s * m + a) * ns; i < (s * m + a + 1) * ns; i++) {
+					if (S[i] < 0 && T[i] > 0.0) {
+						add_error(allErrors, new Error(blockStart[PROBABILITIES] + (long)a * n + s, "An unused successor has probability " + T[i] + "."));
+					}
+				}
+			}
+		}
+
+		if (pomdp) {
+			for (int i = 0; i < r * rz; i++) {
+				if (beliefStates[i] < 0 && beliefProbabilities[i] > 0.0) {
+					add_error(allErrors, new Error(blockStart[BELIEF_PROBABILITIES] + i / rz, "An unused belief state has probability " + beliefProbabilities[i] + "."));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Merge the sparse observations of the chunks, which are in line order, and check that each
+	 * state-action pair's observation probabilities sum to one.
+	 * @param	chunks		The parsed chunks.
+	 * @param	allErrors	The errors found.
+	 */
+	private void merge_observations(Chunk chunks[], ArrayList<Error> allErrors) {
+		observationStart = new int[m * n + 1];
+		for (Chunk chunk : chunks) {
+			for (int i = 0; i < chunk.numObservations; i++) {
+				observationStart[chunk.observationKeys[i] + 1]++;
+			}
+		}
+		for (int key = 0; key < m * n; key++) {
+			observationStart[key + 1] += observationStart[key];
+		}
+
+		observations = new int[observationStart[m * n]];
+		observationProbabilities = new double[observationStart[m * n]];
+		int next[] = Arrays.copyOf(observationStart, m * n);
+		for (Chunk chunk : chunks) {
+			for (int i = 0; i < chunk.numObservations; i++) {
+				int j = next[chunk.observationKeys[i]]++;
+				observations[j] = chunk.observationValues[i];
+				observationProbabilities[j] = chunk.observationWeights[i];
+			}
+		}
+
+		for (int key = 0; key < m * n; key++) {
+			double sum = 0.0;
+			for (int j = observationStart[key]; j < observationStart[key + 1]; j++) {
+				sum += observationProbabilities[j];
+			}
+			if (Math.abs(sum - 1.0) > SUM_TOLERANCE) {
+				add_error(allErrors, new Error(blockStart[OBSERVATIONS] + (long)(key / n) * z,
+						"The observations of state " + (key % n) + " for action " + (key / n) + " sum to " + sum + "."));
+			}
+		}
+	}
+
+	/**
+	 * Convert the parsed sparse observations, which are the same for every action, to the layout
+	 * of merge_observations keyed by the state alone, and check that unused slots have no mass.
+	 * @param	allErrors	The errors found.
+	 */
+	private void compress_observations(ArrayList<Error> allErrors) {
+		observationStart = new int[n + 1];
+		for (int sp = 0; sp < n; sp++) {
+			int count = 0;
+			for (int i = sp * zs; i < (sp + 1) * zs; i++) {
+				if (sparseObservationStates[i] >= 0) {
+					count++;
+				} else if (sparseObservationProbabilities[i] > 0.0) {
+					add_error(allErrors, new Error(blockStart[SPARSE_OBSERVATION_PROBABILITIES] + sp,
+							"An unused observation has probability " + sparseObservationProbabilities[i] + "."));
+				}
+			}
+			observationStart[sp + 1] = observationStart[sp] + count;
+		}
+
+		observations = new int[observationStart[n]];
+		observationProbabilities = new double[observationStart[n]];
+		int j = 0;
+		for (int i = 0; i < n * zs; i++) {
+			if (sparseObservationStates[i] >= 0) {
+				observations[j] = sparseObservationStates[i];
+				observationProbabilities[j] = sparseObservationProbabilities[i];
+				j++;
+			}
+		}
+
+		sparseObservationStates = null;
+		sparseObservationProbabilities = null;
+	}
+
+	/**
+	 * Record an error found outside the chunks.
+	 * @param	error	The error.
+	 */
+	private void add_error(Error error) {
+		numErrors++;
+		errors.add("Line " + (error.line + 1) + ": " + error.message);
+	}
+
+	/**
+	 * Record an error found after the chunks were parsed.
+	 * @param	allErrors	The errors found.
+	 * @param	error		The error.
+	 */
+	private void add_error(ArrayList<Error> allErrors, Error error) {
+		numErrors++;
+		if (allErrors.size() < maxErrors * (CHUNKS_PER_THREAD * numThreads + 1)) {
+			allErrors.add(error);
+		}
+	}
+
+	/**
+	 * Parse an integer.
+	 * @param	field	The characters.
+	 * @param	length	The number of characters.
+	 * @return	The integer, or Long.MIN_VALUE if it is malformed.
+	 */
+	private static long parse_int(byte field[], int length) {
+		int i = 0;
+		boolean negative = false;
+		if (length > 0 && field[0] == '-') {
+			negative = true;
+			i++;
+		}
+		if (i == length || length - i > 18) {
+			return Long.MIN_VALUE;
+		}
+
+		long value = 0;
+		for (; i < length; i++) {
+			int digit = field[i] - '0';
+			if (digit < 0 || digit > 9) {
+				return Long.MIN_VALUE;
+			}
+			value = value * 10 + digit;
+		}
+		return (negative ? -value : value);
+	}
+
+	/**
+	 * Parse a double. Numbers with at most 15 significant digits and a small exponent, such as
+	 * the ones Double.toString writes for the models, are computed exactly from their digits;
+	 * everything else falls back to Double.parseDouble.
+	 * @param	field	The characters.
+	 * @param	length	The number of characters.
+	 * @return	The double, or NaN if it is malformed.
+	 */
+	private static double parse_double(byte field[], int length) {
+		int i = 0;
+		boolean negative = false;
+		if (length > 0 && (field[0] == '-' || field[0] == '+')) {
+			negative = (field[0] == '-');
+			i++;
+		}
+
+		long mantissa = 0;
+		int numDigits = 0;
+		int exponent = 0;
+		boolean simple = true;
+		boolean point = false;
+		int start = i;
+
+		for (; i < length; i++) {
+			byte b = field[i];
+			if (b >= '0' && b <= '9') {
+				if (mantissa == 0 && b == '0') {
+					// Leading zeros are not significant.
+				} else if (numDigits < 15) {
+					mantissa = mantissa * 10 + (b - '0');
+					numDigits++;
+				} else {
+					simple = false;
+				}
+				if (point) {
+					exponent--;
+				}
+			} else if (b == '.' && !point) {
+				point = true;
+			} else if (b == 'E' || b == 'e') {
+				int e = 0;
+				int j = i + 1;
+				boolean negativeExponent = false;
+				if (j < length && (field[j] == '-' || field[j] == '+')) {
+					negativeExponent = (field[j] == '-');
+					j++;
+				}
+				if (j == length || length - j > 4) {
+					simple = false;
+					break;
+				}
+				for (; j < length; j++) {
+					int digit = field[j] - '0';
+					if (digit < 0 || digit > 9) {
+						return Double.NaN;
+					}
+					e = e * 10 + digit;
+				}
+				exponent += (negativeExponent ? -e : e);
+				i = length;
+				break;
+			} else {
+				simple = false;
+				break;
+			}
+		}
+
+		if (i == start) {
+			return Double.NaN;
+		}
+
+		if (simple && exponent >= -22 && exponent <= 22) {
+			double value = (double)mantissa;
+			if (exponent < 0) {
+				value /= POWERS_OF_TEN[-exponent];
+			} else {
+				value *= POWERS_OF_TEN[exponent];
+			}
+			return (negative ? -value : value);
+		}
+
+		try {
+			return Double.parseDouble(new String(field, 0, length, "US-ASCII"));
+		} catch (Exception e) {
+			return Double.NaN;
+		}
+	}
+
+	/**
+	 * Run the tasks on a pool of threads and wait for all of them.
+	 * @param	tasks	The tasks.
+	 */
+	private void run(ArrayList<Callable<Void>> tasks) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(numThreads, Math.max(1, tasks.size())));
+		try {
+			for (Future<Void> future : executor.invokeAll(tasks)) {
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Check if the read model is a POMDP, with observations and belief points.
+	 * @return	True if it is a POMDP, false if it is an MDP.
+	 */
+	public boolean isPOMDP() {
+		return pomdp;
+	}
+
+	/**
+	 * Check if the read POMDP has sparse observations, which are the same for every action.
+	 * @return	True if the observations are keyed by the state alone.
+	 */
+	public boolean isSparseObservations() {
+		return sparseObservations;
+	}
+
+	/**
+	 * Get the number of states of the read model.
+	 * @return	The number of states.
+	 */
+	public int getNumStates() {
+		return n;
+	}
+
+	/**
+	 * Get the number of successor slots of each state-action pair.
+	 * @return	The maximum number of successors.
+	 */
+	public int getMaxSuccessors() {
+		return ns;
+	}
+
+	/**
+	 * Get the number of actions of the read model.
+	 * @return	The number of actions.
+	 */
+	public int getNumActions() {
+		return m;
+	}
+
+	/**
+	 * Get the number of observations of the read POMDP.
+	 * @return	The number of observations, or 0 for an MDP.
+	 */
+	public int getNumObservations() {
+		return z;
+	}
+
+	/**
+	 * Get the number of observation slots of each state, with sparse observations.
+	 * @return	The maximum number of non-zero observations, or 0 without sparse observations.
+	 */
+	public int getMaxObservations() {
+		return zs;
+	}
+
+	/**
+	 * Get the number of belief points of the read POMDP.
+	 * @return	The number of belief points, or 0 for an MDP.
+	 */
+	public int getNumBeliefs() {
+		return r;
+	}
+
+	/**
+	 * Get the number of state slots of each belief point.
+	 * @return	The maximum number of non-zero belief states, or 0 for an MDP.
+	 */
+	public int getMaxNonZeroBeliefs() {
+		return rz;
+	}
+
+	/**
+	 * Get the initial state of the read model.
+	 * @return	The initial state, or -1 if there is none.
+	 */
+	public int getInitialState() {
+		return s0;
+	}
+
+	/**
+	 * Get the goal states of the read MDP.
+	 * @return	The goal states, empty for a POMDP.
+	 */
+	public int[] getGoals() {
+		return goals;
+	}
+
+	/**
+	 * Get the horizon of the read model.
+	 * @return	The horizon.
+	 */
+	public int getHorizon() {
+		return horizon;
+	}
+
+	/**
+	 * Get the discount factor of the read model.
+	 * @return	The discount factor on [0, 1].
+	 */
+	public double getDiscountFactor() {
+		return gamma;
+	}
+
+	/**
+	 * Get the successor states. The ones of state-action pair (s, a) start at index
+	 * (s * m + a) * ns, with -1 marking unused slots.
+	 * @return	The successor states.
+	 */
+	public int[] getSuccessors() {
+		return S;
+	}
+
+	/**
+	 * Get the probabilities of the successor states, indexed like getSuccessors.
+	 * @return	The probabilities.
+	 */
+	public double[] getProbabilities() {
+		return T;
+	}
+
+	/**
+	 * Get the rewards. The reward of state s for action a is at index a * n + s.
+	 * @return	The rewards.
+	 */
+	public double[] getRewards() {
+		return R;
+	}
+
+	/**
+	 * Get where the non-zero observations of each successor-action pair start. Those of (a, sp)
+	 * are at indexes getObservationStart()[a * n + sp] up to (but not including) the next one.
+	 * With sparse observations, which are the same for every action, the index is just sp.
+	 * @return	The starts, or null for an MDP.
+	 */
+	public int[] getObservationStart() {
+		return observationStart;
+	}
+
+	/**
+	 * Get the non-zero observations, indexed as described by getObservationStart.
+	 * @return	The observations, or null for an MDP.
+	 */
+	public int[] getObservations() {
+		return observations;
+	}
+
+	/**
+	 * Get the probabilities of the non-zero observations, indexed like getObservations.
+	 * @return	The probabilities, or null for an MDP.
+	 */
+	public double[] getObservationProbabilities() {
+		return observationProbabilities;
+	}
+
+	/**
+	 * Get the states of the belief points. Those of belief point i start at index i * rz, with
+	 * -1 marking unused slots.
+	 * @return	The belief states, or null for an MDP.
+	 */
+	public int[] getBeliefStates() {
+		return beliefStates;
+	}
+
+	/**
+	 * Get the probabilities of the belief states, indexed like getBeliefStates.
+	 * @return	The belief probabilities, or null for an MDP.
+	 */
+	public double[] getBeliefProbabilities() {
+		return beliefProbabilities;
+	}
+
+	/**
+	 * Get the first errors of the last read, sorted by line.
+	 * @return	The errors.
+	 */
+	public ArrayList<String> getErrors() {
+		return errors;
+	}
+
+	/**
+	 * Get the total number of errors of the last read.
+	 * @return	The number of errors.
+	 */
+	public long getNumErrors() {
+		return numErrors;
+	}
+
+	/**
+	 * Get the throughput of the last read.
+	 * @return	The number of bytes read per second.
+	 */
+	public double getBytesPerSecond() {
+		return bytesPerSecond;
+	}
+
+	/**
+	 * Create a GridMarkov of a read MDP, e.g., to solve it. Its rewards must not depend on the action.
+	 * @param	ssp		True if the rewards are costs.
+	 * @return	The model, or null if this is not an MDP or its rewards depend on the action.
+	 */
+	public GridMarkov getModel(boolean ssp) {
+		if (pomdp || S == null) {
+			System.out.println("Only a read MDP can be made into a model.");
+			return null;
+		}
+		for (int a = 1; a < m; a++) {
+			for (int s = 0; s < n; s++) {
+				if (R[a * n + s] != R[s]) {
+					System.out.println("The rewards of the MDP depend on the action.");
+					return null;
+				}
+			}
+		}
+
+		return new GridMarkov(m, ns, S, T, Arrays.copyOf(R, n), s0, goals, ssp);
+	}
+
+}
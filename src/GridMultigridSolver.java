@@ -0,0 +1,287 @@
+/**
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2014 Kyle Hollins Wray, University of Massachusetts
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of
+ *  this software and associated documentation files (the "Software"), to deal in
+ *  the Software without restriction, including without limitation the rights to
+ *  use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ *  the Software, and to permit persons to whom the Software is furnished to do so,
+ *  subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ *  FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ *  IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *  CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.ArrayList;
+
+
+public class GridMultigridSolver {
+
+	/** Stop coarsening once either side of the grid is at most this many cells. */
+	private static final int MIN_COARSE_SIZE = 8;
+
+	/** The grid at each level, from finest (0) to coarsest. */
+	private ArrayList<GridCells> grids;
+
+	/** The width of the grid at each level. */
+	private ArrayList<Integer> widths;
+
+	/** The height of the grid at each level. */
+	private ArrayList<Integer> heights;
+
+	/** Make the SSP version with costs or not. */
+	private boolean ssp;
+
+	/** The model of the finest level. */
+	private GridMarkov model;
+
+	/** The solver of the finest level. */
+	private GridValueIteration solver;
+
+	/** The number of sweeps per cell of grid width plus height done at each coarse level. */
+	private int coarseSweepsPerCell;
+
+	/**
+	 * The constructor for the GridMultigridSolver class, which builds the hierarchy of coarsened grids.
+	 * @param 	grid	The grid.
+	 * @param	ssp		Make the SSP version with costs or not.
+	 */
+	public GridMultigridSolver(GridCells grid, boolean ssp) {
+		int w = grid.getWidth();
+		int h = grid.getHeight();
+
+		this.ssp = ssp;
+		this.model = null;
+		this.solver = null;
+		this.coarseSweepsPerCell = 1;
+
+		grids = new ArrayList<GridCells>();
+		widths = new ArrayList<Integer>();
+		heights = new ArrayList<Integer>();
+
+		grids.add(grid);
+		widths.add(w);
+		heights.add(h);
+
+		while (w > MIN_COARSE_SIZE && h > MIN_COARSE_SIZE) {
+			grid = coarsen(grid, w, h);
+			w = (w + 1) / 2;
+			h = (h + 1) / 2;
+
+			grids.add(grid);
+			widths.add(w);
+			heights.add(h);
+		}
+	}
+
+	/**
+	 * Set how many sweeps to do at each coarse level, per cell of its width plus height.
+	 * @param	coarseSweepsPerCell		The number of sweeps per cell.
+	 */
+	public void setCoarseSweepsPerCell(int coarseSweepsPerCell) {
+		this.coarseSweepsPerCell = coarseSweepsPerCell;
+	}
+
+	/**
+	 * Get the number of levels, including the original grid.
+	 * @return	The number of levels.
+	 */
+	public int getNumLevels() {
+		return grids.size();
+	}
+
+	/**
+	 * Coarsen a grid by merging each 2x2 block of cells into one cell. Goals and hazards win
+	 * over everything else, and a block is only an obstacle if all of its cells are, so that
+	 * thin walls do not close off corridors.
+	 * @param 	grid	The grid.
+	 * @param 	w		The width of the grid.
+	 * @param 	h		The height of the grid.
+	 * @return	The coarsened grid.
+	 */
+	private GridCells coarsen(GridCells grid, int w, int h) {
+		int cw = (w + 1) / 2;
+		int ch = (h + 1) / 2;
+		byte cells[] = grid.getCells();
+		byte coarse[] = new byte[cw * ch];
+
+		for (int cy = 0; cy < ch; cy++) {
+			for (int cx = 0; cx < cw; cx++) {
+				boolean success = false;
+				boolean failure = false;
+				boolean deadEnd = false;
+				boolean initial = false;
+				boolean allObstacles = true;
+
+				for (int y = 2 * cy; y < Math.min(2 * cy + 2, h); y++) {
+					for (int x = 2 * cx; x < Math.min(2 * cx + 2, w); x++) {
+						int cellType = cells[y * w + x];
+						success |= (cellType == GridPanel.GridCellType.SUCCESS);
+						failure |= (cellType == GridPanel.GridCellType.FAILURE);
+						deadEnd |= (cellType == GridPanel.GridCellType.DEAD_END);
+						initial |= (cellType == GridPanel.GridCellType.INITIAL);
+						allObstacles &= (cellType == GridPanel.GridCellType.OBSTACLE);
+					}
+				}
+
+				if (success) {
+					coarse[cy * cw + cx] = GridPanel.GridCellType.SUCCESS;
+				} else if (failure) {
+					coarse[cy * cw + cx] = GridPanel.GridCellType.FAILURE;
+				} else if (deadEnd) {
+					coarse[cy * cw + cx] = GridPanel.GridCellType.DEAD_END;
+				} else if (allObstacles) {
+					coarse[cy * cw + cx] = GridPanel.GridCellType.OBSTACLE;
+				} else if (initial) {
+					coarse[cy * cw + cx] = GridPanel.GridCellType.INITIAL;
+				} else {
+					coarse[cy * cw + cx] = GridPanel.GridCellType.EMPTY;
+				}
+			}
+		}
+
+		return new GridCells(cw, ch, coarse);
+	}
+
+	/**
+	 * Solve the grid, starting at the coarsest level and using each level's values as the
+	 * initial values of the next finer level. Coarse levels do a fixed number of sweeps, with a
+	 * discount factor and per-step rewards (or costs) matching their larger steps; convergence is
+	 * only checked at the finest level.
+	 * @param	gamma		The discount factor on [0, 1].
+	 * @param	epsilon		The tolerance for convergence.
+	 * @return	The number of sweeps at the finest level.
+	 */
+	public int solve(double gamma, double epsilon) {
+		GridMarkov coarseModel = null;
+		double coarseValues[] = null;
+
+		for (int level = grids.size() - 1; level >= 0; level--) {
+			GridCells grid = grids.get(level);
+			int w = widths.get(level);
+			int h = heights.get(level);
+
+			GridMarkov levelModel = new GridMarkov();
+			levelModel.setCreatePOMDP(false);
+			if (level > 0) {
+				levelModel.setParameters(scale_step_rewards(levelModel.getParameters(), gamma, 1 << level));
+			}
+			levelModel.create(grid, ssp);
+			GridValueIteration levelSolver = new GridValueIteration(levelModel);
+
+			if (coarseModel != null) {
+				levelSolver.setInitialValues(prolongate(coarseModel, coarseValues, levelModel));
+			}
+
+			if (level > 0) {
+				// Each step at this level covers 2^level cells of the original grid.
+				levelSolver.solve(Math.pow(gamma, 1 << level), coarseSweepsPerCell * (w + h));
+			} else {
+				levelSolver.solve(gamma, epsilon);
+				model = levelModel;
+				solver = levelSolver;
+			}
+
+			coarseModel = levelModel;
+			coarseValues = levelSolver.getValues();
+		}
+
+		return solver.getIterations();
+	}
+
+	/**
+	 * Scale the rewards and costs received every step, i.e., of the cells which self-loop or move,
+	 * to what a coarse step collects over the fine steps it covers: their sum discounted by gamma
+	 * per fine step. The success and failure rewards are only received once, so are kept.
+	 * @param	parameters	The parameters of the finest level.
+	 * @param	gamma		The discount factor of the finest level.
+	 * @param	steps		The number of fine steps per coarse step.
+	 * @return	The parameters of the coarse level.
+	 */
+	private static GridMarkovParameters scale_step_rewards(GridMarkovParameters parameters, double gamma, int steps) {
+		double scale = steps;
+		if (gamma < 1.0) {
+			scale = (1.0 - Math.pow(gamma, steps)) / (1.0 - gamma);
+		}
+
+		GridMarkovParameters scaled = new GridMarkovParameters(parameters);
+		scaled.emptyReward *= scale;
+		scaled.obstacleReward *= scale;
+		scaled.deadEndReward *= scale;
+		scaled.terminalStateReward *= scale;
+		scaled.lightReward *= scale;
+		scaled.initialReward *= scale;
+
+		scaled.emptyCost *= scale;
+		scaled.obstacleCost *= scale;
+		scaled.deadEndCost *= scale;
+		scaled.terminalStateCost *= scale;
+		scaled.lightCost *= scale;
+		scaled.initialCost *= scale;
+
+		return scaled;
+	}
+
+	/**
+	 * Map the values of a coarse level onto the states of the next finer level.
+	 * @param	coarseModel		The model of the coarse level.
+	 * @param	coarseValues	The values of the coarse level.
+	 * @param	fineModel		The model of the fine level.
+	 * @return	The initial values of the fine level.
+	 */
+	private double[] prolongate(GridMarkov coarseModel, double coarseValues[], GridMarkov fineModel) {
+		int fw = fineModel.getGridWidth();
+		double V[] = new double[fineModel.getNumStates()];
+
+		for (int s = 0; s < V.length; s++) {
+			int c = fineModel.getStateCell(s);
+			if (c < 0) {
+				V[s] = coarseValues[coarseModel.getTerminalState()];
+				continue;
+			}
+
+			int cs = coarseModel.getCellState((c % fw) / 2, (c / fw) / 2);
+			if (cs >= 0) {
+				V[s] = coarseValues[cs];
+			} else {
+				V[s] = 0.0;
+			}
+		}
+
+		return V;
+	}
+
+	/**
+	 * Get the model of the finest level.
+	 * @return	The model, or null before solve.
+	 */
+	public GridMarkov getModel() {
+		return model;
+	}
+
+	/**
+	 * Get the value of each state of the finest level.
+	 * @return	The values.
+	 */
+	public double[] getValues() {
+		return solver.getValues();
+	}
+
+	/**
+	 * Get the policy of each state of the finest level.
+	 * @return	The policy.
+	 */
+	public int[] getPolicy() {
+		return solver.getPolicy();
+	}
+
+}
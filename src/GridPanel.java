@@ -25,6 +25,8 @@
 import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.ComponentEvent;
@@ -32,6 +34,9 @@ import java.awt.event.ComponentListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
@@ -42,7 +47,8 @@ import javax.swing.SwingUtilities;
 import javax.swing.Timer;
 
 
-public class GridPanel extends JPanel implements MouseListener, MouseMotionListener, ComponentListener, ActionListener {
+public class GridPanel extends JPanel implements MouseListener, MouseMotionListener, ComponentListener, ActionListener,
+		GridAnytimeSolver.Listener {
 
 	/** Auto-generated serial ID. */
 	private static final long serialVersionUID = 3728396685715564240L;
@@ -60,7 +66,10 @@ public class GridPanel extends JPanel implements MouseListener, MouseMotionListe
 	private int stepY;
 
 	/** The grid world. */
-	private int grid[][];
+	private GridCells grid;
+
+	/** The palette image of the grid, sharing its cells, or null if the grid changed. */
+	private BufferedImage gridImage;
 
 	/** The policy within the grid world. */
 	private int policy[][];
@@ -77,6 +86,56 @@ public class GridPanel extends JPanel implements MouseListener, MouseMotionListe
 	/** The current brush used to draw the tiles. */
 	private int currentBrush;
 
+	/** The current tool used to draw the brush. */
+	private int currentTool;
+
+	/** If a line or rectangle is being dragged out. */
+	private boolean dragging = false;
+
+	/** The cell the mouse was pressed on, or last painted by the pen (in grid coordinates). */
+	private int anchorX;
+	private int anchorY;
+
+	/** The cell the line or rectangle is dragged to (in grid coordinates). */
+	private int dragX;
+	private int dragY;
+
+	/** The indexes of the cells changed by an edit, reused between edits. */
+	private int changedCells[] = new int[0];
+
+	/** The latest value snapshot to overlay, or null for none. Set by the solver thread. */
+	private volatile GridAnytimeSolver.Snapshot snapshot;
+
+	/** The snapshot drawn into the heatmap image, so it is only redrawn for a new snapshot. */
+	private GridAnytimeSolver.Snapshot heatmapSnapshot;
+
+	/** The back-buffer of the heatmap, one pixel per cell, scaled up when painted. */
+	private BufferedImage heatmap;
+
+	/** The number of colors in the heatmap lookup table. */
+	private static final int HEATMAP_COLORS = 256;
+
+	/** The translucent heatmap colors from the lowest value (blue) to the highest (red). */
+	private static final int heatmapTable[] = create_heatmap_table();
+
+	/** The smallest cell size, in pixels, to draw policy arrows at. */
+	private static final int MIN_ARROW_CELL_SIZE = 8;
+
+	/** The listener told about every edit of the grid, or null for none. */
+	private ChangeListener changeListener = null;
+
+	/** A listener of the edits of the grid, called on the event dispatch thread; it must return quickly. */
+	public static interface ChangeListener {
+		/**
+		 * One edit painted some cells with a new type. The indexes are row-major, y * width + x, and
+		 * the array is reused by the next edit, so it must be copied to be kept.
+		 */
+		public void cellsChanged(int indexes[], int count, int cellType);
+
+		/** The whole grid was replaced, e.g., resized or loaded; the listener gets its own copy. */
+		public void gridReplaced(GridCells grid);
+	}
+
 	/** The various types of cells for the grid. */
 	public static class GridCellType {
 		public final static int EMPTY = 0;
@@ -96,6 +155,19 @@ public class GridPanel extends JPanel implements MouseListener, MouseMotionListe
 		};
 	}
 
+	/** The various tools to draw the brush with. */
+	public static class Tool {
+		public final static int PEN = 0;
+		public final static int LINE = 1;
+		public final static int RECTANGLE = 2;
+		public final static int FLOOD_FILL = 3;
+		public final static int NUM_TOOLS = 4;
+
+		public final static String name[] = {
+			"Pen", "Line", "Rectangle", "Flood Fill"
+		};
+	}
+
 	/** The various types of actions to make at each state in the grid. */
 	public static class Action {
 		public final static int EAST = 0;
@@ -125,19 +197,15 @@ public class GridPanel extends JPanel implements MouseListener, MouseMotionListe
 		this.addComponentListener(this);
 		this.setDoubleBuffered(true);
 
-		this.grid = new int[width][height];
+		this.grid = new GridCells(width, height);
 		this.width = width;
 		this.height = height;
-		for (int i = 0; i < this.width; i++) {
-			for (int j = 0; j < this.height; j++) {
-				this.grid[i][j] = GridCellType.EMPTY;
-			}
-		}
 
 		robotX = 0;
 		robotY = 0;
 
 		currentBrush = 0;
+		currentTool = Tool.PEN;
 
 		tmrRobot = new Timer(1000, this);
 		tmrRobot.stop();
@@ -179,6 +247,22 @@ public class GridPanel extends JPanel implements MouseListener, MouseMotionListe
 		return GridCellType.name[currentBrush];
 	}
 	
+	/**
+	 * Set the tool used to draw the brush.
+	 * @param	tool	The tool, one of the Tool constants.
+	 */
+	public void setTool(int tool) {
+		currentTool = tool;
+	}
+
+	/**
+	 * Get the tool used to draw the brush.
+	 * @return	The tool, one of the Tool constants.
+	 */
+	public int getTool() {
+		return currentTool;
+	}
+
 	/**
 	 * Toggle the robot, enabled/disabled motion.
 	 */
@@ -218,34 +302,203 @@ public class GridPanel extends JPanel implements MouseListener, MouseMotionListe
 	 * Get the current grid.
 	 * @return	The current grid.
 	 */
-	public int[][] getGrid() {
+	public GridCells getGrid() {
 		return grid;
 	}
 
+	/**
+	 * Show a value snapshot as a heatmap with policy arrows. This only stores it and asks for a
+	 * repaint, so it never blocks the solver thread which calls it.
+	 * @param	snapshot	The snapshot.
+	 */
+	@Override
+	public void snapshotPublished(GridAnytimeSolver.Snapshot snapshot) {
+		this.snapshot = snapshot;
+		repaint();
+	}
+
+	/**
+	 * Remove the value snapshot overlay.
+	 */
+	public void clearSnapshot() {
+		this.snapshot = null;
+		repaint();
+	}
+
+	/**
+	 * Create the heatmap lookup table: a blue to cyan to yellow to red ramp, mostly opaque.
+	 * @return	The ARGB colors.
+	 */
+	private static int[] create_heatmap_table() {
+		int table[] = new int[HEATMAP_COLORS];
+		for (int i = 0; i < HEATMAP_COLORS; i++) {
+			float t = i / (float)(HEATMAP_COLORS - 1);
+			Color color = Color.getHSBColor((1.0f - t) * 2.0f / 3.0f, 0.85f, 1.0f);
+			table[i] = (0xC0 << 24) | (color.getRGB() & 0xFFFFFF);
+		}
+		return table;
+	}
+
+	/**
+	 * Redraw the heatmap image from a snapshot, one pixel per cell through the lookup table.
+	 * Pruned cells are left transparent.
+	 * @param	current		The snapshot.
+	 */
+	private void update_heatmap(GridAnytimeSolver.Snapshot current) {
+		if (heatmap == null || heatmap.getWidth() != current.width || heatmap.getHeight() != current.height) {
+			heatmap = new BufferedImage(current.width, current.height, BufferedImage.TYPE_INT_ARGB);
+		}
+
+		int pixels[] = ((DataBufferInt)heatmap.getRaster().getDataBuffer()).getData();
+		double range = current.maxValue - current.minValue;
+		double scale = (range > 0.0 ? (HEATMAP_COLORS - 1) / range : 0.0);
+
+		for (int c = 0; c < pixels.length; c++) {
+			double value = current.values[c];
+			if (Double.isNaN(value)) {
+				pixels[c] = 0;
+			} else {
+				pixels[c] = heatmapTable[(int)((value - current.minValue) * scale)];
+			}
+		}
+
+		heatmapSnapshot = current;
+	}
+
+	/**
+	 * Paint the heatmap of a snapshot over the cells, and the policy arrows if the cells are big enough.
+	 * @param	g2			The graphics.
+	 * @param	current		The snapshot.
+	 * @param	i0			The left of the cells to draw arrows in.
+	 * @param	j0			The top of the cells to draw arrows in.
+	 * @param	i1			The right of the cells to draw arrows in, exclusive.
+	 * @param	j1			The bottom of the cells to draw arrows in, exclusive.
+	 */
+	private void paint_snapshot(Graphics2D g2, GridAnytimeSolver.Snapshot current, int i0, int j0, int i1, int j1) {
+		if (current != heatmapSnapshot) {
+			update_heatmap(current);
+		}
+
+		g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+		g2.drawImage(heatmap, 0, 0, this.width * this.stepX, this.height * this.stepY, null);
+
+		if (this.stepX < MIN_ARROW_CELL_SIZE || this.stepY < MIN_ARROW_CELL_SIZE) {
+			return;
+		}
+
+		g2.setColor(Color.black);
+		for (int j = j0; j < j1; j++) {
+			for (int i = i0; i < i1; i++) {
+				int a = current.policy[j * this.width + i];
+				if (a < 0 || !is_cell_movable(grid.get(i, j))) {
+					continue;
+				}
+
+				int cx = i * this.stepX + this.stepX / 2;
+				int cy = j * this.stepY + this.stepY / 2;
+				int dx = current.actionDx[a] * this.stepX * 3 / 8;
+				int dy = current.actionDy[a] * this.stepY * 3 / 8;
+
+				if (dx == 0 && dy == 0) {
+					g2.fillOval(cx - 2, cy - 2, 4, 4);
+				} else {
+					g2.drawLine(cx - dx, cy - dy, cx + dx, cy + dy);
+					g2.fillOval(cx + dx - 2, cy + dy - 2, 4, 4);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Check if the robot can move out of a cell, i.e., if its action matters.
+	 * @param	cellType	The type of the cell.
+	 * @return	True or false.
+	 */
+	private static boolean is_cell_movable(int cellType) {
+		return (cellType == GridCellType.EMPTY || cellType == GridCellType.LIGHT || cellType == GridCellType.INITIAL);
+	}
+
+	/**
+	 * Set the listener told about every edit of the grid. It is immediately given the current grid.
+	 * @param	changeListener	The listener, or null for none.
+	 */
+	public void setChangeListener(ChangeListener changeListener) {
+		this.changeListener = changeListener;
+		fire_grid_replaced();
+	}
+
+	/**
+	 * Tell the change listener, if any, that the whole grid was replaced.
+	 */
+	private void fire_grid_replaced() {
+		if (changeListener != null) {
+			changeListener.gridReplaced(new GridCells(grid));
+		}
+	}
+
 	/**
 	 * Load a grid from a file in a CSV format.
 	 * @param	file	The file to load.
 	 * @return	The success of loading.
 	 */
 	public boolean loadGrid(File file) {
+		GridCells newGrid = null;
+
 		try {
-			FileReader fileReader = new FileReader(file);
-			BufferedReader bufferedReader = new BufferedReader(fileReader);
+			BufferedReader bufferedReader = new BufferedReader(new FileReader(file));
+			newGrid = readGrid(bufferedReader, file.getName());
+			bufferedReader.close();
+		} catch (Exception e) {
+			System.out.println("Failed to load the grid for file '" + file.getName() + "'.");
+			e.printStackTrace();
+			return false;
+		}
+
+		if (newGrid == null) {
+			return false;
+		}
+
+		// If it gets here, then we know we can overwrite the current grid safely.
+		grid = newGrid;
+		this.width = newGrid.getWidth();
+		this.height = newGrid.getHeight();
+		fire_grid_replaced();
+
+		repaint();
 
+		return true;
+	}
+
+	/**
+	 * Read a grid in the CSV format of loadGrid and saveGrid: the width and height, then one line
+	 * of cell types per row.
+	 * @param	bufferedReader	The reader, left open.
+	 * @param	name			The name of the source, for messages.
+	 * @return	The grid, or null if it is invalid.
+	 */
+	public static GridCells readGrid(BufferedReader bufferedReader, String name) {
+		try {
 			// Read the first line of the buffered reader object.
 			String line = bufferedReader.readLine();
+			if (line == null) {
+				System.out.println("File '" + name + "' is empty.");
+				return null;
+			}
 
 			String data[] = line.split(",");
 			if (data.length != 2) {
 				System.out.println("File contains an invalid first line.");
-				bufferedReader.close();
-				return false;
+				return null;
 			}
 
-			int newWidth = Integer.parseInt(data[0]);
-			int newHeight = Integer.parseInt(data[1]);
+			int newWidth = Integer.parseInt(data[0].trim());
+			int newHeight = Integer.parseInt(data[1].trim());
+			if (newWidth <= 0 || newHeight <= 0) {
+				System.out.println("File '" + name + "' has an invalid size.");
+				return null;
+			}
 
-			int newGrid[][] = new int[newWidth][newHeight];
+			GridCells newGrid = new GridCells(newWidth, newHeight);
 
 			// Attempt to read the entire grid. Invalid elements get converted to empty, and if a row
 			// is detected that contains an invalid number of elements, it returns an error.
@@ -259,45 +512,60 @@ public class GridPanel extends JPanel implements MouseListener, MouseMotionListe
 				data = line.split(",");
 
 				if (data.length != newWidth) {
-					System.out.println("Line " + (row + 1) + " in file '" + file.getName() + "' is invalid.");
-					bufferedReader.close();
-					return false;
+					System.out.println("Line " + (row + 1) + " in file '" + name + "' is invalid.");
+					return null;
 				}
 
 				for (int col = 0; col < data.length; col++) {
-					newGrid[col][row] = Integer.parseInt(data[col]);
-					if (newGrid[col][row] < 0 || newGrid[col][row] >= GridCellType.NUM_CELL_TYPES) {
-						System.out.println("Invalid cell integer '" + newGrid[col][row] + "' in file '" +
-									file.getName() + "'. Default to empty.");
-						newGrid[col][row] = GridCellType.EMPTY;
+					int cellType = Integer.parseInt(data[col].trim());
+					if (cellType < 0 || cellType >= GridCellType.NUM_CELL_TYPES) {
+						System.out.println("Invalid cell integer '" + cellType + "' in file '" +
+									name + "'. Default to empty.");
+						cellType = GridCellType.EMPTY;
 					}
+					newGrid.set(col, row, cellType);
 				}
 
 				row++;
 			}
 
-			// If it gets here, then we know we can overwrite the current grid safely.
-			grid = new int[newWidth][newHeight];
-			for (int i = 0; i < newWidth; i++) {
-				for (int j = 0; j < newHeight; j++) {
-					grid[i][j] = newGrid[i][j];
-				}
-			}
-			this.width = newWidth;
-			this.height = newHeight;
-
-			bufferedReader.close();
+			return newGrid;
 		} catch (Exception e) {
-			System.out.println("Failed to load the grid for file '" + file.getName() + "'.");
-			e.printStackTrace();
+			System.out.println("Failed to load the grid for file '" + name + "'.");
+			return null;
+		}
+	}
+
+	/**
+	 * Load a grid from an image file, one cell per pixel, with the cell type of the nearest color.
+	 * @param	file	The file to load.
+	 * @return	The success of loading.
+	 */
+	public boolean loadImage(File file) {
+		GridCells newGrid = GridImage.read(file);
+		if (newGrid == null) {
 			return false;
 		}
 
+		grid = newGrid;
+		this.width = newGrid.getWidth();
+		this.height = newGrid.getHeight();
+		fire_grid_replaced();
+
 		repaint();
 
 		return true;
 	}
 
+	/**
+	 * Save the current grid to an image file, one pixel per cell, in the format of its extension.
+	 * @param	file	The file to save to.
+	 * @return	The success of saving.
+	 */
+	public boolean saveImage(File file) {
+		return GridImage.write(grid, file);
+	}
+
 	/**
 	 * Save the current grid to the file specified in a raw CSV format.
 	 * @param	file	The file to save to.
@@ -314,7 +582,7 @@ public class GridPanel extends JPanel implements MouseListener, MouseMotionListe
 			// pretty. It is also loaded in this order.
 			for (int j = 0; j < this.height; j++) {
 				for (int i = 0; i < this.width; i++) {
-					fileWriter.write(Integer.toString(grid[i][j]));
+					fileWriter.write(Integer.toString(grid.get(i, j)));
 					if (i != this.width - 1) {
 						fileWriter.write(",");
 					}
@@ -343,41 +611,113 @@ public class GridPanel extends JPanel implements MouseListener, MouseMotionListe
 		this.stepX = (int)(this.getWidth() / this.width);
 		this.stepY = (int)(this.getHeight() / this.height);
 
-		for (int i = 0; i < this.width; i++) {
-			for (int j = 0; j < this.height; j++) {
-				g2.setColor(GridCellType.colors[grid[i][j]]);
-				g2.fillRect(i * this.stepX, j * this.stepY, this.stepX, this.stepY);
+		// Only draw the cells within the dirty region, so an edit does not redraw the whole grid.
+		int i0 = 0;
+		int j0 = 0;
+		int i1 = this.width;
+		int j1 = this.height;
+		Rectangle clip = g2.getClipBounds();
+		if (clip != null && this.stepX > 0 && this.stepY > 0) {
+			i0 = Math.max(0, clip.x / this.stepX);
+			j0 = Math.max(0, clip.y / this.stepY);
+			i1 = Math.min(this.width, (clip.x + clip.width + this.stepX - 1) / this.stepX);
+			j1 = Math.min(this.height, (clip.y + clip.height + this.stepY - 1) / this.stepY);
+		}
+
+		// Draw the cells as their palette image, which shares the cell array, so it is never stale.
+		if (gridImage == null || gridImage.getWidth() != this.width || gridImage.getHeight() != this.height
+				|| ((DataBufferByte)gridImage.getRaster().getDataBuffer()).getData() != grid.getCells()) {
+			gridImage = GridImage.toImage(grid);
+		}
+		if (i0 < i1 && j0 < j1) {
+			g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+			g2.drawImage(gridImage, i0 * this.stepX, j0 * this.stepY, i1 * this.stepX, j1 * this.stepY, i0, j0, i1, j1, null);
+		}
+
+		// Overlay the latest value snapshot, if it still matches the grid.
+		GridAnytimeSolver.Snapshot current = snapshot;
+		if (current != null && current.width == this.width && current.height == this.height) {
+			paint_snapshot(g2, current, i0, j0, i1, j1);
+		}
+
+		// Outline the line or rectangle being dragged out.
+		if (dragging) {
+			g2.setColor(Color.black);
+			if (currentTool == Tool.LINE) {
+				g2.drawLine(anchorX * this.stepX + this.stepX / 2, anchorY * this.stepY + this.stepY / 2,
+						dragX * this.stepX + this.stepX / 2, dragY * this.stepY + this.stepY / 2);
+			} else {
+				g2.drawRect(Math.min(anchorX, dragX) * this.stepX, Math.min(anchorY, dragY) * this.stepY,
+						(Math.abs(dragX - anchorX) + 1) * this.stepX - 1, (Math.abs(dragY - anchorY) + 1) * this.stepY - 1);
 			}
 		}
 	}
 
 	/**
-	 * Update the width and height of the grid world.
-	 * @param width		The new grid width.
-	 * @param height	The new grid height.
+	 * Repaint a rectangle of cells, both corners inclusive, in any order.
+	 * @param	x0	The x location of one corner.
+	 * @param	y0	The y location of one corner.
+	 * @param	x1	The x location of the other corner.
+	 * @param	y1	The y location of the other corner.
 	 */
-	public void update(int width, int height) {
-		// Copy the current values in the grid array.
-		int temp[][] = new int[this.width][this.height];
-		for (int i = 0; i < this.width; i++) {
-			for (int j = 0; j < this.height; j++) {
-				temp[i][j] = grid[i][j];
-			}
+	private void repaint_cells(int x0, int y0, int x1, int y1) {
+		int left = Math.min(x0, x1);
+		int top = Math.min(y0, y1);
+		repaint(left * this.stepX - 1, top * this.stepY - 1,
+				(Math.abs(x1 - x0) + 1) * this.stepX + 2, (Math.abs(y1 - y0) + 1) * this.stepY + 2);
+	}
+
+	/**
+	 * Get the array to record the cells changed by an edit in, large enough for the whole grid.
+	 * @return	The array.
+	 */
+	private int[] get_changed_cells() {
+		if (changedCells.length < this.width * this.height) {
+			changedCells = new int[this.width * this.height];
 		}
+		return changedCells;
+	}
 
-		// Update the grid accordingly.
-		grid = new int[width][height];
+	/**
+	 * Finish an edit of the grid: tell the change listener about all of its cells at once, and
+	 * repaint only the region they cover.
+	 * @param	count	The number of changed cells, recorded by get_changed_cells.
+	 */
+	private void finish_edit(int count) {
+		if (count == 0) {
+			return;
+		}
 
-		for (int i = 0; i < width; i++) {
-			for (int j = 0; j < height; j++) {
-				if (i < this.width && j < this.height) {
-					grid[i][j] = temp[i][j];
-				} else {
-					grid[i][j] = GridCellType.EMPTY;
-				}
-			}
+		int x0 = this.width;
+		int y0 = this.height;
+		int x1 = -1;
+		int y1 = -1;
+		for (int k = 0; k < count; k++) {
+			int x = changedCells[k] % this.width;
+			int y = changedCells[k] / this.width;
+			x0 = Math.min(x0, x);
+			y0 = Math.min(y0, y);
+			x1 = Math.max(x1, x);
+			y1 = Math.max(y1, y);
+		}
+
+		if (changeListener != null) {
+			changeListener.cellsChanged(changedCells, count, currentBrush);
 		}
 
+		repaint_cells(x0, y0, x1, y1);
+	}
+
+	/**
+	 * Update the width and height of the grid world.
+	 * @param width		The new grid width.
+	 * @param height	The new grid height.
+	 */
+	public void update(int width, int height) {
+		// Keep the overlapping cells; the new ones are empty.
+		grid = grid.resize(width, height);
+		fire_grid_replaced();
+
 		this.width = width;
 		this.height = height;
 		this.stepX = (int)(this.getWidth() / this.width);
@@ -390,10 +730,44 @@ public class GridPanel extends JPanel implements MouseListener, MouseMotionListe
 	public void mouseClicked(MouseEvent e) { }
 
 	@Override
-	public void mousePressed(MouseEvent e) { }
+	public void mousePressed(MouseEvent e) {
+		if (!SwingUtilities.isLeftMouseButton(e) || this.stepX <= 0 || this.stepY <= 0) {
+			return;
+		}
+
+		anchorX = e.getX() / this.stepX;
+		anchorY = e.getY() / this.stepY;
+		dragX = anchorX;
+		dragY = anchorY;
+
+		if (currentTool == Tool.PEN) {
+			finish_edit(grid.line(anchorX, anchorY, anchorX, anchorY, currentBrush, get_changed_cells()));
+		} else if (currentTool == Tool.FLOOD_FILL) {
+			finish_edit(grid.floodFill(anchorX, anchorY, currentBrush, get_changed_cells()));
+		} else {
+			dragging = true;
+			repaint_cells(anchorX, anchorY, dragX, dragY);
+		}
+	}
 
 	@Override
-	public void mouseReleased(MouseEvent e) { }
+	public void mouseReleased(MouseEvent e) {
+		if (!dragging) {
+			return;
+		}
+
+		dragging = false;
+		repaint_cells(anchorX, anchorY, dragX, dragY);
+
+		int count = 0;
+		if (currentTool == Tool.LINE) {
+			count = grid.line(anchorX, anchorY, dragX, dragY, currentBrush, get_changed_cells());
+		} else if (currentTool == Tool.RECTANGLE) {
+			count = grid.fill(Math.min(anchorX, dragX), Math.min(anchorY, dragY),
+					Math.max(anchorX, dragX) + 1, Math.max(anchorY, dragY) + 1, currentBrush, get_changed_cells());
+		}
+		finish_edit(count);
+	}
 
 	@Override
 	public void mouseEntered(MouseEvent e) { }
@@ -403,15 +777,28 @@ public class GridPanel extends JPanel implements MouseListener, MouseMotionListe
 
 	@Override
 	public void mouseDragged(MouseEvent e) {
-		if (SwingUtilities.isLeftMouseButton(e)) {
-			int i = (int)(e.getX() / this.stepX);
-			int j = (int)(e.getY() / this.stepY);
-
-			try {
-				grid[i][j] = currentBrush;
-			} catch (ArrayIndexOutOfBoundsException err) { }
+		if (!SwingUtilities.isLeftMouseButton(e) || this.stepX <= 0 || this.stepY <= 0) {
+			return;
+		}
 
-			repaint();
+		int i = e.getX() / this.stepX;
+		int j = e.getY() / this.stepY;
+
+		if (currentTool == Tool.PEN) {
+			// Draw a line from the last cell, so a fast drag leaves no gaps. The line is clipped to
+			// the grid, since a flat grid would wrap around a row instead of throwing.
+			finish_edit(grid.line(anchorX, anchorY, i, j, currentBrush, get_changed_cells()));
+			anchorX = i;
+			anchorY = j;
+		} else if (dragging && (i != dragX || j != dragY)) {
+			// Repaint the old and the new outline only.
+			int x0 = Math.min(anchorX, Math.min(dragX, i));
+			int y0 = Math.min(anchorY, Math.min(dragY, j));
+			int x1 = Math.max(anchorX, Math.max(dragX, i));
+			int y1 = Math.max(anchorY, Math.max(dragY, j));
+			dragX = i;
+			dragY = j;
+			repaint_cells(x0, y0, x1, y1);
 		}
 	}
 
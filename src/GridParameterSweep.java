@@ -0,0 +1,205 @@
+/**
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2014 Kyle Hollins Wray, University of Massachusetts
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of
+ *  this software and associated documentation files (the "Software"), to deal in
+ *  the Software without restriction, including without limitation the rights to
+ *  use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ *  the Software, and to permit persons to whom the Software is furnished to do so,
+ *  subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ *  FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ *  IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *  CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+/**
+ * A sensitivity study over model parameters. The grid's states and successors are created once,
+ * and each parameter variant only recomputes the probabilities and rewards (see
+ * GridMarkov.createVariant). Variants are created and solved in parallel.
+ */
+public class GridParameterSweep {
+
+	/** The model created from the grid, whose structure every variant shares. */
+	private GridMarkov model;
+
+	/** The number of variants created or solved at once. */
+	private int numThreads;
+
+	/** The value of each state, for each variant of the last solve. */
+	private double values[][];
+
+	/** The policy (action) of each state, for each variant of the last solve. */
+	private int policies[][];
+
+	/** The number of sweeps of each variant of the last solve. */
+	private int iterations[];
+
+	/**
+	 * The constructor for the GridParameterSweep class, which creates the shared structure.
+	 * @param 	grid	The grid.
+	 * @param	ssp		Make the SSP version with costs or not.
+	 */
+	public GridParameterSweep(GridCells grid, boolean ssp) {
+		model = new GridMarkov();
+		model.setCreatePOMDP(false);
+		model.create(grid, ssp);
+
+		numThreads = Runtime.getRuntime().availableProcessors();
+		values = null;
+		policies = null;
+		iterations = null;
+	}
+
+	/**
+	 * Set the number of variants created or solved at once.
+	 * @param	numThreads	The number of threads; the default is the number of processors.
+	 */
+	public void setNumThreads(int numThreads) {
+		this.numThreads = Math.max(1, numThreads);
+	}
+
+	/**
+	 * Get the model created from the grid, e.g., to map states to cells.
+	 * @return	The model.
+	 */
+	public GridMarkov getModel() {
+		return model;
+	}
+
+	/**
+	 * Create a variant of the model for each of the parameters, e.g., to export them.
+	 * @param	parameters	The parameters of each variant.
+	 * @return	The variants, or null if any of them could not be created.
+	 */
+	public GridMarkov[] createVariants(final GridMarkovParameters parameters[]) {
+		final GridMarkov variants[] = new GridMarkov[parameters.length];
+
+		ArrayList<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (int k = 0; k < parameters.length; k++) {
+			final int variant = k;
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					variants[variant] = model.createVariant(parameters[variant]);
+					if (variants[variant] == null) {
+						throw new IllegalStateException("The variant " + variant + " could not be created.");
+					}
+					return null;
+				}
+			});
+		}
+
+		if (!run(tasks)) {
+			return null;
+		}
+
+		return variants;
+	}
+
+	/**
+	 * Solve a variant of the model for each of the parameters with value iteration, each with
+	 * its own discount factor.
+	 * @param	parameters	The parameters of each variant.
+	 * @param	epsilon		The convergence criterion.
+	 * @return	The success of solving every variant; the results are only available if so.
+	 */
+	public boolean solve(final GridMarkovParameters parameters[], final double epsilon) {
+		values = new double[parameters.length][];
+		policies = new int[parameters.length][];
+		iterations = new int[parameters.length];
+
+		ArrayList<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (int k = 0; k < parameters.length; k++) {
+			final int variant = k;
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					GridMarkov variantModel = model.createVariant(parameters[variant]);
+					if (variantModel == null) {
+						throw new IllegalStateException("The variant " + variant + " could not be created.");
+					}
+					GridValueIteration solver = new GridValueIteration(variantModel);
+					iterations[variant] = solver.solve(parameters[variant].discountFactor, epsilon);
+					values[variant] = solver.getValues();
+					policies[variant] = solver.getPolicy();
+					return null;
+				}
+			});
+		}
+
+		if (!run(tasks)) {
+			values = null;
+			policies = null;
+			iterations = null;
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Get the values of a variant of the last solve.
+	 * @param	k	The index of the variant.
+	 * @return	The value of each state.
+	 */
+	public double[] getValues(int k) {
+		return values[k];
+	}
+
+	/**
+	 * Get the policy of a variant of the last solve.
+	 * @param	k	The index of the variant.
+	 * @return	The policy (action) of each state.
+	 */
+	public int[] getPolicy(int k) {
+		return policies[k];
+	}
+
+	/**
+	 * Get the number of sweeps of a variant of the last solve.
+	 * @param	k	The index of the variant.
+	 * @return	The number of sweeps.
+	 */
+	public int getIterations(int k) {
+		return iterations[k];
+	}
+
+	/**
+	 * Run the tasks on a pool of threads and wait for all of them.
+	 * @param	tasks	The tasks.
+	 * @return	The success of every task.
+	 */
+	private boolean run(ArrayList<Callable<Void>> tasks) {
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(numThreads, Math.max(1, tasks.size())));
+		try {
+			for (Future<Void> future : executor.invokeAll(tasks)) {
+				future.get();
+			}
+		} catch (Exception e) {
+			System.out.println("Failed to run the parameter sweep.");
+			e.printStackTrace();
+			return false;
+		} finally {
+			executor.shutdown();
+		}
+
+		return true;
+	}
+
+}
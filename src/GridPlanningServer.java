@@ -0,0 +1,936 @@
+/**
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2014 Kyle Hollins Wray, University of Massachusetts
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of
+ *  this software and associated documentation files (the "Software"), to deal in
+ *  the Software without restriction, including without limitation the rights to
+ *  use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ *  the Software, and to permit persons to whom the Software is furnished to do so,
+ *  subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ *  FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ *  IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *  CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.imageio.IIOException;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+
+/**
+ * A local planning service, so tools can get the models and policies of grid worlds at run time
+ * over HTTP instead of each embedding the create and solve pipeline. It only listens on the
+ * loopback address. Grids are posted in the CSV format of GridPanel.saveGrid, or as an image
+ * (see GridImage) with an image content type.
+ *
+ *   POST /model?ssp=false&pomdp=false
+ *     The model of the grid, in the format of GridMarkov.saveMDP or savePOMDP.
+ *   POST /policy?ssp=false&gamma=0.9&epsilon=0.001&horizon=0
+ *     The width, height, and iterations, then the policy and the value of each cell as CSV rows;
+ *     unreachable cells have the action -1 and the value NaN. A horizon of 0 solves to convergence,
+ *     so a gamma of 1 needs a horizon. A setting which does not converge within
+ *     GridBatchSolver.DEFAULT_MAX_ITERATIONS backups is an error.
+ *   GET /metrics
+ *     Request, cache, and batch counts, latency, and throughput, one "name value" per line.
+ *
+ * Requests are handled on a cached thread pool, while creating and solving models is done on a
+ * fixed pool of workers. Policy requests for the same model (by GridMarkov.computeHash) that wait
+ * for a worker at the same time are solved together as one GridBatchSolver batch, and identical
+ * requests share one result. Models and solutions are cached by their hash, least recently used
+ * out first. A request waiting longer than REQUEST_TIMEOUT_SECONDS for its model or solution is
+ * answered with 503; the work goes on, and is cached for the next request.
+ */
+public class GridPlanningServer {
+
+	/** The default port. */
+	public static final int DEFAULT_PORT = 8642;
+
+	/** The default size cap of the model cache, in bytes. */
+	public static final long DEFAULT_MAX_MODEL_BYTES = 256L * 1024 * 1024;
+
+	/** The number of cached solutions. */
+	private static final int MAX_SOLUTIONS = 256;
+
+	/** The largest grid accepted, in cells. */
+	private static final int MAX_CELLS = 4096 * 4096;
+
+	/** The number of latency histogram buckets: bucket i counts latencies under 2^i microseconds. */
+	private static final int LATENCY_BUCKETS = 40;
+
+	/** The longest a request waits for its model or solution, in seconds. */
+	private static final long REQUEST_TIMEOUT_SECONDS = 300;
+
+	/** The HTTP server. */
+	private HttpServer server;
+
+	/** The threads handling requests. */
+	private ExecutorService handlers;
+
+	/** The fixed pool of workers creating and solving models. */
+	private ExecutorService workers;
+
+	/** The number of threads each batch solve uses. */
+	private int solverThreads;
+
+	/** The maximum total size of the cached models, in bytes. */
+	private long maxModelBytes;
+
+	/** The cached (or being created) models by hash, from least to most recently used. */
+	private LinkedHashMap<String, CachedModel> models;
+
+	/** The total size of the cached models, in bytes. */
+	private long modelBytes;
+
+	/** The cached solutions by hash and setting, from least to most recently used. */
+	private LinkedHashMap<String, GridModelCache.Solution> solutions;
+
+	/** The batches waiting for a worker, by model hash. */
+	private HashMap<String, Batch> pending;
+
+	/** The service metrics. */
+	private Metrics metrics;
+
+	/** A model in the cache, which may still be being created. */
+	private static class CachedModel {
+		/** The task creating the model. */
+		public FutureTask<GridMarkov> task;
+
+		/** The size of the model in bytes, or 0 while it is being created. */
+		public long bytes = 0;
+	}
+
+	/** A request for the solution of a model under one setting. */
+	private static class Request {
+		/** The cache key of the solution. */
+		public String key;
+
+		/** The setting. */
+		public GridBatchSolver.Setting setting;
+
+		/** The solution, or null if the solve failed. */
+		public GridModelCache.Solution solution = null;
+
+		/** Released once the solution is set (or the solve failed). */
+		public CountDownLatch done = new CountDownLatch(1);
+	}
+
+	/** The policy requests of one model, solved together once a worker is free. */
+	private static class Batch {
+		/** The grid. */
+		public GridCells grid;
+
+		/** Make the SSP version with costs or not. */
+		public boolean ssp;
+
+		/** The hash of the model. */
+		public String hash;
+
+		/** The requests, one per distinct setting. */
+		public ArrayList<Request> requests = new ArrayList<Request>();
+	}
+
+	/** The request, cache, and batch counts and the latency histogram. */
+	private static class Metrics {
+		/** The time the service started, in nanoseconds. */
+		private long startTime = System.nanoTime();
+
+		/** The number of requests of each endpoint. */
+		private long requests[] = new long[3];
+
+		/** The number of requests not answered with success. */
+		private long errors = 0;
+
+		/** The total and largest latency of the requests, in nanoseconds. */
+		private long latencyTotal = 0;
+		private long latencyMax = 0;
+
+		/** The number of requests in each latency bucket. */
+		private long latencyCounts[] = new long[LATENCY_BUCKETS];
+
+		/** The number of model and solution cache hits and misses. */
+		private long modelHits = 0;
+		private long modelMisses = 0;
+		private long solutionHits = 0;
+		private long solutionMisses = 0;
+
+		/** The number of batch solves, of the settings in them, and their total time in nanoseconds. */
+		private long batches = 0;
+		private long batchedSettings = 0;
+		private long solveTime = 0;
+
+		/**
+		 * Record a finished request.
+		 * @param	endpoint	The endpoint: 0 for models, 1 for policies, 2 for metrics.
+		 * @param	status		The HTTP status code.
+		 * @param	latency		The time from receiving it to responding, in nanoseconds.
+		 */
+		public synchronized void request(int endpoint, int status, long latency) {
+			requests[endpoint]++;
+			if (status != 200) {
+				errors++;
+			}
+
+			latencyTotal += latency;
+			latencyMax = Math.max(latencyMax, latency);
+			latencyCounts[Math.min(LATENCY_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(latency / 1000))]++;
+		}
+
+		/**
+		 * Record a model cache lookup.
+		 * @param	hit		If the model was cached (or being created) already.
+		 */
+		public synchronized void model(boolean hit) {
+			if (hit) {
+				modelHits++;
+			} else {
+				modelMisses++;
+			}
+		}
+
+		/**
+		 * Record a solution cache lookup.
+		 * @param	hit		If the solution was cached already.
+		 */
+		public synchronized void solution(boolean hit) {
+			if (hit) {
+				solutionHits++;
+			} else {
+				solutionMisses++;
+			}
+		}
+
+		/**
+		 * Record a batch solve.
+		 * @param	numSettings		The number of settings solved together.
+		 * @param	time			The time to solve them, in nanoseconds.
+		 */
+		public synchronized void batch(int numSettings, long time) {
+			batches++;
+			batchedSettings += numSettings;
+			solveTime += time;
+		}
+
+		/**
+		 * Get the latency under which a fraction of the requests were answered, to within the
+		 * factor of two of the histogram buckets.
+		 * @param	fraction	The fraction of requests on [0, 1].
+		 * @return	The latency in milliseconds.
+		 */
+		private double percentile(double fraction) {
+			long total = 0;
+			for (int i = 0; i < LATENCY_BUCKETS; i++) {
+				total += latencyCounts[i];
+			}
+
+			long count = 0;
+			for (int i = 0; i < LATENCY_BUCKETS; i++) {
+				count += latencyCounts[i];
+				if (count > 0 && count >= fraction * total) {
+					return Math.min((1L << i) / 1e3, latencyMax / 1e6);
+				}
+			}
+			return 0.0;
+		}
+
+		/**
+		 * Write the metrics, one "name value" per line.
+		 * @param	writer	The writer.
+		 * @throws	IOException	If writing fails.
+		 */
+		public synchronized void write(Writer writer) throws IOException {
+			double uptime = (System.nanoTime() - startTime) / 1e9;
+			long total = requests[0] + requests[1] + requests[2];
+
+			writer.write("uptime_seconds " + String.format("%.3f", uptime) + "\n");
+			writer.write("requests " + total + "\n");
+			writer.write("requests_model " + requests[0] + "\n");
+			writer.write("requests_policy " + requests[1] + "\n");
+			writer.write("requests_metrics " + requests[2] + "\n");
+			writer.write("errors " + errors + "\n");
+			writer.write("throughput_per_second " + String.format("%.3f", total / uptime) + "\n");
+			writer.write("latency_mean_ms " + String.format("%.3f", total > 0 ? latencyTotal / 1e6 / total : 0.0) + "\n");
+			writer.write("latency_p50_ms " + String.format("%.3f", percentile(0.5)) + "\n");
+			writer.write("latency_p90_ms " + String.format("%.3f", percentile(0.9)) + "\n");
+			writer.write("latency_p99_ms " + String.format("%.3f", percentile(0.99)) + "\n");
+			writer.write("latency_max_ms " + String.format("%.3f", latencyMax / 1e6) + "\n");
+			writer.write("model_cache_hits " + modelHits + "\n");
+			writer.write("model_cache_misses " + modelMisses + "\n");
+			writer.write("solution_cache_hits " + solutionHits + "\n");
+			writer.write("solution_cache_misses " + solutionMisses + "\n");
+			writer.write("batches " + batches + "\n");
+			writer.write("batched_settings " + batchedSettings + "\n");
+			writer.write("batch_size_mean " + String.format("%.3f", batches > 0 ? (double)batchedSettings / batches : 0.0) + "\n");
+			writer.write("solve_ms_total " + String.format("%.3f", solveTime / 1e6) + "\n");
+		}
+	}
+
+	/**
+	 * The constructor for the GridPlanningServer class.
+	 * @param	numWorkers		The number of workers creating and solving models at once.
+	 * @param	maxModelBytes	The maximum total size of the cached models, in bytes.
+	 */
+	public GridPlanningServer(int numWorkers, long maxModelBytes) {
+		numWorkers = Math.max(1, numWorkers);
+
+		this.server = null;
+		this.handlers = null;
+		this.workers = Executors.newFixedThreadPool(numWorkers);
+		this.solverThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / numWorkers);
+		this.maxModelBytes = maxModelBytes;
+		this.models = new LinkedHashMap<String, CachedModel>(16, 0.75f, true);
+		this.modelBytes = 0;
+		this.solutions = new LinkedHashMap<String, GridModelCache.Solution>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, GridModelCache.Solution> eldest) {
+				return size() > MAX_SOLUTIONS;
+			}
+		};
+		this.pending = new HashMap<String, Batch>();
+		this.metrics = new Metrics();
+	}
+
+	/**
+	 * Run the service from the command line until it is killed.
+	 * @param	args	Optionally the port (0 for any free one), the number of workers, and the
+	 * 					size cap of the model cache in megabytes.
+	 */
+	public static void main(String args[]) {
+		int port = DEFAULT_PORT;
+		int numWorkers = Runtime.getRuntime().availableProcessors();
+		long maxModelBytes = DEFAULT_MAX_MODEL_BYTES;
+
+		try {
+			if (args.length > 0) {
+				port = Integer.parseInt(args[0]);
+			}
+			if (args.length > 1) {
+				numWorkers = Integer.parseInt(args[1]);
+			}
+			if (args.length > 2) {
+				maxModelBytes = Long.parseLong(args[2]) * 1024 * 1024;
+			}
+		} catch (NumberFormatException e) {
+			System.out.println("Usage: GridPlanningServer [<port> [<workers> [<model cache megabytes>]]]");
+			return;
+		}
+
+		GridPlanningServer planningServer = new GridPlanningServer(numWorkers, maxModelBytes);
+		if (planningServer.start(port)) {
+			System.out.println("Listening on http://" + InetAddress.getLoopbackAddress().getHostAddress()
+					+ ":" + planningServer.getPort() + "/ with " + numWorkers + " workers.");
+		}
+	}
+
+	/**
+	 * Start listening on the loopback address.
+	 * @param	port	The port, or 0 for any free one (see getPort).
+	 * @return	The success of starting.
+	 */
+	public boolean start(int port) {
+		try {
+			server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		} catch (Exception e) {
+			System.out.println("Failed to listen on port " + port + ".");
+			return false;
+		}
+
+		handlers = Executors.newCachedThreadPool();
+		server.setExecutor(handlers);
+		server.createContext("/model", new Endpoint(0));
+		server.createContext("/policy", new Endpoint(1));
+		server.createContext("/metrics", new Endpoint(2));
+		server.start();
+
+		return true;
+	}
+
+	/**
+	 * Stop listening, and stop the workers once their current work is done.
+	 */
+	public void stop() {
+		if (server != null) {
+			server.stop(0);
+			handlers.shutdown();
+			server = null;
+		}
+		workers.shutdown();
+	}
+
+	/**
+	 * Get the port the service listens on.
+	 * @return	The port, or -1 if it is not started.
+	 */
+	public int getPort() {
+		return (server != null ? server.getAddress().getPort() : -1);
+	}
+
+	/**
+	 * Get the model of a grid, from the cache or created on a worker and cached. Concurrent
+	 * requests for the same model wait for the same create.
+	 * @param	grid	The grid.
+	 * @param	ssp		Make the SSP version with costs or not.
+	 * @param	pomdp	Create the POMDP observations and beliefs or not.
+	 * @param	inline	Create it on the calling thread, which must be a worker, instead.
+	 * @return	The model, an immutable snapshot, or null if it could not be created.
+	 * @throws	InterruptedException	If interrupted while waiting.
+	 * @throws	TimeoutException		If it is not created within REQUEST_TIMEOUT_SECONDS.
+	 */
+	private GridMarkov get_model(final GridCells grid, final boolean ssp, final boolean pomdp, boolean inline)
+			throws InterruptedException, TimeoutException {
+		final String hash = compute_hash(grid, ssp, pomdp);
+
+		final CachedModel cached;
+		boolean created = false;
+
+		synchronized (models) {
+			CachedModel existing = models.get(hash);
+			if (existing != null) {
+				cached = existing;
+			} else {
+				cached = new CachedModel();
+				cached.task = new FutureTask<GridMarkov>(new Callable<GridMarkov>() {
+					@Override
+					public GridMarkov call() throws Exception {
+						GridMarkov model = new GridMarkov();
+						model.setCreatePOMDP(pomdp);
+						model = model.create(grid, ssp);
+						if (model == null) {
+							throw new Exception("The model of the grid could not be created.");
+						}
+
+						synchronized (models) {
+							cached.bytes = Math.max(1, model.getModelBytes());
+							modelBytes += cached.bytes;
+							evict_models();
+						}
+
+						return model;
+					}
+				});
+				models.put(hash, cached);
+				created = true;
+			}
+		}
+
+		metrics.model(!created);
+
+		// A waiting task may also be run by a worker that needs it; it only runs once.
+		if (inline) {
+			cached.task.run();
+		} else if (created) {
+			workers.execute(cached.task);
+		}
+
+		try {
+			return cached.task.get(REQUEST_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		} catch (ExecutionException e) {
+			System.out.println("Failed to create the model.");
+			e.printStackTrace();
+
+			synchronized (models) {
+				if (models.get(hash) == cached) {
+					models.remove(hash);
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Delete the least recently used created models until the cache fits its size cap. Models
+	 * still being created are kept. The caller must hold the lock of the models.
+	 */
+	private void evict_models() {
+		Iterator<Map.Entry<String, CachedModel>> iterator = models.entrySet().iterator();
+		while (modelBytes > maxModelBytes && iterator.hasNext()) {
+			CachedModel cached = iterator.next().getValue();
+			if (cached.bytes > 0) {
+				modelBytes -= cached.bytes;
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * Solve a grid under a setting, from the cache or in the next batch of its model.
+	 * @param	grid	The grid.
+	 * @param	ssp		Make the SSP version with costs or not.
+	 * @param	setting	The setting.
+	 * @return	The solution, or null if the solve failed or did not converge.
+	 * @throws	InterruptedException	If interrupted while waiting.
+	 * @throws	TimeoutException		If it is not solved within REQUEST_TIMEOUT_SECONDS.
+	 */
+	private GridModelCache.Solution get_solution(GridCells grid, boolean ssp, GridBatchSolver.Setting setting)
+			throws InterruptedException, TimeoutException {
+		String hash = compute_hash(grid, ssp, false);
+		String key = hash + "-" + Long.toHexString(Double.doubleToLongBits(setting.gamma))
+				+ "-" + Long.toHexString(Double.doubleToLongBits(setting.epsilon)) + "-" + setting.horizon;
+
+		GridModelCache.Solution solution = null;
+		synchronized (solutions) {
+			solution = solutions.get(key);
+		}
+		metrics.solution(solution != null);
+		if (solution != null) {
+			return solution;
+		}
+
+		Request request = null;
+		Batch newBatch = null;
+
+		synchronized (pending) {
+			Batch batch = pending.get(hash);
+			if (batch == null) {
+				batch = new Batch();
+				batch.grid = grid;
+				batch.ssp = ssp;
+				batch.hash = hash;
+				pending.put(hash, batch);
+				newBatch = batch;
+			}
+
+			for (Request other : batch.requests) {
+				if (other.key.equals(key)) {
+					request = other;
+					break;
+				}
+			}
+
+			if (request == null) {
+				request = new Request();
+				request.key = key;
+				request.setting = setting;
+				batch.requests.add(request);
+			}
+		}
+
+		if (newBatch != null) {
+			final Batch batch = newBatch;
+			workers.execute(new Runnable() {
+				@Override
+				public void run() {
+					solve_batch(batch);
+				}
+			});
+		}
+
+		if (!request.done.await(REQUEST_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+			throw new TimeoutException();
+		}
+		return request.solution;
+	}
+
+	/**
+	 * Solve the requests of a batch together, on a worker. The batch takes no more requests once
+	 * this starts; later ones form the next batch.
+	 * @param	batch	The batch.
+	 */
+	private void solve_batch(Batch batch) {
+		synchronized (pending) {
+			pending.remove(batch.hash);
+		}
+
+		try {
+			// Requests solved while this batch waited, e.g., by an earlier batch, need no solve.
+			ArrayList<Request> unsolved = new ArrayList<Request>();
+			for (Request request : batch.requests) {
+				synchronized (solutions) {
+					request.solution = solutions.get(request.key);
+				}
+				if (request.solution == null) {
+					unsolved.add(request);
+				}
+			}
+
+			if (unsolved.isEmpty()) {
+				return;
+			}
+
+			GridMarkov model = get_model(batch.grid, batch.ssp, false, true);
+			if (model == null) {
+				return;
+			}
+
+			GridBatchSolver.Setting settings[] = new GridBatchSolver.Setting[unsolved.size()];
+			for (int k = 0; k < settings.length; k++) {
+				settings[k] = unsolved.get(k).setting;
+			}
+
+			GridBatchSolver solver = new GridBatchSolver(model);
+			solver.setNumThreads(solverThreads);
+
+			long start = System.nanoTime();
+			boolean solved = solver.solve(settings);
+			metrics.batch(settings.length, System.nanoTime() - start);
+
+			if (!solved) {
+				return;
+			}
+
+			for (int k = 0; k < settings.length; k++) {
+				Request request = unsolved.get(k);
+				if (!solver.isConverged(k)) {
+					System.out.println("Failed to converge within " + solver.getIterations(k) + " backups.");
+					continue;
+				}
+
+				request.solution = GridModelCache.toSolution(model, solver.getValues(k), solver.getPolicy(k),
+						solver.getIterations(k));
+				synchronized (solutions) {
+					solutions.put(request.key, request.solution);
+				}
+			}
+		} catch (Exception e) {
+			System.out.println("Failed to solve the batch of requests.");
+			e.printStackTrace();
+		} finally {
+			for (Request request : batch.requests) {
+				request.done.countDown();
+			}
+		}
+	}
+
+	/**
+	 * Compute the hash of the model of a grid (see GridMarkov.computeHash).
+	 * @param	grid	The grid.
+	 * @param	ssp		Make the SSP version with costs or not.
+	 * @param	pomdp	Create the POMDP observations and beliefs or not.
+	 * @return	The hash.
+	 */
+	private static String compute_hash(GridCells grid, boolean ssp, boolean pomdp) {
+		GridMarkov model = new GridMarkov();
+		model.setCreatePOMDP(pomdp);
+		return model.computeHash(grid, ssp);
+	}
+
+	/** The handler of one endpoint. */
+	private class Endpoint implements HttpHandler {
+		/** The endpoint: 0 for models, 1 for policies, 2 for metrics. */
+		private int endpoint;
+
+		/**
+		 * The constructor for the Endpoint class.
+		 * @param	endpoint	The endpoint: 0 for models, 1 for policies, 2 for metrics.
+		 */
+		public Endpoint(int endpoint) {
+			this.endpoint = endpoint;
+		}
+
+		@Override
+		public void handle(HttpExchange exchange) {
+			long start = System.nanoTime();
+			int status = 500;
+
+			try {
+				if (endpoint == 2) {
+					status = handle_metrics(exchange);
+				} else if (!exchange.getRequestMethod().equals("POST")) {
+					status = respond_error(exchange, 405, "Post a grid to " + exchange.getRequestURI().getPath() + ".");
+				} else {
+					GridCells grid = read_grid(exchange);
+					if (grid == null) {
+						status = respond_error(exchange, 400, "The grid is invalid.");
+					} else if (endpoint == 0) {
+						status = handle_model(exchange, grid);
+					} else {
+						status = handle_policy(exchange, grid);
+					}
+				}
+			} catch (Throwable e) {
+				// Also errors, e.g., running out of memory decoding a grid, fail only this request.
+				System.out.println("Failed to handle the request for '" + exchange.getRequestURI() + "'.");
+				e.printStackTrace();
+
+				if (exchange.getResponseCode() < 0) {
+					try {
+						status = respond_error(exchange, 500, "The request failed.");
+					} catch (Exception f) { }
+				}
+			} finally {
+				exchange.close();
+				metrics.request(endpoint, status, System.nanoTime() - start);
+			}
+		}
+	}
+
+	/**
+	 * Respond with the model of a grid.
+	 * @param	exchange	The exchange.
+	 * @param	grid		The grid.
+	 * @return	The HTTP status code.
+	 * @throws	Exception	If responding fails.
+	 */
+	private int handle_model(HttpExchange exchange, GridCells grid) throws Exception {
+		Map<String, String> query = parse_query(exchange);
+		boolean ssp = Boolean.parseBoolean(query.get("ssp"));
+		boolean pomdp = Boolean.parseBoolean(query.get("pomdp"));
+
+		GridMarkov model = null;
+		try {
+			model = get_model(grid, ssp, pomdp, false);
+		} catch (TimeoutException e) {
+			return respond_error(exchange, 503, "The model is still being created; try again later.");
+		}
+		if (model == null) {
+			return respond_error(exchange, 500, "The model could not be created.");
+		}
+
+		Writer writer = begin_response(exchange, 200);
+		boolean saved = (pomdp ? model.savePOMDP(writer) : model.saveMDP(writer));
+		writer.flush();
+
+		return (saved ? 200 : 500);
+	}
+
+	/**
+	 * Respond with the solution of a grid: the width, height, and iterations, then the policy
+	 * and value rows.
+	 * @param	exchange	The exchange.
+	 * @param	grid		The grid.
+	 * @return	The HTTP status code.
+	 * @throws	Exception	If responding fails.
+	 */
+	private int handle_policy(HttpExchange exchange, GridCells grid) throws Exception {
+		Map<String, String> query = parse_query(exchange);
+		boolean ssp = Boolean.parseBoolean(query.get("ssp"));
+
+		double gamma;
+		double epsilon;
+		int horizon;
+		try {
+			gamma = Double.parseDouble(query.containsKey("gamma") ? query.get("gamma") : "0.9");
+			epsilon = Double.parseDouble(query.containsKey("epsilon") ? query.get("epsilon") : "0.001");
+			horizon = Integer.parseInt(query.containsKey("horizon") ? query.get("horizon") : "0");
+		} catch (NumberFormatException e) {
+			return respond_error(exchange, 400, "The gamma, epsilon, or horizon is not a number.");
+		}
+
+		if (!(gamma > 0.0 && gamma <= 1.0) || !(epsilon > 0.0) || horizon < 0) {
+			return respond_error(exchange, 400, "The gamma must be on (0, 1], epsilon positive, and horizon at least 0.");
+		}
+		if (gamma == 1.0 && horizon == 0) {
+			return respond_error(exchange, 400, "A gamma of 1 needs a horizon, since the solve may never converge.");
+		}
+		if (horizon > GridBatchSolver.DEFAULT_MAX_ITERATIONS) {
+			return respond_error(exchange, 400, "The horizon must be at most " + GridBatchSolver.DEFAULT_MAX_ITERATIONS + ".");
+		}
+
+		GridModelCache.Solution solution = null;
+		try {
+			solution = get_solution(grid, ssp, new GridBatchSolver.Setting(gamma, horizon, epsilon));
+		} catch (TimeoutException e) {
+			return respond_error(exchange, 503, "The grid is still being solved; try again later.");
+		}
+		if (solution == null) {
+			return respond_error(exchange, 500, "The grid could not be solved, or did not converge.");
+		}
+
+		int w = solution.width;
+		int h = solution.height;
+
+		Writer writer = begin_response(exchange, 200);
+		writer.write(w + "," + h + "," + solution.iterations + "\n");
+		for (int y = 0; y < h; y++) {
+			for (int x = 0; x < w; x++) {
+				writer.write(Integer.toString(solution.policy[y * w + x]));
+				writer.write(x != w - 1 ? "," : "\n");
+			}
+		}
+		for (int y = 0; y < h; y++) {
+			for (int x = 0; x < w; x++) {
+				writer.write(Double.toString(solution.values[y * w + x]));
+				writer.write(x != w - 1 ? "," : "\n");
+			}
+		}
+		writer.flush();
+
+		return 200;
+	}
+
+	/**
+	 * Respond with the metrics.
+	 * @param	exchange	The exchange.
+	 * @return	The HTTP status code.
+	 * @throws	Exception	If responding fails.
+	 */
+	private int handle_metrics(HttpExchange exchange) throws Exception {
+		Writer writer = begin_response(exchange, 200);
+		metrics.write(writer);
+		writer.flush();
+
+		return 200;
+	}
+
+	/**
+	 * Read the grid posted with a request, as an image if its content type says so and in the CSV
+	 * format of GridPanel.saveGrid otherwise.
+	 * @param	exchange	The exchange.
+	 * @return	The grid, or null if it is invalid or too large.
+	 * @throws	Exception	If reading fails.
+	 */
+	private static GridCells read_grid(HttpExchange exchange) throws Exception {
+		String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+
+		GridCells grid = null;
+		if (contentType != null && contentType.startsWith("image/")) {
+			BufferedImage image = read_image(exchange);
+			if (image != null) {
+				grid = GridImage.toGrid(image);
+			}
+		} else {
+			BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(exchange.getRequestBody(), "US-ASCII"));
+
+			// Check the size before GridPanel.readGrid allocates the grid.
+			bufferedReader.mark(256);
+			String line = bufferedReader.readLine();
+			String data[] = (line != null ? line.split(",") : new String[0]);
+			try {
+				if (data.length != 2 || (long)Integer.parseInt(data[0].trim()) * Integer.parseInt(data[1].trim()) > MAX_CELLS) {
+					return null;
+				}
+			} catch (NumberFormatException e) {
+				return null;
+			}
+			bufferedReader.reset();
+
+			grid = GridPanel.readGrid(bufferedReader, "request");
+		}
+
+		if (grid != null && (long)grid.getWidth() * grid.getHeight() > MAX_CELLS) {
+			return null;
+		}
+		return grid;
+	}
+
+	/**
+	 * Read the posted image of a grid. Its size is checked from the header before the pixels are
+	 * decoded, since a small file can declare an image far too large to allocate.
+	 * @param	exchange	The exchange.
+	 * @return	The image, or null if it is not an image, is corrupt, or has more than MAX_CELLS pixels.
+	 * @throws	Exception	If reading fails.
+	 */
+	private static BufferedImage read_image(HttpExchange exchange) throws Exception {
+		ImageInputStream input = ImageIO.createImageInputStream(exchange.getRequestBody());
+		if (input == null) {
+			return null;
+		}
+
+		try {
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+			if (!readers.hasNext()) {
+				return null;
+			}
+
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(input, true, true);
+				if ((long)reader.getWidth(0) * reader.getHeight(0) > MAX_CELLS) {
+					return null;
+				}
+				return reader.read(0);
+			} catch (IIOException e) {
+				// The decoder wraps everything, so only blame the image when it is not, e.g., out of memory.
+				if (e.getCause() instanceof Error) {
+					throw e;
+				}
+				return null;
+			} finally {
+				reader.dispose();
+			}
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * Parse the query parameters of a request.
+	 * @param	exchange	The exchange.
+	 * @return	The value of each parameter.
+	 * @throws	Exception	If a parameter cannot be decoded.
+	 */
+	private static Map<String, String> parse_query(HttpExchange exchange) throws Exception {
+		HashMap<String, String> query = new HashMap<String, String>();
+
+		String raw = exchange.getRequestURI().getRawQuery();
+		if (raw == null) {
+			return query;
+		}
+
+		for (String parameter : raw.split("&")) {
+			int i = parameter.indexOf('=');
+			if (i > 0) {
+				query.put(URLDecoder.decode(parameter.substring(0, i), "UTF-8"),
+						URLDecoder.decode(parameter.substring(i + 1), "UTF-8"));
+			}
+		}
+
+		return query;
+	}
+
+	/**
+	 * Send the headers of a plain text response of unknown length.
+	 * @param	exchange	The exchange.
+	 * @param	status		The HTTP status code.
+	 * @return	A writer for the response body.
+	 * @throws	Exception	If sending fails.
+	 */
+	private static Writer begin_response(HttpExchange exchange, int status) throws Exception {
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=US-ASCII");
+		exchange.sendResponseHeaders(status, 0);
+		return new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), "US-ASCII"), 1 << 16);
+	}
+
+	/**
+	 * Respond with an error message.
+	 * @param	exchange	The exchange.
+	 * @param	status		The HTTP status code.
+	 * @param	message		The message.
+	 * @return	The HTTP status code.
+	 * @throws	Exception	If responding fails.
+	 */
+	private static int respond_error(HttpExchange exchange, int status, String message) throws Exception {
+		Writer writer = begin_response(exchange, status);
+		writer.write(message + "\n");
+		writer.flush();
+		return status;
+	}
+
+}
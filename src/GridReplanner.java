@@ -0,0 +1,404 @@
+/**
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2014 Kyle Hollins Wray, University of Massachusetts
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of
+ *  this software and associated documentation files (the "Software"), to deal in
+ *  the Software without restriction, including without limitation the rights to
+ *  use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ *  the Software, and to permit persons to whom the Software is furnished to do so,
+ *  subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ *  FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ *  IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *  CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.Arrays;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * A background planner which keeps the policy of an edited grid current. Edits only go into a
+ * coalescing change queue: one pending type per edited cell, or a whole replacement grid, which
+ * supersedes them. Once edits pause for the debounce delay (or have been pending for the maximum
+ * delay, during a long burst), the pending changes are applied to the planner's own copy of the
+ * grid and a new solve starts, cancelling the stale one at its next sweep (unless the display is
+ * already overdue, when the stale one finishes first). Solves run one at a time, warm started from
+ * the last result, and only a solve which was not cancelled publishes its snapshot, in a single
+ * volatile write. Thus the displayed policy lags the last edit by at most the maximum delay plus
+ * one solve.
+ */
+public class GridReplanner implements GridPanel.ChangeListener {
+
+	/** The default time edits must pause for before re-planning, in milliseconds. */
+	public static final long DEFAULT_DEBOUNCE_DELAY = 150;
+
+	/** The default longest time an edit waits for re-planning during a burst, in milliseconds. */
+	public static final long DEFAULT_MAX_DELAY = 1000;
+
+	/** The tolerance for convergence of each solve. */
+	private static final double EPSILON = 1e-6;
+
+	/** The time edits must pause for before re-planning, in milliseconds. */
+	private long debounceDelay;
+
+	/** The longest time an edit waits for re-planning during a burst, in milliseconds. */
+	private long maxDelay;
+
+	/** Make SSPs with costs instead of MDPs with rewards. */
+	private boolean ssp;
+
+	/** The pending type of each edited cell (-1 for none), guarded by this. */
+	private byte pendingCells[];
+
+	/** The edited cells in pendingCells, guarded by this. */
+	private int pendingIndexes[];
+
+	/** The number of edited cells in pendingIndexes, guarded by this. */
+	private int numPending;
+
+	/** A pending replacement of the whole grid, or null, guarded by this. */
+	private GridCells pendingGrid;
+
+	/** The time of the first and last pending change, in nanoseconds, guarded by this. */
+	private long firstChange;
+	private long lastChange;
+
+	/** True if a debounce check is scheduled, guarded by this. */
+	private boolean scheduled;
+
+	/** The planner's own copy of the grid, only touched by the debounce thread. */
+	private GridCells grid;
+
+	/** The generation of the latest grid; a solve of an older one is stale and stops. */
+	private AtomicInteger generation;
+
+	/** The last published snapshot. */
+	private volatile GridAnytimeSolver.Snapshot snapshot;
+
+	/** The values of the last solve, published or cancelled, to warm start the next one from. */
+	private GridAnytimeSolver.Snapshot warmStart;
+
+	/** The time of the last publish (or of the start), from System.nanoTime. */
+	private long lastPublished;
+
+	/** If planning was stopped; a solve in progress is then cancelled even if the display is overdue. */
+	private volatile boolean stopped;
+
+	/** The number of solves started, and of those cancelled as stale. */
+	private volatile int numSolves;
+	private volatile int numCancelled;
+
+	/** The listeners of the snapshots. */
+	private CopyOnWriteArrayList<GridAnytimeSolver.Listener> listeners;
+
+	/** The thread which debounces the changes. */
+	private ScheduledExecutorService debouncer;
+
+	/** The thread which solves, one grid at a time. */
+	private ExecutorService planner;
+
+	/** The model creator of the planner thread, whose snapshots share unchanged arrays. */
+	private GridMarkov markov;
+
+	/**
+	 * The constructor for the GridReplanner class. It plans nothing until it is given a grid.
+	 */
+	public GridReplanner() {
+		this.debounceDelay = DEFAULT_DEBOUNCE_DELAY;
+		this.maxDelay = DEFAULT_MAX_DELAY;
+		this.ssp = false;
+		this.pendingCells = new byte[0];
+		this.pendingIndexes = new int[0];
+		this.numPending = 0;
+		this.pendingGrid = null;
+		this.scheduled = false;
+		this.grid = null;
+		this.generation = new AtomicInteger(0);
+		this.snapshot = null;
+		this.warmStart = null;
+		this.lastPublished = System.nanoTime();
+		this.stopped = false;
+		this.numSolves = 0;
+		this.numCancelled = 0;
+		this.listeners = new CopyOnWriteArrayList<GridAnytimeSolver.Listener>();
+		this.debouncer = Executors.newSingleThreadScheduledExecutor();
+		this.planner = Executors.newSingleThreadExecutor();
+		this.markov = new GridMarkov();
+		this.markov.setCreatePOMDP(false);
+	}
+
+	/**
+	 * Set the time edits must pause for before re-planning.
+	 * @param	debounceDelay	The delay in milliseconds.
+	 */
+	public void setDebounceDelay(long debounceDelay) {
+		this.debounceDelay = debounceDelay;
+	}
+
+	/**
+	 * Set the longest time an edit waits for re-planning while edits keep coming.
+	 * @param	maxDelay	The delay in milliseconds.
+	 */
+	public void setMaxDelay(long maxDelay) {
+		this.maxDelay = maxDelay;
+	}
+
+	/**
+	 * Plan with the SSP (costs) instead of the MDP (rewards). Takes effect at the next solve.
+	 * @param	ssp		True for the SSP.
+	 */
+	public void setSSP(boolean ssp) {
+		this.ssp = ssp;
+	}
+
+	/**
+	 * Add a listener of the snapshots, which is called on the planner thread.
+	 * @param	listener	The listener.
+	 */
+	public void addListener(GridAnytimeSolver.Listener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Get the last published snapshot.
+	 * @return	The snapshot, or null if none has been published yet.
+	 */
+	public GridAnytimeSolver.Snapshot getSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * Get the number of solves started.
+	 * @return	The number of solves.
+	 */
+	public int getNumSolves() {
+		return numSolves;
+	}
+
+	/**
+	 * Get the number of solves cancelled because the grid changed again.
+	 * @return	The number of cancelled solves.
+	 */
+	public int getNumCancelled() {
+		return numCancelled;
+	}
+
+	/**
+	 * Stop planning. A solve in progress is cancelled.
+	 */
+	public void shutdown() {
+		stopped = true;
+		generation.incrementAndGet();
+		debouncer.shutdownNow();
+		planner.shutdown();
+	}
+
+	@Override
+	public synchronized void cellsChanged(int indexes[], int count, int cellType) {
+		if (pendingGrid != null) {
+			byte cells[] = pendingGrid.getCells();
+			for (int k = 0; k < count; k++) {
+				cells[indexes[k]] = (byte)cellType;
+			}
+		} else if (grid != null) {
+			for (int k = 0; k < count; k++) {
+				int c = indexes[k];
+				if (pendingCells[c] < 0) {
+					pendingIndexes[numPending++] = c;
+				}
+				pendingCells[c] = (byte)cellType;
+			}
+		} else {
+			return;
+		}
+		changed();
+	}
+
+	@Override
+	public synchronized void gridReplaced(GridCells replacement) {
+		pendingGrid = replacement;
+		for (int i = 0; i < numPending; i++) {
+			pendingCells[pendingIndexes[i]] = -1;
+		}
+		numPending = 0;
+		changed();
+	}
+
+	/**
+	 * Record the time of a change, and schedule a debounce check if there is none.
+	 */
+	private void changed() {
+		long now = System.nanoTime();
+		if (!scheduled) {
+			firstChange = now;
+			scheduled = true;
+			schedule(debounceDelay);
+		}
+		lastChange = now;
+	}
+
+	/**
+	 * Schedule a debounce check.
+	 * @param	delay	The delay in milliseconds.
+	 */
+	private void schedule(long delay) {
+		try {
+			debouncer.schedule(new Runnable() {
+				@Override
+				public void run() {
+					debounce();
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		} catch (Exception e) {
+			// Shut down.
+		}
+	}
+
+	/**
+	 * Re-plan if edits paused for the debounce delay or have waited for the maximum delay;
+	 * otherwise check again when one of those would be reached.
+	 */
+	private void debounce() {
+		GridCells replacement;
+		int indexes[];
+		int types[];
+
+		synchronized (this) {
+			long now = System.nanoTime();
+			long quiet = (now - lastChange) / 1000000L;
+			long waited = (now - firstChange) / 1000000L;
+			if (quiet < debounceDelay && waited < maxDelay) {
+				schedule(Math.min(debounceDelay - quiet, maxDelay - waited));
+				return;
+			}
+
+			// Drain the queue.
+			replacement = pendingGrid;
+			indexes = Arrays.copyOf(pendingIndexes, numPending);
+			types = new int[numPending];
+			for (int i = 0; i < numPending; i++) {
+				types[i] = pendingCells[pendingIndexes[i]];
+				pendingCells[pendingIndexes[i]] = -1;
+			}
+			numPending = 0;
+			pendingGrid = null;
+			scheduled = false;
+
+			if (replacement != null) {
+				grid = replacement;
+				pendingCells = new byte[grid.getWidth() * grid.getHeight()];
+				Arrays.fill(pendingCells, (byte)-1);
+				pendingIndexes = new int[pendingCells.length];
+			}
+		}
+
+		if (grid == null) {
+			return;
+		}
+
+		// The solve gets its own copy, since the next changes are applied to this one.
+		byte cells[] = grid.getCells();
+		for (int i = 0; i < indexes.length; i++) {
+			cells[indexes[i]] = (byte)types[i];
+		}
+		final GridCells solveGrid = new GridCells(grid);
+		final int solveGeneration = generation.incrementAndGet();
+
+		planner.execute(new Runnable() {
+			@Override
+			public void run() {
+				solve(solveGrid, solveGeneration);
+			}
+		});
+	}
+
+	/**
+	 * Check if a solve should be cancelled: planning was stopped, or its grid is stale and the last
+	 * publish is recent. Once the displayed policy is older than the maximum delay, a stale solve
+	 * finishes and publishes instead, so a burst of edits which each outlast a solve cannot starve
+	 * the display.
+	 * @param	solveGeneration		The generation of the grid being solved.
+	 * @return	True or false.
+	 */
+	private boolean is_cancelled(int solveGeneration) {
+		if (stopped) {
+			return true;
+		}
+		return (solveGeneration != generation.get() && System.nanoTime() - lastPublished < maxDelay * 1000000L);
+	}
+
+	/**
+	 * Solve a grid, unless it is already stale, and publish the result unless it was cancelled.
+	 * @param	solveGrid			The grid.
+	 * @param	solveGeneration		The generation of the grid.
+	 */
+	private void solve(GridCells solveGrid, int solveGeneration) {
+		if (stopped || solveGeneration != generation.get()) {
+			return; // Superseded before it started.
+		}
+		numSolves++;
+
+		// Each edit usually leaves some of the model unchanged, which the snapshot then shares.
+		GridMarkov model = markov.create(solveGrid, ssp);
+
+		GridValueIteration solver = new GridValueIteration(model);
+
+		// Warm start from the last solve of the same size, cell by cell. A cancelled solve hands
+		// over its progress, so a long burst of edits still converges.
+		GridAnytimeSolver.Snapshot last = warmStart;
+		if (last != null && last.width == solveGrid.getWidth() && last.height == solveGrid.getHeight()) {
+			for (int s = 0; s < model.getNumStates(); s++) {
+				int c = model.getStateCell(s);
+				if (c >= 0 && !Double.isNaN(last.values[c])) {
+					solver.setValue(s, last.values[c]);
+				}
+			}
+		}
+
+		double gamma = model.getDiscountFactor();
+		double convergenceCriterion = EPSILON;
+		if (gamma < 1.0) {
+			convergenceCriterion *= (1.0 - gamma) / gamma;
+		}
+
+		int iterations = 0;
+		double residual = Double.POSITIVE_INFINITY;
+		while (residual > convergenceCriterion) {
+			if (is_cancelled(solveGeneration)) {
+				numCancelled++;
+				warmStart = GridAnytimeSolver.createSnapshot(model, solver, iterations, residual, false);
+				return;
+			}
+			residual = solver.sweep(gamma);
+			iterations++;
+		}
+
+		GridAnytimeSolver.Snapshot next = GridAnytimeSolver.createSnapshot(model, solver, iterations, residual, true);
+		warmStart = next;
+		if (is_cancelled(solveGeneration)) {
+			numCancelled++;
+			return;
+		}
+
+		lastPublished = System.nanoTime();
+		snapshot = next;
+		for (GridAnytimeSolver.Listener listener : listeners) {
+			listener.snapshotPublished(next);
+		}
+	}
+
+}
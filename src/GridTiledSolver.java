@@ -0,0 +1,609 @@
+/**
+ *  The MIT License (MIT)
+ *
+ *  Copyright (c) 2014 Kyle Hollins Wray, University of Massachusetts
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy of
+ *  this software and associated documentation files (the "Software"), to deal in
+ *  the Software without restriction, including without limitation the rights to
+ *  use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ *  the Software, and to permit persons to whom the Software is furnished to do so,
+ *  subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ *  FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ *  COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ *  IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *  CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+public class GridTiledSolver {
+
+	/** The number of actions of each tile's model. */
+	private static final int m = 4;
+
+	/** The number of successor slots of each state-action pair in each tile's model. */
+	private static final int ns = 3;
+
+	/** The width of the grid. */
+	private int width;
+
+	/** The height of the grid. */
+	private int height;
+
+	/** Make the SSP version with costs or not. */
+	private boolean ssp;
+
+	/** The width and height of a tile, in cells. */
+	private int tileSize;
+
+	/** The number of tiles along the x-axis. */
+	private int tilesX;
+
+	/** The number of tiles along the y-axis. */
+	private int tilesY;
+
+	/** The directory holding the tile files. */
+	private File directory;
+
+	/** The file holding the model of every tile. */
+	private File modelFile;
+
+	/** The file holding the values and policy of every tile. */
+	private File valueFile;
+
+	/** The model (successors, probabilities, rewards) of each tile, including its one cell halo. */
+	private MappedByteBuffer modelBuffers[];
+
+	/** The values (doubles) then policy (bytes) of each tile's own cells. */
+	private MappedByteBuffer valueBuffers[];
+
+	/** The tiles whose models are decoded in memory, least recently used first. */
+	private LinkedHashMap<Integer, GridValueIteration> resident;
+
+	/** The maximum number of tiles decoded in memory at once. */
+	private int maxResidentTiles;
+
+	/** The latest residual of each tile. */
+	private double residual[];
+
+	/** The scheduler which picks the next tile to sweep. */
+	private TileScheduler scheduler;
+
+	/** The number of Bellman sweeps of a tile each time it is visited. */
+	private int sweepsPerVisit;
+
+	/** The number of tile visits of the last solve. */
+	private int visits;
+
+	/** The number of tile models decoded from their files during the last solve. */
+	private int loads;
+
+	/**
+	 * The constructor for the GridTiledSolver class.
+	 * @param	tileSize			The width and height of a tile, in cells.
+	 * @param	maxResidentTiles	The maximum number of tiles decoded in memory at once.
+	 * @param	directory			The directory for the memory-mapped tile files.
+	 */
+	public GridTiledSolver(int tileSize, int maxResidentTiles, File directory) {
+		this.tileSize = tileSize;
+		this.maxResidentTiles = maxResidentTiles;
+		this.directory = directory;
+		this.scheduler = new LargestResidualScheduler();
+		this.sweepsPerVisit = 1;
+		this.resident = new LinkedHashMap<Integer, GridValueIteration>(16, 0.75f, true);
+	}
+
+	/**
+	 * Set the scheduler which picks the next tile to sweep.
+	 * @param	scheduler	The scheduler.
+	 */
+	public void setScheduler(TileScheduler scheduler) {
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * Set the number of Bellman sweeps of a tile each time it is visited.
+	 * @param	sweepsPerVisit	The number of sweeps.
+	 */
+	public void setSweepsPerVisit(int sweepsPerVisit) {
+		this.sweepsPerVisit = sweepsPerVisit;
+	}
+
+	/**
+	 * Get the number of tiles.
+	 * @return	The number of tiles.
+	 */
+	public int getNumTiles() {
+		return tilesX * tilesY;
+	}
+
+	/**
+	 * Get the number of tile visits of the last solve.
+	 * @return	The number of visits.
+	 */
+	public int getVisits() {
+		return visits;
+	}
+
+	/**
+	 * Get the number of tile models decoded from their files during the last solve.
+	 * @return	The number of loads.
+	 */
+	public int getLoads() {
+		return loads;
+	}
+
+	/**
+	 * Get the x location of the first cell of a tile.
+	 * @param	tile	The tile.
+	 * @return	The x location.
+	 */
+	private int tile_x(int tile) {
+		return (tile % tilesX) * tileSize;
+	}
+
+	/**
+	 * Get the y location of the first cell of a tile.
+	 * @param	tile	The tile.
+	 * @return	The y location.
+	 */
+	private int tile_y(int tile) {
+		return (tile / tilesX) * tileSize;
+	}
+
+	/**
+	 * Get the width of a tile, which is smaller on the right edge of the grid.
+	 * @param	tile	The tile.
+	 * @return	The width.
+	 */
+	private int tile_width(int tile) {
+		return Math.min(tileSize, width - tile_x(tile));
+	}
+
+	/**
+	 * Get the height of a tile, which is smaller on the bottom edge of the grid.
+	 * @param	tile	The tile.
+	 * @return	The height.
+	 */
+	private int tile_height(int tile) {
+		return Math.min(tileSize, height - tile_y(tile));
+	}
+
+	/**
+	 * Build the model of every tile, one at a time, and write them to memory-mapped files in the
+	 * directory. Each tile's model covers the tile plus a one cell halo of its neighbors' cells.
+	 * @param 	grid	The grid.
+	 * @param	ssp		Make the SSP version with costs or not.
+	 * @return	The success of creating the tile files.
+	 */
+	public boolean create(GridCells grid, boolean ssp) {
+		int w = grid.getWidth();
+		int h = grid.getHeight();
+
+		this.width = w;
+		this.height = h;
+		this.ssp = ssp;
+		this.tilesX = (w + tileSize - 1) / tileSize;
+		this.tilesY = (h + tileSize - 1) / tileSize;
+
+		int numTiles = tilesX * tilesY;
+		modelBuffers = new MappedByteBuffer[numTiles];
+		valueBuffers = new MappedByteBuffer[numTiles];
+		residual = new double[numTiles];
+		resident.clear();
+
+		try {
+			modelFile = File.createTempFile("tiles", ".model", directory);
+			valueFile = File.createTempFile("tiles", ".values", directory);
+			modelFile.deleteOnExit();
+			valueFile.deleteOnExit();
+
+			RandomAccessFile models = new RandomAccessFile(modelFile, "rw");
+			RandomAccessFile values = new RandomAccessFile(valueFile, "rw");
+			FileChannel modelChannel = models.getChannel();
+			FileChannel valueChannel = values.getChannel();
+
+			long modelOffset = 0;
+			long valueOffset = 0;
+
+			for (int tile = 0; tile < numTiles; tile++) {
+				int x0 = tile_x(tile);
+				int y0 = tile_y(tile);
+				int tw = tile_width(tile);
+				int th = tile_height(tile);
+
+				// Copy the tile and its halo. Cells beyond the grid are obstacles, which blocks
+				// movement exactly like the edge of the grid does.
+				GridCells subgrid = grid.subgrid(x0 - 1, y0 - 1, tw + 2, th + 2, GridPanel.GridCellType.OBSTACLE);
+
+				GridMarkov model = new GridMarkov();
+				model.setPruneUnreachable(false);
+				model.setCreatePOMDP(false);
+				model.create(subgrid, ssp);
+
+				int n = model.getNumStates();
+				long modelSize = 4L * n * m * ns + 8L * n * m * ns + 8L * n;
+				modelBuffers[tile] = modelChannel.map(FileChannel.MapMode.READ_WRITE, modelOffset, modelSize);
+				modelOffset += modelSize;
+
+				ByteBuffer buffer = modelBuffers[tile].duplicate();
+				buffer.asIntBuffer().put(model.getSuccessors());
+				buffer.position(4 * n * m * ns);
+				buffer.asDoubleBuffer().put(model.getProbabilities());
+				buffer.position(12 * n * m * ns);
+				buffer.asDoubleBuffer().put(model.getRewards());
+
+				long valueSize = 9L * tw * th;
+				valueBuffers[tile] = valueChannel.map(FileChannel.MapMode.READ_WRITE, valueOffset, valueSize);
+				valueOffset += valueSize;
+			}
+
+			// The mappings stay valid after the channels are closed.
+			models.close();
+			values.close();
+		} catch (Exception e) {
+			System.out.println("Failed to create the tile files in '" + directory + "'.");
+			e.printStackTrace();
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Delete the tile files.
+	 */
+	public void close() {
+		resident.clear();
+		modelBuffers = null;
+		valueBuffers = null;
+		if (modelFile != null) {
+			modelFile.delete();
+		}
+		if (valueFile != null) {
+			valueFile.delete();
+		}
+	}
+
+	/**
+	 * Get the solver of a tile, decoding its model from the file if it is not resident. The
+	 * least recently used tile is dropped once there are too many resident tiles.
+	 * @param	tile	The tile.
+	 * @return	The solver of the tile, whose halo states are fixed.
+	 */
+	private GridValueIteration load_tile(int tile) {
+		GridValueIteration solver = resident.get(tile);
+		if (solver != null) {
+			return solver;
+		}
+
+		int tw = tile_width(tile);
+		int th = tile_height(tile);
+		int n = (tw + 2) * (th + 2) + 1;
+
+		int S[] = new int[n * m * ns];
+		double T[] = new double[n * m * ns];
+		double R[] = new double[n];
+
+		ByteBuffer buffer = modelBuffers[tile].duplicate();
+		buffer.asIntBuffer().get(S);
+		buffer.position(4 * n * m * ns);
+		buffer.asDoubleBuffer().get(T);
+		buffer.position(12 * n * m * ns);
+		buffer.asDoubleBuffer().get(R);
+
+		GridMarkov model = new GridMarkov(m, ns, S, T, R, -1, new int[] { n - 1 }, ssp);
+		solver = new GridValueIteration(model);
+
+		boolean fixed[] = new boolean[n];
+		for (int x = 0; x < tw + 2; x++) {
+			for (int y = 0; y < th + 2; y++) {
+				fixed[y * (tw + 2) + x] = (x == 0 || y == 0 || x == tw + 1 || y == th + 1);
+			}
+		}
+		solver.setFixedStates(fixed);
+
+		resident.put(tile, solver);
+		loads++;
+
+		Iterator<Map.Entry<Integer, GridValueIteration>> iterator = resident.entrySet().iterator();
+		while (resident.size() > maxResidentTiles && iterator.hasNext()) {
+			iterator.next();
+			iterator.remove();
+		}
+
+		return solver;
+	}
+
+	/**
+	 * Solve the grid by repeatedly sweeping the tile chosen by the scheduler. Before each visit,
+	 * the tile's halo is refreshed with the latest values of its neighbors, and afterwards its
+	 * values are written back and its neighbors' residuals raised if its values changed.
+	 * @param	gamma		The discount factor on [0, 1].
+	 * @param	epsilon		The tolerance for convergence.
+	 * @return	The number of tile visits.
+	 */
+	public int solve(double gamma, double epsilon) {
+		double convergenceCriterion = epsilon;
+		if (gamma < 1.0) {
+			convergenceCriterion *= (1.0 - gamma) / gamma;
+		}
+
+		int numTiles = tilesX * tilesY;
+		visits = 0;
+		loads = 0;
+
+		Arrays.fill(residual, Double.POSITIVE_INFINITY);
+		scheduler.reset(numTiles);
+
+		int tile = scheduler.next(convergenceCriterion);
+		while (tile >= 0) {
+			double delta = visit_tile(tile, gamma);
+			visits++;
+
+			residual[tile] = delta;
+			scheduler.update(tile, delta);
+
+			if (delta > convergenceCriterion) {
+				int tx = tile % tilesX;
+				int ty = tile / tilesX;
+				if (tx > 0) {
+					raise_residual(tile - 1, delta);
+				}
+				if (ty > 0) {
+					raise_residual(tile - tilesX, delta);
+				}
+				if (tx < tilesX - 1) {
+					raise_residual(tile + 1, delta);
+				}
+				if (ty < tilesY - 1) {
+					raise_residual(tile + tilesX, delta);
+				}
+			}
+
+			tile = scheduler.next(convergenceCriterion);
+		}
+
+		System.out.println("Solved " + numTiles + " tiles in " + visits + " visits (" + loads + " loads).");
+
+		return visits;
+	}
+
+	/**
+	 * Raise the residual of a tile whose halo has changed.
+	 * @param	tile		The tile.
+	 * @param	delta		The largest change in its neighbor's values.
+	 */
+	private void raise_residual(int tile, double delta) {
+		if (delta > residual[tile]) {
+			residual[tile] = delta;
+			scheduler.update(tile, delta);
+		}
+	}
+
+	/**
+	 * Sweep one tile: read its values and halo, back it up, and write its values back.
+	 * @param	tile	The tile.
+	 * @param	gamma	The discount factor on [0, 1].
+	 * @return	The largest change in value (the residual) of the first sweep.
+	 */
+	private double visit_tile(int tile, double gamma) {
+		GridValueIteration solver = load_tile(tile);
+
+		int x0 = tile_x(tile);
+		int y0 = tile_y(tile);
+		int tw = tile_width(tile);
+		int th = tile_height(tile);
+
+		for (int y = 0; y < th + 2; y++) {
+			for (int x = 0; x < tw + 2; x++) {
+				int gx = x0 + x - 1;
+				int gy = y0 + y - 1;
+				if (gx >= 0 && gy >= 0 && gx < width && gy < height) {
+					solver.setValue(y * (tw + 2) + x, getValue(gx, gy));
+				}
+			}
+		}
+
+		// The first sweep measures how far the tile was from converged with its new halo; the
+		// later ones only spread that change across the tile.
+		double delta = solver.sweep(gamma);
+		for (int i = 1; i < sweepsPerVisit; i++) {
+			solver.sweep(gamma);
+		}
+
+		int policy[] = solver.getPolicy();
+		MappedByteBuffer buffer = valueBuffers[tile];
+		for (int y = 0; y < th; y++) {
+			for (int x = 0; x < tw; x++) {
+				int s = (y + 1) * (tw + 2) + (x + 1);
+				buffer.putDouble(8 * (y * tw + x), solver.getValue(s));
+				buffer.put(8 * tw * th + y * tw + x, (byte)policy[s]);
+			}
+		}
+
+		return delta;
+	}
+
+	/**
+	 * Get the value of a cell.
+	 * @param	x	The x location of the cell.
+	 * @param	y	The y location of the cell.
+	 * @return	The value.
+	 */
+	public double getValue(int x, int y) {
+		int tile = (y / tileSize) * tilesX + (x / tileSize);
+		int tw = tile_width(tile);
+		return valueBuffers[tile].getDouble(8 * ((y % tileSize) * tw + (x % tileSize)));
+	}
+
+	/**
+	 * Get the policy (action) of a cell.
+	 * @param	x	The x location of the cell.
+	 * @param	y	The y location of the cell.
+	 * @return	The action.
+	 */
+	public int getPolicy(int x, int y) {
+		int tile = (y / tileSize) * tilesX + (x / tileSize);
+		int tw = tile_width(tile);
+		int th = tile_height(tile);
+		return valueBuffers[tile].get(8 * tw * th + (y % tileSize) * tw + (x % tileSize));
+	}
+
+	/** Chooses which tile to sweep next. */
+	public static interface TileScheduler {
+
+		/**
+		 * Start scheduling tiles, all of whose residuals are unknown (infinite).
+		 * @param	numTiles	The number of tiles.
+		 */
+		public void reset(int numTiles);
+
+		/**
+		 * Record the latest residual of a tile.
+		 * @param	tile		The tile.
+		 * @param	residual	Its residual.
+		 */
+		public void update(int tile, double residual);
+
+		/**
+		 * Choose the next tile to sweep.
+		 * @param	threshold	Only tiles with a residual above this need sweeping.
+		 * @return	The tile, or -1 if every tile has converged.
+		 */
+		public int next(double threshold);
+
+	}
+
+	/** Sweeps the tile with the largest residual first, using an indexed max-heap. */
+	public static class LargestResidualScheduler implements TileScheduler {
+
+		/** The tiles, as a binary max-heap on their residuals. */
+		private int heap[];
+
+		/** The position of each tile in the heap. */
+		private int position[];
+
+		/** The residual of each tile. */
+		private double residual[];
+
+		@Override
+		public void reset(int numTiles) {
+			heap = new int[numTiles];
+			position = new int[numTiles];
+			residual = new double[numTiles];
+			for (int tile = 0; tile < numTiles; tile++) {
+				heap[tile] = tile;
+				position[tile] = tile;
+				residual[tile] = Double.POSITIVE_INFINITY;
+			}
+		}
+
+		@Override
+		public void update(int tile, double value) {
+			double previous = residual[tile];
+			residual[tile] = value;
+
+			int i = position[tile];
+			if (value > previous) {
+				// Sift up.
+				while (i > 0 && residual[heap[(i - 1) / 2]] < value) {
+					swap(i, (i - 1) / 2);
+					i = (i - 1) / 2;
+				}
+			} else {
+				// Sift down.
+				while (true) {
+					int largest = i;
+					int left = 2 * i + 1;
+					int right = 2 * i + 2;
+					if (left < heap.length && residual[heap[left]] > residual[heap[largest]]) {
+						largest = left;
+					}
+					if (right < heap.length && residual[heap[right]] > residual[heap[largest]]) {
+						largest = right;
+					}
+					if (largest == i) {
+						break;
+					}
+					swap(i, largest);
+					i = largest;
+				}
+			}
+		}
+
+		/**
+		 * Swap two entries of the heap.
+		 * @param	i	The first position.
+		 * @param	j	The second position.
+		 */
+		private void swap(int i, int j) {
+			int tile = heap[i];
+			heap[i] = heap[j];
+			heap[j] = tile;
+			position[heap[i]] = i;
+			position[heap[j]] = j;
+		}
+
+		@Override
+		public int next(double threshold) {
+			if (heap.length == 0 || residual[heap[0]] <= threshold) {
+				return -1;
+			}
+			return heap[0];
+		}
+
+	}
+
+	/** Sweeps the tiles in order, skipping the converged ones. */
+	public static class RoundRobinScheduler implements TileScheduler {
+
+		/** The residual of each tile. */
+		private double residual[];
+
+		/** The next tile to consider. */
+		private int current;
+
+		@Override
+		public void reset(int numTiles) {
+			residual = new double[numTiles];
+			Arrays.fill(residual, Double.POSITIVE_INFINITY);
+			current = 0;
+		}
+
+		@Override
+		public void update(int tile, double value) {
+			residual[tile] = value;
+		}
+
+		@Override
+		public int next(double threshold) {
+			for (int i = 0; i < residual.length; i++) {
+				int tile = (current + i) % residual.length;
+				if (residual[tile] > threshold) {
+					current = (tile + 1) % residual.length;
+					return tile;
+				}
+			}
+			return -1;
+		}
+
+	}
+
+}
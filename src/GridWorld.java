@@ -49,6 +49,8 @@ import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 import javax.swing.JSpinner;
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
+import javax.swing.JComboBox;
 import javax.swing.JSlider;
 
 
@@ -65,6 +67,9 @@ public class GridWorld implements ActionListener, ChangeListener, KeyListener, M
 	
 	/** The human-readable meaning of the brush color. */
 	private JLabel labBrush;
+
+	/** The combo box for choosing the tool the brush is drawn with. */
+	private JComboBox<String> cmbTool;
 	
 	/** The spinner for changing the width of the grid world. */
 	private JSpinner sprWidth;
@@ -99,12 +104,27 @@ public class GridWorld implements ActionListener, ChangeListener, KeyListener, M
 	/** A slider which controls the speed of the robot as it moves around. For visualization only. */
 	private JSlider sldSpeed;
 
+	/** The button which starts or stops solving the MDP in the background, showing its values. */
+	private JButton btnSolve;
+
+	/** The background solver of the MDP, or null if it was never started. */
+	private GridAnytimeSolver anytimeSolver = null;
+
+	/** The check box which keeps the policy re-planned while the grid is edited. */
+	private JCheckBox chkReplan;
+
+	/** The background re-planner of the edited grid, or null if it is off. */
+	private GridReplanner replanner = null;
+
 	/**
 	 * When you load a grid world, you need to lock the controls (e.g., spinners)
 	 * since you must update their value, but not execute their update code in
 	 * the listener functions like actionPerformed, etc.
 	 */
 	private boolean locked = false;
+
+	/** The tolerance for convergence of the background solver. */
+	private static final double SOLVE_EPSILON = 1e-6;
 	
 	/**
 	 * The currently opened file. The file type will change based on what you do.
@@ -171,12 +191,16 @@ public class GridWorld implements ActionListener, ChangeListener, KeyListener, M
 		
 		labBrush = new JLabel("Undefined");
 
+		cmbTool = new JComboBox<String>(GridPanel.Tool.name);
+		cmbTool.setToolTipText("The tool to draw the brush with: freehand, a line, a filled rectangle, or a flood fill of the region clicked.");
+		cmbTool.addActionListener(this);
+
 		btnSaveGridWorld = new JButton("Save Grid World");
-		btnSaveGridWorld.setToolTipText("Save the current grid world to a file to load later.");
+		btnSaveGridWorld.setToolTipText("Save the current grid world to a file to load later. Image extensions (e.g., .png) save one pixel per cell.");
 		btnSaveGridWorld.addActionListener(this);
 
 		btnLoadGridWorld = new JButton("Load Grid World");
-		btnLoadGridWorld.setToolTipText("Load a grid world from a file.");
+		btnLoadGridWorld.setToolTipText("Load a grid world from a file. Images (e.g., .png) load one cell per pixel, by the nearest cell color.");
 		btnLoadGridWorld.addActionListener(this);
 
 		btnExportRawMDP = new JButton("Export Raw MDP");
@@ -212,6 +236,14 @@ public class GridWorld implements ActionListener, ChangeListener, KeyListener, M
 
 		JLabel lblSpeed = new JLabel("Speed:");
 
+		btnSolve = new JButton("Solve");
+		btnSolve.setToolTipText("Solve the underlying MDP in the background, showing its values and policy as they converge. Click again to stop.");
+		btnSolve.addActionListener(this);
+
+		chkReplan = new JCheckBox("Re-plan While Editing");
+		chkReplan.setToolTipText("Keep the MDP policy current in the background while you edit the grid.");
+		chkReplan.addActionListener(this);
+
 		GroupLayout gl_pnlControl = new GroupLayout(pnlControl);
 		gl_pnlControl.setHorizontalGroup(
 			gl_pnlControl.createParallelGroup(Alignment.LEADING)
@@ -228,6 +260,7 @@ public class GridWorld implements ActionListener, ChangeListener, KeyListener, M
 								.addComponent(sprHeight, GroupLayout.DEFAULT_SIZE, 90, Short.MAX_VALUE)))
 						.addComponent(labBrush, GroupLayout.DEFAULT_SIZE, 160, Short.MAX_VALUE)
 						.addComponent(pnlBrush, GroupLayout.DEFAULT_SIZE, 160, Short.MAX_VALUE)
+						.addComponent(cmbTool, GroupLayout.DEFAULT_SIZE, 160, Short.MAX_VALUE)
 						.addComponent(btnSaveGridWorld, GroupLayout.DEFAULT_SIZE, 160, Short.MAX_VALUE)
 						.addComponent(btnLoadGridWorld, GroupLayout.DEFAULT_SIZE, 160, Short.MAX_VALUE)
 						.addComponent(btnExportRawMDP, GroupLayout.DEFAULT_SIZE, 160, Short.MAX_VALUE)
@@ -246,7 +279,9 @@ public class GridWorld implements ActionListener, ChangeListener, KeyListener, M
 							.addContainerGap()
 							.addComponent(lblSpeed)
 							.addGap(18)
-							.addComponent(sldSpeed, GroupLayout.DEFAULT_SIZE, 95, Short.MAX_VALUE)))
+							.addComponent(sldSpeed, GroupLayout.DEFAULT_SIZE, 95, Short.MAX_VALUE))
+						.addComponent(btnSolve, GroupLayout.DEFAULT_SIZE, 160, Short.MAX_VALUE)
+						.addComponent(chkReplan, GroupLayout.DEFAULT_SIZE, 160, Short.MAX_VALUE))
 					.addContainerGap())
 		);
 		gl_pnlControl.setVerticalGroup(
@@ -265,6 +300,8 @@ public class GridWorld implements ActionListener, ChangeListener, KeyListener, M
 					.addPreferredGap(ComponentPlacement.RELATED)
 					.addComponent(pnlBrush)
 					.addPreferredGap(ComponentPlacement.RELATED)
+					.addComponent(cmbTool, GroupLayout.PREFERRED_SIZE, GroupLayout.DEFAULT_SIZE, GroupLayout.PREFERRED_SIZE)
+					.addPreferredGap(ComponentPlacement.RELATED)
 					.addComponent(btnSaveGridWorld)
 					.addPreferredGap(ComponentPlacement.RELATED)
 					.addComponent(btnLoadGridWorld)
@@ -285,7 +322,11 @@ public class GridWorld implements ActionListener, ChangeListener, KeyListener, M
 						.addGroup(gl_pnlControl.createSequentialGroup()
 							.addComponent(lblSpeed)
 							.addContainerGap())
-						.addComponent(sldSpeed, GroupLayout.PREFERRED_SIZE, GroupLayout.DEFAULT_SIZE, GroupLayout.PREFERRED_SIZE)))
+						.addComponent(sldSpeed, GroupLayout.PREFERRED_SIZE, GroupLayout.DEFAULT_SIZE, GroupLayout.PREFERRED_SIZE))
+					.addPreferredGap(ComponentPlacement.RELATED)
+					.addComponent(btnSolve)
+					.addPreferredGap(ComponentPlacement.RELATED)
+					.addComponent(chkReplan))
 		);
 		pnlControl.setLayout(gl_pnlControl);
 
@@ -314,7 +355,11 @@ public class GridWorld implements ActionListener, ChangeListener, KeyListener, M
 			
 			if (fc.showSaveDialog(null) == JFileChooser.APPROVE_OPTION) {
 				currentFile = fc.getSelectedFile();
-				pnlGrid.saveGrid(currentFile);
+				if (GridImage.isImageFile(currentFile)) {
+					pnlGrid.saveImage(currentFile);
+				} else {
+					pnlGrid.saveGrid(currentFile);
+				}
 			}
 		} else if (e.getSource() == btnLoadGridWorld) {
 			final JFileChooser fc = new JFileChooser();
@@ -325,7 +370,12 @@ public class GridWorld implements ActionListener, ChangeListener, KeyListener, M
 			if (fc.showOpenDialog(null) == JFileChooser.APPROVE_OPTION) {
 				// Load, and upon success, set the width and height of the spinners.
 				currentFile = fc.getSelectedFile();
-				boolean success = pnlGrid.loadGrid(currentFile);
+				boolean success = false;
+				if (GridImage.isImageFile(currentFile)) {
+					success = pnlGrid.loadImage(currentFile);
+				} else {
+					success = pnlGrid.loadGrid(currentFile);
+				}
 				
 				if (success) {
 					locked = true;
@@ -336,7 +386,8 @@ public class GridWorld implements ActionListener, ChangeListener, KeyListener, M
 			}
 		} else if (e.getSource() == btnExportRawMDP) {
 			GridMarkov mdp = new GridMarkov();
-			mdp.create(pnlGrid.getGrid(), pnlGrid.getGridWidth(), pnlGrid.getGridHeight(), false);
+			mdp.setCreatePOMDP(false);
+			mdp.create(pnlGrid.getGrid(), false);
 			
 			final JFileChooser fc = new JFileChooser();
 			try {
@@ -349,7 +400,8 @@ public class GridWorld implements ActionListener, ChangeListener, KeyListener, M
 			}
 		} else if (e.getSource() == btnExportRawSSP) {
 			GridMarkov mdp = new GridMarkov();
-			mdp.create(pnlGrid.getGrid(), pnlGrid.getGridWidth(), pnlGrid.getGridHeight(), true);
+			mdp.setCreatePOMDP(false);
+			mdp.create(pnlGrid.getGrid(), true);
 			
 			final JFileChooser fc = new JFileChooser();
 			try {
@@ -364,7 +416,7 @@ public class GridWorld implements ActionListener, ChangeListener, KeyListener, M
 
 		} else if (e.getSource() == btnExportRawPOMDP) {
 			GridMarkov pomdp = new GridMarkov();
-			pomdp.create(pnlGrid.getGrid(), pnlGrid.getGridWidth(), pnlGrid.getGridHeight(), false);
+			pomdp.create(pnlGrid.getGrid(), false);
 			
 			final JFileChooser fc = new JFileChooser();
 			try {
@@ -384,6 +436,46 @@ public class GridWorld implements ActionListener, ChangeListener, KeyListener, M
 				btnPlayPause.setText("Play");
 			}
 			pnlGrid.toggleRobot();
+		} else if (e.getSource() == btnSolve) {
+			if (anytimeSolver != null && anytimeSolver.isRunning()) {
+				anytimeSolver.stop();
+				return;
+			}
+
+			GridMarkov markov = new GridMarkov();
+			markov.setCreatePOMDP(false);
+			GridMarkov mdp = markov.create(pnlGrid.getGrid(), false);
+
+			// The panel shows each snapshot; the button flips back once the last one arrives.
+			anytimeSolver = new GridAnytimeSolver(mdp);
+			anytimeSolver.addListener(pnlGrid);
+			anytimeSolver.addListener(new GridAnytimeSolver.Listener() {
+				@Override
+				public void snapshotPublished(GridAnytimeSolver.Snapshot snapshot) {
+					if (snapshot.done) {
+						EventQueue.invokeLater(new Runnable() {
+							public void run() {
+								btnSolve.setText("Solve");
+							}
+						});
+					}
+				}
+			});
+			btnSolve.setText("Stop");
+			anytimeSolver.start(mdp.getDiscountFactor(), SOLVE_EPSILON);
+		} else if (e.getSource() == cmbTool) {
+			pnlGrid.setTool(cmbTool.getSelectedIndex());
+		} else if (e.getSource() == chkReplan) {
+			if (chkReplan.isSelected() && replanner == null) {
+				replanner = new GridReplanner();
+				replanner.addListener(pnlGrid);
+				pnlGrid.setChangeListener(replanner);
+			} else if (!chkReplan.isSelected() && replanner != null) {
+				pnlGrid.setChangeListener(null);
+				replanner.shutdown();
+				replanner = null;
+				pnlGrid.clearSnapshot();
+			}
 		}
 	}
 